@@ -0,0 +1,122 @@
+package com.mitchseymour.benchmarks;
+
+import com.mitchseymour.Document;
+import com.mitchseymour.RequestHandler;
+import com.mitchseymour.classifier.DocumentClassifier;
+import com.mitchseymour.store.InMemoryStore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adding documents to a genre, and finding the closest genres to a document in catalogs of
+ * different sizes. Result caches are left disabled, so every query is scored.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class ClassifierBenchmark {
+  /** The number of distinct documents / queries that are cycled through by each benchmark */
+  private static final int POOL_SIZE = 256;
+
+  /** The length of the documents in the catalog, which only affects the setup time */
+  private static final int CATALOG_DOCUMENT_LENGTH = 200;
+
+  private static final int DOCUMENTS_PER_GENRE = 2;
+
+  /** A single genre that documents are added to */
+  @State(Scope.Benchmark)
+  public static class Genre {
+    @Param({"100", "1000"})
+    int documentLength;
+
+    private final List<Document> documents = new ArrayList<>();
+    private DocumentClassifier classifier;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      SyntheticCorpus corpus = new SyntheticCorpus(100_000, 42);
+      for (int i = 0; i < POOL_SIZE; i++) {
+        Document document = new Document("doc-" + i, corpus.document(documentLength, 0));
+        // tokenizing is measured by DocumentBenchmark, so only the classifier update is measured
+        document.getTermVector();
+        documents.add(document);
+      }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupClassifier() {
+      // documents are replaced once the pool has been cycled through, so the genre's size is stable
+      classifier = new DocumentClassifier("benchmark", new InMemoryStore());
+    }
+  }
+
+  /** A catalog of genres that documents are classified against */
+  @State(Scope.Benchmark)
+  public static class Catalog {
+    @Param({"10", "1000", "50000"})
+    int genreCount;
+
+    @Param({"100", "1000"})
+    int documentLength;
+
+    private RequestHandler requestHandler;
+    private final List<String> queries = new ArrayList<>();
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      SyntheticCorpus corpus = new SyntheticCorpus(100_000, 42);
+      requestHandler = new RequestHandler();
+      Map<String, List<Document>> catalog = new HashMap<>();
+      for (int genre = 0; genre < genreCount; genre++) {
+        List<Document> genreDocuments = new ArrayList<>();
+        for (int i = 0; i < DOCUMENTS_PER_GENRE; i++) {
+          genreDocuments.add(
+              new Document(genre + "-" + i, corpus.document(CATALOG_DOCUMENT_LENGTH, genre)));
+        }
+        catalog.put("genre-" + genre, genreDocuments);
+      }
+      requestHandler.addDocumentsToGenres(catalog);
+
+      for (int i = 0; i < POOL_SIZE; i++) {
+        queries.add(corpus.document(documentLength, i % genreCount));
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      requestHandler.close();
+    }
+  }
+
+  @Benchmark
+  public DocumentClassifier addDocument(Genre genre) {
+    genre.classifier.addDocument(genre.documents.get(genre.next++ % POOL_SIZE));
+    return genre.classifier;
+  }
+
+  @Benchmark
+  public List<String> nClosestGenres(Catalog catalog) {
+    return catalog.requestHandler.getNClosestGenres(
+        catalog.queries.get(catalog.next++ % POOL_SIZE), 10);
+  }
+}
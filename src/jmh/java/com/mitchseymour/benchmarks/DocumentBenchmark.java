@@ -0,0 +1,64 @@
+package com.mitchseymour.benchmarks;
+
+import com.mitchseymour.Document;
+import com.mitchseymour.similarity.CosineSimilarity;
+import com.mitchseymour.vector.SparseVector;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Tokenizing a document, building its term vector, and comparing two documents */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  int documentLength;
+
+  @Param({"1000", "100000"})
+  int vocabularySize;
+
+  private String text;
+
+  private SparseVector left;
+  private SparseVector right;
+
+  private final CosineSimilarity similarity = new CosineSimilarity();
+
+  @Setup
+  public void setup() {
+    SyntheticCorpus corpus = new SyntheticCorpus(vocabularySize, 42);
+    text = corpus.document(documentLength);
+    left = new Document(text).getTermVector();
+    right = new Document(corpus.document(documentLength)).getTermVector();
+  }
+
+  @Benchmark
+  public Map<CharSequence, Double> termFrequencies() {
+    return new Document(text).getTermFrequencies();
+  }
+
+  @Benchmark
+  public SparseVector termVector() {
+    return new Document(text).getTermVector();
+  }
+
+  @Benchmark
+  public Double cosineSimilarity() {
+    return similarity.calculate(left, right);
+  }
+}
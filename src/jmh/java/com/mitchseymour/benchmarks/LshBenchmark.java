@@ -0,0 +1,135 @@
+package com.mitchseymour.benchmarks;
+
+import com.mitchseymour.Document;
+import com.mitchseymour.RequestHandler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the closest genres to a document exactly, and approximately using locality-sensitive
+ * hashing, with different LSH configurations. JMH can't report accuracy, so the approximate path's
+ * recall@10 (the fraction of the exact top 10 that it also returns) is printed at setup time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class LshBenchmark {
+  /** The number of distinct queries that are cycled through by each benchmark */
+  private static final int POOL_SIZE = 256;
+
+  private static final int CATALOG_DOCUMENT_LENGTH = 200;
+
+  private static final int DOCUMENTS_PER_GENRE = 2;
+
+  private static final int QUERY_LENGTH = 200;
+
+  private static final int K = 10;
+
+  /** A catalog of genres with LSH tables */
+  @State(Scope.Benchmark)
+  public static class Catalog {
+    @Param({"1000", "50000"})
+    int genreCount;
+
+    @Param({"8", "16"})
+    int bands;
+
+    @Param({"8"})
+    int rows;
+
+    @Param({"0", "2", "4"})
+    int probes;
+
+    private RequestHandler requestHandler;
+    private final List<String> queries = new ArrayList<>();
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      SyntheticCorpus corpus = new SyntheticCorpus(100_000, 42);
+      requestHandler = new RequestHandler();
+      requestHandler.enableApproximateScoring(bands, rows, probes);
+      Map<String, List<Document>> catalog = new HashMap<>();
+      for (int genre = 0; genre < genreCount; genre++) {
+        List<Document> genreDocuments = new ArrayList<>();
+        for (int i = 0; i < DOCUMENTS_PER_GENRE; i++) {
+          genreDocuments.add(
+              new Document(genre + "-" + i, corpus.document(CATALOG_DOCUMENT_LENGTH, genre)));
+        }
+        catalog.put("genre-" + genre, genreDocuments);
+      }
+      requestHandler.addDocumentsToGenres(catalog);
+
+      double recall = 0.0;
+      for (int i = 0; i < POOL_SIZE; i++) {
+        String query = corpus.document(QUERY_LENGTH, i % genreCount);
+        queries.add(query);
+        recall += recall(query);
+      }
+      System.out.printf(
+          Locale.ROOT,
+          "%nrecall@%d with %d genres, %d bands, %d rows, %d probes: %.3f%n",
+          K,
+          genreCount,
+          bands,
+          rows,
+          probes,
+          recall / POOL_SIZE);
+    }
+
+    /** @return the fraction of the exact top k that the approximate path also returns */
+    private double recall(String query) {
+      List<String> exact = requestHandler.getNClosestGenres(query, K, 0.0, true);
+      if (exact.isEmpty()) {
+        return 1.0;
+      }
+      Set<String> approximate =
+          new HashSet<>(requestHandler.getNClosestGenres(query, K, 0.0, false));
+      int found = 0;
+      for (String genre : exact) {
+        if (approximate.contains(genre)) {
+          found++;
+        }
+      }
+      return found / (double) exact.size();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      requestHandler.close();
+    }
+  }
+
+  @Benchmark
+  public List<String> exact(Catalog catalog) {
+    return catalog.requestHandler.getNClosestGenres(
+        catalog.queries.get(catalog.next++ % POOL_SIZE), K, Double.NEGATIVE_INFINITY, true);
+  }
+
+  @Benchmark
+  public List<String> approximate(Catalog catalog) {
+    return catalog.requestHandler.getNClosestGenres(
+        catalog.queries.get(catalog.next++ % POOL_SIZE), K, Double.NEGATIVE_INFINITY, false);
+  }
+}
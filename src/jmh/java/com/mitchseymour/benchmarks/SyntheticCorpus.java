@@ -0,0 +1,109 @@
+package com.mitchseymour.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates synthetic documents for benchmarks. The same vocabulary size and seed always generate
+ * the same documents, so results are comparable across runs and machines without shipping a corpus.
+ *
+ * <p>Words are made-up, pronounceable words that are drawn from the vocabulary with a Zipf
+ * distribution like natural language, i.e. a few words appear in most documents and most words are
+ * rare. Documents can be generated for a topic, in which case half of their words are drawn from a
+ * ranking of the vocabulary that is specific to the topic, so that documents of the same topic are
+ * more similar to each other than to documents of other topics. Sentences are capitalized and
+ * punctuated, so that the tokenizer has the same work to do as with real text.
+ */
+public class SyntheticCorpus {
+  private static final String[] CONSONANTS = {
+    "b", "c", "d", "f", "g", "h", "k", "l", "m", "n", "p", "r", "s", "t", "v", "z"
+  };
+  private static final String[] VOWELS = {"a", "e", "i", "o", "u"};
+
+  /** Shifts the ranks of a topic's words, so that each topic has different common words */
+  private static final int TOPIC_STRIDE = 7919;
+
+  private final String[] vocabulary;
+
+  /** The cumulative Zipf weights of the words, by rank */
+  private final double[] cumulativeWeights;
+
+  private final Random random;
+
+  /**
+   * Constructor
+   *
+   * @param vocabularySize the number of distinct words
+   * @param seed the seed for choosing words
+   */
+  public SyntheticCorpus(int vocabularySize, long seed) {
+    this.vocabulary = new String[vocabularySize];
+    this.cumulativeWeights = new double[vocabularySize];
+    double total = 0;
+    for (int rank = 0; rank < vocabularySize; rank++) {
+      vocabulary[rank] = word(rank);
+      total += 1.0 / (rank + 1);
+      cumulativeWeights[rank] = total;
+    }
+    this.random = new Random(seed);
+  }
+
+  /** @return a document with words from the whole vocabulary */
+  public String document(int length) {
+    return document(length, -1);
+  }
+
+  /**
+   * @param length the number of words in the document
+   * @param topic the topic of the document, or -1 for no topic
+   * @return a document
+   */
+  public String document(int length, int topic) {
+    StringBuilder text = new StringBuilder(length * 8);
+    boolean sentenceStart = true;
+    for (int i = 0; i < length; i++) {
+      int rank = nextRank();
+      if (topic >= 0 && random.nextBoolean()) {
+        rank = (int) ((rank + (long) topic * TOPIC_STRIDE) % vocabulary.length);
+      }
+      String word = vocabulary[rank];
+      if (i > 0) {
+        text.append(' ');
+      }
+      if (sentenceStart) {
+        text.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        sentenceStart = false;
+      } else {
+        text.append(word);
+      }
+
+      int punctuation = random.nextInt(16);
+      if (punctuation == 0 || i == length - 1) {
+        text.append('.');
+        sentenceStart = true;
+      } else if (punctuation == 1) {
+        text.append(',');
+      }
+    }
+    return text.toString();
+  }
+
+  /** @return the rank of a random word, following a Zipf distribution */
+  private int nextRank() {
+    double target = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+    int index = Arrays.binarySearch(cumulativeWeights, target);
+    return Math.min(index >= 0 ? index : -index - 1, cumulativeWeights.length - 1);
+  }
+
+  /** @return a unique word for a rank, made of consonant-vowel syllables */
+  private static String word(int rank) {
+    StringBuilder word = new StringBuilder();
+    int remaining = rank;
+    do {
+      int syllable = remaining % (CONSONANTS.length * VOWELS.length);
+      word.append(CONSONANTS[syllable / VOWELS.length]).append(VOWELS[syllable % VOWELS.length]);
+      remaining /= CONSONANTS.length * VOWELS.length;
+    } while (remaining > 0);
+    return word.toString();
+  }
+}
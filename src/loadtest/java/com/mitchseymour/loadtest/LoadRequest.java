@@ -0,0 +1,91 @@
+package com.mitchseymour.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A request that is sent to the server by the load test */
+class LoadRequest {
+  private final String method;
+  private final String path;
+  private final Map<String, String> params;
+  private final String body;
+
+  /**
+   * Constructor
+   *
+   * @param method the http method, e.g. GET
+   * @param path the endpoint, e.g. /nClosestGenres
+   * @param params the query string parameters (not url encoded)
+   * @param body the request body, or null
+   */
+  LoadRequest(String method, String path, Map<String, String> params, String body) {
+    this.method = method;
+    this.path = path;
+    this.params = params;
+    this.body = body;
+  }
+
+  /** Constructor for a request without a body */
+  LoadRequest(String method, String path, String... params) {
+    this(method, path, new LinkedHashMap<>(), null);
+    for (int i = 0; i < params.length; i += 2) {
+      this.params.put(params[i], params[i + 1]);
+    }
+  }
+
+  /** @return the name of the endpoint, which latencies are reported by */
+  String endpoint() {
+    return method + " " + path;
+  }
+
+  /**
+   * Send the request, and read the whole response
+   *
+   * @param baseUrl the server's url, e.g. http://localhost:8080
+   * @return the response status
+   * @throws IOException if the request fails
+   */
+  int send(String baseUrl) throws IOException {
+    URL url = new URL(baseUrl + path + query());
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod(method);
+    if (body != null) {
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    int status = connection.getResponseCode();
+
+    // read the response to the end, so that the connection can be reused
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    if (in != null) {
+      try (InputStream response = in) {
+        byte[] buffer = new byte[8192];
+        while (response.read(buffer) >= 0) {
+          // discard
+        }
+      }
+    }
+    return status;
+  }
+
+  private String query() throws UnsupportedEncodingException {
+    StringBuilder query = new StringBuilder();
+    for (Map.Entry<String, String> param : params.entrySet()) {
+      query.append(query.length() == 0 ? '?' : '&');
+      query.append(URLEncoder.encode(param.getKey(), "UTF-8"));
+      query.append('=');
+      query.append(URLEncoder.encode(param.getValue(), "UTF-8"));
+    }
+    return query.toString();
+  }
+}
@@ -0,0 +1,201 @@
+package com.mitchseymour.loadtest;
+
+import com.mitchseymour.Main;
+import com.mitchseymour.ServerConfig;
+import com.mitchseymour.benchmarks.SyntheticCorpus;
+import com.mitchseymour.json.JsonWriter;
+import com.mitchseymour.loadtest.OpenLoopDriver.EndpointResults;
+import com.mitchseymour.metrics.LatencyHistogram;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import org.eclipse.jetty.server.Server;
+
+/**
+ * End-to-end load test. Starts the server in-process on an ephemeral port (unless a target server
+ * is given), seeds it with genres from a synthetic corpus, and then sends a mix of requests at a
+ * constant rate. Writes a report of the throughput and latency percentiles of each endpoint.
+ *
+ * <p>Settings are passed the same way as to {@link Main}, e.g. --loadtest.rate=500, and any server
+ * settings (e.g. --classify.threads=4) are passed on to the in-process server:
+ *
+ * <ul>
+ *   <li>loadtest.target: the url of a server to test instead of starting one, e.g.
+ *       http://localhost:8080. The server is still seeded, unless loadtest.genres is 0
+ *   <li>loadtest.rate: requests per second (default: 200)
+ *   <li>loadtest.warmupSeconds: how long to send requests for before measuring (default: 10)
+ *   <li>loadtest.durationSeconds: how long to measure for (default: 30)
+ *   <li>loadtest.concurrency: the maximum number of requests in flight (default: 256)
+ *   <li>loadtest.mix: the weight of each endpoint (default:
+ *       nClosestGenres=70,termFrequencies=15,similarityScore=10,genreDocuments=5)
+ *   <li>loadtest.replay: a file of requests to replay instead of the mix (see {@link
+ *       RequestSource#replay})
+ *   <li>loadtest.genres, loadtest.documentsPerGenre: the size of the seeded catalog (default: 1000,
+ *       5)
+ *   <li>loadtest.documentLength: the number of words in each document (default: 200)
+ *   <li>loadtest.vocabularySize: the number of distinct words in the corpus (default: 50000)
+ *   <li>loadtest.distinctTexts: the number of different texts that are sent (default: 10000)
+ *   <li>loadtest.seed: the seed for the corpus and the mix (default: 42)
+ *   <li>loadtest.report: where to write the report (default: build/reports/loadtest/report.txt)
+ * </ul>
+ */
+public class LoadTest {
+  /** The number of documents that are sent to the bulk ingest endpoint at once */
+  private static final int SEED_BATCH_SIZE = 5000;
+
+  public static void main(String[] args) throws Exception {
+    ServerConfig config = ServerConfig.load(args);
+    int concurrency = config.getInt("loadtest.concurrency", 256);
+    // HttpURLConnection only keeps a few idle connections per host by default
+    System.setProperty("http.maxConnections", Integer.toString(concurrency));
+
+    String target = config.get("loadtest.target", null);
+    Server server = null;
+    if (target == null) {
+      server = Main.start(ServerConfig.load(withEphemeralPort(args)));
+      target = "http://localhost:" + Main.getPort(server);
+    }
+
+    try {
+      long seed = config.getLong("loadtest.seed", 42L);
+      int genres = config.getInt("loadtest.genres", 1000);
+      int documentLength = config.getInt("loadtest.documentLength", 200);
+      SyntheticCorpus corpus =
+          new SyntheticCorpus(config.getInt("loadtest.vocabularySize", 50_000), seed);
+      if (genres > 0) {
+        int documentsPerGenre = config.getInt("loadtest.documentsPerGenre", 5);
+        seed(target, corpus, genres, documentsPerGenre, documentLength);
+      }
+
+      String replay = config.get("loadtest.replay", null);
+      RequestSource source =
+          replay != null
+              ? RequestSource.replay(Paths.get(replay))
+              : RequestSource.mix(
+                  config.get(
+                      "loadtest.mix",
+                      "nClosestGenres=70,termFrequencies=15,similarityScore=10,genreDocuments=5"),
+                  corpus,
+                  config.getInt("loadtest.distinctTexts", 10_000),
+                  documentLength,
+                  Math.max(1, genres),
+                  seed);
+
+      OpenLoopDriver driver = new OpenLoopDriver(target, concurrency);
+      double rate = Double.parseDouble(config.get("loadtest.rate", "200"));
+      System.out.printf("Warming up at %.0f requests/s%n", rate);
+      driver.run(source, rate, config.getLong("loadtest.warmupSeconds", 10L));
+      System.out.printf("Measuring at %.0f requests/s%n", rate);
+      Map<String, EndpointResults> results =
+          driver.run(source, rate, config.getLong("loadtest.durationSeconds", 30L));
+
+      String report = report(rate, results);
+      System.out.print(report);
+      Path reportFile =
+          Paths.get(config.get("loadtest.report", "build/reports/loadtest/report.txt"));
+      if (reportFile.getParent() != null) {
+        Files.createDirectories(reportFile.getParent());
+      }
+      Files.write(reportFile, report.getBytes(StandardCharsets.UTF_8));
+      System.out.println("Wrote report to " + reportFile.toAbsolutePath());
+    } finally {
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+
+  /** @return the arguments, with the server's port set to 0 */
+  private static String[] withEphemeralPort(String[] args) {
+    String[] result = new String[args.length + 1];
+    System.arraycopy(args, 0, result, 0, args.length);
+    result[args.length] = "--server.port=0";
+    return result;
+  }
+
+  /** Add documents to genres through the bulk ingest endpoint */
+  private static void seed(
+      String target, SyntheticCorpus corpus, int genres, int documentsPerGenre, int documentLength)
+      throws IOException {
+    long started = System.nanoTime();
+    StringWriter batch = new StringWriter();
+    JsonWriter json = new JsonWriter(batch);
+    int batchSize = 0;
+    for (int genre = 0; genre < genres; genre++) {
+      for (int i = 0; i < documentsPerGenre; i++) {
+        json.beginObject()
+            .name("genre")
+            .value("genre-" + genre)
+            .name("docId")
+            .value(genre + "-" + i)
+            .name("documentText")
+            .value(corpus.document(documentLength, genre))
+            .endObject()
+            .newline();
+        if (++batchSize == SEED_BATCH_SIZE) {
+          sendBatch(target, batch);
+          batchSize = 0;
+        }
+      }
+    }
+    if (batchSize > 0) {
+      sendBatch(target, batch);
+    }
+    System.out.printf(
+        "Seeded %d genres in %d ms%n", genres, (System.nanoTime() - started) / 1_000_000);
+  }
+
+  private static void sendBatch(String target, StringWriter batch) throws IOException {
+    LoadRequest request =
+        new LoadRequest(
+            "PUT", "/genreDocuments", Collections.emptyMap(), batch.getBuffer().toString());
+    batch.getBuffer().setLength(0);
+    int status = request.send(target);
+    if (status != 200) {
+      throw new IOException("Could not seed genres: " + status);
+    }
+  }
+
+  /** @return a table of the throughput and latency of each endpoint */
+  static String report(double rate, Map<String, EndpointResults> results) {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format(Locale.ROOT, "Target rate: %.0f requests/s%n", rate));
+    report.append(
+        String.format(
+            Locale.ROOT,
+            "%-24s %9s %7s %8s %9s %9s %9s %9s %9s%n",
+            "endpoint",
+            "requests",
+            "errors",
+            "rejected",
+            "req/s",
+            "p50 ms",
+            "p99 ms",
+            "p99.9 ms",
+            "max ms"));
+    for (Map.Entry<String, EndpointResults> entry : results.entrySet()) {
+      EndpointResults endpoint = entry.getValue();
+      LatencyHistogram latencies = endpoint.latencies;
+      report.append(
+          String.format(
+              Locale.ROOT,
+              "%-24s %9d %7d %8d %9.1f %9.2f %9.2f %9.2f %9.2f%n",
+              entry.getKey(),
+              latencies.getCount(),
+              endpoint.errors.sum(),
+              endpoint.rejected.sum(),
+              endpoint.throughput(),
+              latencies.getValueAtPercentile(50) / 1000.0,
+              latencies.getValueAtPercentile(99) / 1000.0,
+              latencies.getValueAtPercentile(99.9) / 1000.0,
+              latencies.getMax() / 1000.0));
+    }
+    return report.toString();
+  }
+}
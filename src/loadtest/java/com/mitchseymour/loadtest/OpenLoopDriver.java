@@ -0,0 +1,109 @@
+package com.mitchseymour.loadtest;
+
+import com.mitchseymour.metrics.LatencyHistogram;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests at a constant arrival rate, regardless of how quickly the server responds (i.e.
+ * an open loop). Each request's latency is measured from the time it was scheduled to be sent
+ * rather than the time it was actually sent, so time spent waiting for a free connection when the
+ * server falls behind is included, instead of being hidden by sending fewer requests (coordinated
+ * omission).
+ */
+class OpenLoopDriver {
+  private final String baseUrl;
+  private final int concurrency;
+
+  /**
+   * Constructor
+   *
+   * @param baseUrl the server's url, e.g. http://localhost:8080
+   * @param concurrency the maximum number of requests in flight
+   */
+  OpenLoopDriver(String baseUrl, int concurrency) {
+    this.baseUrl = baseUrl;
+    this.concurrency = concurrency;
+  }
+
+  /**
+   * Send requests for a period of time
+   *
+   * @param source the requests to send
+   * @param rate the number of requests to send per second
+   * @param durationSeconds how long to send requests for
+   * @return the latencies and errors of the requests, by endpoint
+   * @throws InterruptedException if interrupted while waiting for requests to complete
+   */
+  Map<String, EndpointResults> run(RequestSource source, double rate, long durationSeconds)
+      throws InterruptedException {
+    Map<String, EndpointResults> results = new ConcurrentHashMap<>();
+    ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+    long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    long requests = TimeUnit.SECONDS.toNanos(durationSeconds) / interval;
+    long start = System.nanoTime();
+    try {
+      for (long i = 0; i < requests; i++) {
+        long scheduled = start + i * interval;
+        long delay = scheduled - System.nanoTime();
+        if (delay > 0) {
+          LockSupport.parkNanos(delay);
+        }
+        LoadRequest request = source.next();
+        EndpointResults endpoint =
+            results.computeIfAbsent(request.endpoint(), key -> new EndpointResults());
+        workers.execute(() -> endpoint.record(send(request), System.nanoTime() - scheduled));
+      }
+    } finally {
+      workers.shutdown();
+      workers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+    long elapsed = System.nanoTime() - start;
+    for (EndpointResults endpoint : results.values()) {
+      endpoint.elapsedNanos = elapsed;
+    }
+    return new TreeMap<>(results);
+  }
+
+  /** @return the response status, or -1 if the request failed */
+  private int send(LoadRequest request) {
+    try {
+      return request.send(baseUrl);
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  /** The results of the requests to an endpoint */
+  static class EndpointResults {
+    /** Latencies, in microseconds */
+    final LatencyHistogram latencies = new LatencyHistogram();
+
+    final LongAdder errors = new LongAdder();
+
+    /** Responses that were rejected by the server to shed load, i.e. 429 or 503 */
+    final LongAdder rejected = new LongAdder();
+
+    long elapsedNanos;
+
+    void record(int status, long latencyNanos) {
+      latencies.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+      if (status == 429 || status == 503) {
+        rejected.increment();
+      } else if (status < 200 || status >= 300) {
+        errors.increment();
+      }
+    }
+
+    /** @return the number of completed requests per second */
+    double throughput() {
+      return latencies.getCount() / (elapsedNanos / 1e9);
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package com.mitchseymour.loadtest;
+
+import com.mitchseymour.benchmarks.SyntheticCorpus;
+import com.mitchseymour.json.JsonReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/** Produces the requests that are sent by the load test. Only called by the dispatching thread */
+interface RequestSource {
+
+  LoadRequest next();
+
+  /**
+   * Requests for a weighted mix of endpoints, with texts from a synthetic corpus.
+   *
+   * @param mix the weight of each endpoint, e.g. "nClosestGenres=70,termFrequencies=30". The
+   *     endpoints are termFrequencies, similarityScore, nClosestGenres, genreDocuments (get a
+   *     genre's documents) and genreDocument (add a document to a genre)
+   * @param corpus generates the texts of the requests
+   * @param distinctTexts the number of different texts to send. Texts are generated up front, so
+   *     generating them doesn't slow down the dispatching thread
+   * @param documentLength the number of words in each text
+   * @param genres the number of genres the server was seeded with
+   * @param seed the seed for choosing endpoints and texts
+   */
+  static RequestSource mix(
+      String mix,
+      SyntheticCorpus corpus,
+      int distinctTexts,
+      int documentLength,
+      int genres,
+      long seed) {
+    List<String> endpoints = new ArrayList<>();
+    List<Integer> cumulativeWeights = new ArrayList<>();
+    int total = 0;
+    for (String entry : mix.split(",")) {
+      String[] endpointWeight = entry.trim().split("=");
+      total += Integer.parseInt(endpointWeight[1].trim());
+      endpoints.add(endpointWeight[0].trim());
+      cumulativeWeights.add(total);
+    }
+
+    String[] texts = new String[distinctTexts];
+    for (int i = 0; i < distinctTexts; i++) {
+      texts[i] = corpus.document(documentLength, i % genres);
+    }
+
+    Random random = new Random(seed);
+    int totalWeight = total;
+    int[] added = {0};
+    return () -> {
+      int choice = random.nextInt(totalWeight);
+      int index = 0;
+      while (cumulativeWeights.get(index) <= choice) {
+        index++;
+      }
+      String text = texts[random.nextInt(texts.length)];
+      String genre = "genre-" + random.nextInt(genres);
+      switch (endpoints.get(index)) {
+        case "termFrequencies":
+          return new LoadRequest("GET", "/termFrequencies", "documentText", text);
+        case "similarityScore":
+          return new LoadRequest(
+              "GET",
+              "/similarityScore",
+              "documentText1",
+              text,
+              "documentText2",
+              texts[random.nextInt(texts.length)]);
+        case "nClosestGenres":
+          return new LoadRequest("GET", "/nClosestGenres", "documentText", text, "count", "3");
+        case "genreDocuments":
+          return new LoadRequest("GET", "/genreDocuments", "genre", genre, "limit", "100");
+        case "genreDocument":
+          return new LoadRequest(
+              "PUT",
+              "/genreDocument",
+              "genre",
+              genre,
+              "docId",
+              "loadtest-" + added[0]++,
+              "documentText",
+              text);
+        default:
+          throw new IllegalArgumentException("Unknown endpoint: " + endpoints.get(index));
+      }
+    };
+  }
+
+  /**
+   * Requests that are replayed from a file, in order, starting from the beginning again once the
+   * end of the file is reached. Each line of the file is a flat JSON object, e.g.
+   *
+   * <pre>
+   *   {"method": "GET", "path": "/nClosestGenres", "documentText": "...", "count": "3"}
+   * </pre>
+   *
+   * The method defaults to GET, the body field (if any) is sent as the request body, and every
+   * other field is sent as a query string parameter.
+   *
+   * @param file the file to replay
+   * @throws IOException if the file can't be read
+   */
+  static RequestSource replay(Path file) throws IOException {
+    List<LoadRequest> requests = new ArrayList<>();
+    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      Map<String, String> params = new LinkedHashMap<>(JsonReader.parseObject(line));
+      String method = params.remove("method");
+      String path = params.remove("path");
+      String body = params.remove("body");
+      if (path == null) {
+        throw new IllegalArgumentException("Request is missing a path: " + line);
+      }
+      requests.add(new LoadRequest(method == null ? "GET" : method, path, params, body));
+    }
+    if (requests.isEmpty()) {
+      throw new IllegalArgumentException("No requests to replay in " + file);
+    }
+    int[] next = {0};
+    return () -> {
+      LoadRequest request = requests.get(next[0]);
+      next[0] = (next[0] + 1) % requests.size();
+      return request;
+    };
+  }
+}
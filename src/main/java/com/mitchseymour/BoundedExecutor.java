@@ -0,0 +1,108 @@
+package com.mitchseymour;
+
+import com.mitchseymour.metrics.ExecutorMetricsMXBean;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed pool of threads with a bounded queue, used to shed load instead of letting latency grow
+ * without limit. Work is rejected when the queue is full, and work that waited in the queue for
+ * longer than a deadline is expired instead of being run, since its client has most likely given up
+ * (or is about to).
+ *
+ * <p>The pool's metrics can be registered as an MBean (see {@link ExecutorMetricsMXBean}), e.g. as
+ * signals for autoscaling.
+ */
+public class BoundedExecutor implements ExecutorMetricsMXBean {
+  private final ThreadPoolExecutor executor;
+
+  private final long queueTimeoutNanos;
+
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+
+  /**
+   * Constructor
+   *
+   * @param name the prefix for the names of the threads
+   * @param threads the number of threads
+   * @param queueSize the maximum number of tasks waiting for a thread
+   * @param queueTimeoutMillis the maximum time a task can wait for a thread before it's expired
+   */
+  public BoundedExecutor(String name, int threads, int queueSize, long queueTimeoutMillis) {
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            r -> {
+              Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+  }
+
+  /**
+   * Queue a task
+   *
+   * @param task the work to run
+   * @param onExpired run instead of the task if it waited for longer than the queue timeout
+   * @return false if the task was rejected because the queue is full
+   */
+  public boolean execute(Runnable task, Runnable onExpired) {
+    long queued = System.nanoTime();
+    try {
+      executor.execute(
+          () -> {
+            if (System.nanoTime() - queued > queueTimeoutNanos) {
+              expired.incrementAndGet();
+              onExpired.run();
+            } else {
+              task.run();
+            }
+          });
+      return true;
+    } catch (RejectedExecutionException e) {
+      rejected.incrementAndGet();
+      return false;
+    }
+  }
+
+  @Override
+  public int getThreadCount() {
+    return executor.getMaximumPoolSize();
+  }
+
+  @Override
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  @Override
+  public int getQueueSize() {
+    return executor.getQueue().size();
+  }
+
+  @Override
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  @Override
+  public long getExpiredCount() {
+    return expired.get();
+  }
+
+  /** Stop accepting tasks. Tasks that are already queued still run */
+  public void close() {
+    executor.shutdown();
+  }
+}
@@ -3,16 +3,24 @@ package com.mitchseymour;
 import com.mitchseymour.similarity.CosineSimilarity;
 import com.mitchseymour.similarity.Similarity;
 import com.mitchseymour.similarity.SimilarityScore;
+import com.mitchseymour.vector.FeatureHasher;
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermDictionary;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class Document {
   private String id = "";
   private String text;
 
+  /**
+   * The term vector for this document, computed lazily on first use. Computing the vector is
+   * idempotent, so concurrent callers may race to initialize it without any harm
+   */
+  private volatile SparseVector termVector;
+
   public Document(String text) {
     this.text = text;
   }
@@ -22,6 +30,20 @@ public class Document {
     this.text = text;
   }
 
+  /**
+   * Constructor for documents whose term vector has already been computed (e.g. documents that are
+   * being read back from a store).
+   *
+   * @param id the document ID
+   * @param text the document text
+   * @param termVector the term vector, as returned by {@link #getTermVector()}
+   */
+  public Document(String id, String text, SparseVector termVector) {
+    this.id = id;
+    this.text = text;
+    this.termVector = termVector;
+  }
+
   public String getId() {
     return id;
   }
@@ -41,13 +63,9 @@ public class Document {
    * @return A stream of trimmed / lower cased words, with punctuation removed
    */
   Stream<String> words() {
-    return Arrays.stream(
-            // remove punctuation
-            getText().replaceAll("\\p{P}", "").split(" "))
-        // clean the individual words
-        .map(String::toLowerCase)
-        .map(String::trim)
-        .filter(str -> !str.isEmpty());
+    Stream.Builder<String> words = Stream.builder();
+    Tokenizer.get().tokenize(getText(), word -> words.add(word.toString()));
+    return words.build();
   }
 
   /**
@@ -57,10 +75,90 @@ public class Document {
    */
   public Map<CharSequence, Double> getTermFrequencies() {
     Map<CharSequence, Double> terms = new HashMap<>();
-    return words()
-        .collect(
-            Collectors.groupingBy(
-                k -> k, () -> terms, Collectors.reducing(0.0, e -> 1.0, Double::sum)));
+    Tokenizer.get()
+        .tokenize(
+            getText(),
+            word -> {
+              // the tokenizer reuses its buffer, so only copy the word the first time we see it
+              if (terms.computeIfPresent(word, (k, v) -> v + 1.0) == null) {
+                terms.put(word.toString(), 1.0);
+              }
+            });
+    return terms;
+  }
+
+  /**
+   * Get a term frequency vector for this document, keyed by the IDs assigned to each term in the
+   * global {@link TermDictionary}, or by each term's bucket if terms are hashed (see {@link
+   * FeatureHasher#global()}). The vector is only computed once per document.
+   *
+   * @return A sparse vector where the values are frequencies
+   */
+  public SparseVector getTermVector() {
+    SparseVector vector = termVector;
+    if (vector == null) {
+      vector = computeTermVector();
+      termVector = vector;
+    }
+    return vector;
+  }
+
+  /**
+   * Get a term frequency vector for a document that is only compared to genres or other documents,
+   * rather than added to a classifier. Terms are looked up in the global {@link TermDictionary}
+   * without being added to it, so that request text can't grow the dictionary. Terms that aren't
+   * in the dictionary can't match any genre, but they still count towards the vector's norm, so
+   * they're given negative IDs that are only meaningful within this vector. Unlike {@link
+   * #getTermVector()}, the vector isn't cached.
+   *
+   * @return A sparse vector where the values are frequencies
+   */
+  public SparseVector getQueryVector() {
+    return getQueryVector(new HashMap<>());
+  }
+
+  /**
+   * Get a query vector (see {@link #getQueryVector()}) that can be compared to other query vectors.
+   *
+   * @param unknownTerms the negative IDs given to terms that aren't in the dictionary, which must
+   *     be shared by the vectors that are compared to each other so that their unknown terms match
+   * @return A sparse vector where the values are frequencies
+   */
+  public SparseVector getQueryVector(Map<CharSequence, Integer> unknownTerms) {
+    if (termVector != null || FeatureHasher.global() != null) {
+      // hashing terms doesn't grow the dictionary, so the vector is the same as the term vector
+      return getTermVector();
+    }
+    TermIds ids = new TermIds();
+    TermDictionary dictionary = TermDictionary.global();
+    Tokenizer.get()
+        .tokenize(
+            getText(),
+            word -> {
+              int id = dictionary.lookup(word);
+              if (id < 0) {
+                Integer unknown = unknownTerms.get(word);
+                if (unknown == null) {
+                  unknown = -1 - unknownTerms.size();
+                  unknownTerms.put(word.toString(), unknown);
+                }
+                id = unknown;
+              }
+              ids.add(id);
+            });
+    return SparseVector.fromTermIds(ids.values, ids.size);
+  }
+
+  private SparseVector computeTermVector() {
+    TermIds ids = new TermIds();
+    FeatureHasher hasher = FeatureHasher.global();
+    if (hasher != null) {
+      Tokenizer.get().tokenize(getText(), word -> ids.add(hasher.bucketOf(word)));
+    } else {
+      TermDictionary dictionary = TermDictionary.global();
+      Tokenizer.get().tokenize(getText(), word -> ids.add(dictionary.idOf(word)));
+    }
+    return SparseVector.fromTermIds(ids.values, ids.size);
   }
 
   /**
@@ -83,9 +181,22 @@ public class Document {
     Double score =
         similarity.calculate(
             // term frequencies for the current doc
-            getTermFrequencies(),
+            getTermVector(),
             // term frequences for the comparison doc
-            compareTo.getTermFrequencies());
+            compareTo.getTermVector());
     return new SimilarityScore("", score);
   }
+
+  /** A growable list of term IDs */
+  private static class TermIds {
+    private int[] values = new int[64];
+    private int size = 0;
+
+    void add(int id) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = id;
+    }
+  }
 }
@@ -1,8 +1,28 @@
 package com.mitchseymour;
 
+import com.mitchseymour.classifier.GenreIndex;
+import com.mitchseymour.json.JsonWriter;
+import com.mitchseymour.metrics.EndpointMetrics;
+import com.mitchseymour.metrics.RequestTrace;
+import com.mitchseymour.metrics.ServerMetrics;
+import com.mitchseymour.store.InMemoryStore;
+import com.mitchseymour.store.LogStructuredStore;
+import com.mitchseymour.store.Store;
+import com.mitchseymour.vector.FeatureHasher;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -14,6 +34,8 @@ import org.eclipse.jetty.server.Slf4jRequestLog;
 import org.eclipse.jetty.server.handler.HandlerCollection;
 import org.eclipse.jetty.server.handler.RequestLogHandler;
 import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.BlockingArrayQueue;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.slf4j.*;
 
@@ -32,26 +54,167 @@ public class Main {
   /**
    * Initializes and runs the jetty servlet.
    *
-   * @param args
+   * @param args settings, in the form --name=value (see {@link ServerConfig})
    * @throws Exception
    */
   public static void main(String[] args) throws Exception {
-    // be explicit with threadpool
-    // justification: more fine-grained control over concurrency
+    // settings can be passed as --name=value arguments, environment variables or system properties
+    // justification: containers are usually configured with arguments or environment variables
+    Server server = start(ServerConfig.load(args));
+
+    // The use of server.join() the will make the current thread join and
+    // wait until the server is done executing.
+    server.join();
+  }
+
+  /**
+   * Initializes and starts the jetty servlet, returning once the server is ready to take traffic.
+   *
+   * <p>justification: lets the server be started in-process, e.g. by the load tests. Set
+   * server.port to 0 to listen on an ephemeral port (see {@link #getPort(Server)})
+   *
+   * @param config the server's settings
+   * @return the running server
+   * @throws Exception if the server can't be started
+   */
+  public static Server start(ServerConfig config) throws Exception {
+    // be explicit with threadpool, and bound its queue so that requests are rejected instead of
+    // waiting indefinitely when the server is overloaded
+    // justification: more fine-grained control over concurrency, and predictable latency under load
     QueuedThreadPool threadPool =
         new QueuedThreadPool(
-            100, // max threads
-            10 // min threads
-            );
+            config.getInt("server.maxThreads", 100),
+            config.getInt("server.minThreads", 10),
+            60_000, // idle timeout
+            new BlockingArrayQueue<>(config.getInt("server.queueSize", 1000)));
+    threadPool.setName("http");
     Server server = new Server(threadPool);
 
     ServerConnector http = new ServerConnector(server);
-    http.setPort(8080);
+    http.setPort(config.getInt("server.port", 8080));
     server.setConnectors(new Connector[] {http});
 
+    // opt-in feature hashing, which must be chosen before any documents are loaded
+    // justification: the term dictionary and each genre's term counts grow with every distinct
+    // term, which is unbounded for user-generated text, whereas hashed terms use fixed-size arrays
+    int hashBuckets = config.getInt("classifier.hashBuckets", 0);
+    if (hashBuckets > 0) {
+      FeatureHasher.setGlobal(new FeatureHasher(hashBuckets));
+    }
+
+    // opt-in durable storage, so that genres survive a restart, or off-heap document text
+    // justification: the in-memory store loses every document when the process exits, and keeping
+    // the text of large in-memory corpora off-heap keeps GC pauses short
+    String storeDir = config.get("store.dir", null);
+    Store store =
+        storeDir == null
+            ? new InMemoryStore(
+                config.getBoolean("store.offHeap", false)
+                    ? InMemoryStore.TextStorage.OFF_HEAP
+                    : InMemoryStore.TextStorage.HEAP)
+            : new LogStructuredStore(
+                Paths.get(storeDir),
+                LogStructuredStore.FsyncPolicy.valueOf(
+                    config.get("store.fsync", "interval").toUpperCase(Locale.ROOT)),
+                config.getLong("store.fsyncIntervalMs", 1000L),
+                LogStructuredStore.DEFAULT_SEGMENT_SIZE);
+
+    // snapshots of the classifiers are kept alongside the documents, so that a restart doesn't
+    // require every document to be added to the classifiers again
+    // justification: restoring from a snapshot is much faster than replaying the store
+    String snapshotFile =
+        config.get(
+            "snapshot.file",
+            storeDir == null ? null : Paths.get(storeDir, "classifiers.snapshot").toString());
+    RequestHandler requestHandler =
+        new RequestHandler(store, snapshotFile == null ? null : Paths.get(snapshotFile));
+    requestHandler.scheduleSnapshots(
+        config.getLong("snapshot.intervalSeconds", 300L), TimeUnit.SECONDS);
+
+    // opt-in TF-IDF weighting, chosen per deployment since it changes the scores
+    // justification: the raw centroids give poor results on larger collections
+    requestHandler.setWeighting(
+        GenreIndex.Weighting.valueOf(
+            config.get("classifier.weighting", "tf").replace('-', '_').toUpperCase(Locale.ROOT)));
+
+    // opt-in parallel scoring for classification requests
+    // justification: lower latency for large catalogs on hosts with many cores
+    int scoringParallelism = config.getInt("scoring.parallelism", 1);
+    if (scoringParallelism > 1) {
+      requestHandler.enableParallelScoring(
+          scoringParallelism, config.getLong("scoring.parallelThreshold", 100_000L));
+    }
+
+    // opt-in approximate scoring for classification requests that pass exact=false
+    // justification: with many genres, scoring every genre that shares a term is too slow
+    int lshBands = config.getInt("lsh.bands", 0);
+    if (lshBands > 0) {
+      requestHandler.enableApproximateScoring(
+          lshBands, config.getInt("lsh.rows", 8), config.getInt("lsh.probes", 2));
+    }
+
+    // cache term frequencies and similarity scores, which only depend on the request's text(s)
+    // justification: clients resend the same texts often (retries, fan-out, popular articles)
+    long cacheBytes = config.getLong("cache.maxBytes", 32L << 20);
+    if (cacheBytes > 0) {
+      requestHandler.enableResultCaches(cacheBytes);
+    }
+
+    // classification requests are handed off to a separate bounded pool, and shed when it falls
+    // behind, so that they can't starve the cheaper requests of http threads
+    // justification: predictable latency during traffic spikes
+    BoundedExecutor classifyExecutor =
+        new BoundedExecutor(
+            "classify",
+            config.getInt("classify.threads", Runtime.getRuntime().availableProcessors()),
+            config.getInt("classify.queueSize", 256),
+            config.getLong("classify.queueTimeoutMs", 1000L));
+
+    // streaming batch classification requests hold a thread for as long as the client keeps
+    // uploading, so they get their own pool rather than competing with single classifications
+    // justification: a few slow batch clients could otherwise get every GET /nClosestGenres shed
+    BoundedExecutor batchExecutor =
+        new BoundedExecutor(
+            "classify-batch",
+            config.getInt("classify.batchThreads", Runtime.getRuntime().availableProcessors()),
+            config.getInt("classify.batchQueueSize", 32),
+            config.getLong("classify.queueTimeoutMs", 1000L));
+
+    // publish per-endpoint latency / throughput / allocations, the size of the classifiers and the
+    // load on the classification pool as MBeans, which are scraped by the JMX exporter
+    // justification: the exporter only had JVM metrics to scrape
+    ServerMetrics metrics =
+        new ServerMetrics(
+            config.getBoolean("metrics.allocations", true), SimCalcServlet.ENDPOINTS);
+    long slowRequestMs = config.getLong("trace.slowRequestMs", 0L);
+    if (slowRequestMs > 0) {
+      // justification: shows which stage of a slow request the time went to
+      metrics.enableSlowRequestLog(
+          TimeUnit.MILLISECONDS.toNanos(slowRequestMs),
+          Double.parseDouble(config.get("trace.sampleRate", "1.0")));
+    }
+    MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    metrics.register(mbeanServer);
+    ServerMetrics.register(
+        mbeanServer,
+        new ObjectName(ServerMetrics.DOMAIN + ":type=Classifier"),
+        requestHandler.getClassifierMetrics());
+    ServerMetrics.register(
+        mbeanServer,
+        new ObjectName(ServerMetrics.DOMAIN + ":type=Executor,name=classify"),
+        classifyExecutor);
+    ServerMetrics.register(
+        mbeanServer,
+        new ObjectName(ServerMetrics.DOMAIN + ":type=Executor,name=classify-batch"),
+        batchExecutor);
+
     HandlerCollection handlers = new HandlerCollection();
     ServletHandler servletHandler = new ServletHandler();
-    servletHandler.addServletWithMapping(SimCalcServlet.class, "/*");
+    ServletHolder servletHolder =
+        new ServletHolder(
+            new SimCalcServlet(requestHandler, classifyExecutor, batchExecutor, metrics));
+    servletHolder.setAsyncSupported(true);
+    servletHandler.addServletWithMapping(servletHolder, "/*");
     handlers.addHandler(servletHandler);
 
     // add request logging
@@ -66,11 +229,20 @@ public class Main {
     // add all the handlers
     server.setHandler(handlers);
 
+    // stop the server (and close the store) when the JVM exits
+    // justification: pending writes are flushed to disk when the store is closed
+    server.setStopAtShutdown(true);
     server.start();
 
-    // The use of server.join() the will make the current thread join and
-    // wait until the server is done executing.
-    server.join();
+    // the server responds to /ready with 503 (and rejects other requests) until this completes
+    // justification: the server can be probed while the classifiers are being restored
+    requestHandler.restore();
+    return server;
+  }
+
+  /** @return the port that a server which was started by {@link #start} is listening on */
+  public static int getPort(Server server) {
+    return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
   }
 
   /**
@@ -81,19 +253,242 @@ public class Main {
    * <p>/similarityScore documentText1="url encoded text of first document" documentText2="url
    * encoded text of second document"
    *
-   * <p>/genreDocuments genre="name of genre"
+   * <p>/genreDocuments genre="name of genre" limit="optional maximum number of document IDs to
+   * return" after="optional document ID to start after, i.e. the last ID of the previous page"
    *
    * <p>/nClosestGenres documentText="url encoded text of document" count="maximum number of genres
-   * to return in response"
+   * to return in response" minScore="optional minimum similarity score for a genre to be returned"
+   * exact="optional, false to find the closest genres approximately if lsh.bands is set"
    *
    * <p>PUT /genreDocument genre="name of genre" docId="id of document" documentText="url encoded
    * text of document"
    *
+   * <p>PUT /genreDocuments body=newline delimited JSON objects, one per document: {"genre": "name
+   * of genre", "docId": "id of document", "documentText": "text of document"}
+   *
    * <p>DELETE /genreDocument genre="name of genre" docId="id of document"
+   *
+   * <p>POST /nClosestGenres body=newline delimited JSON objects, one per document: {"id": "id of
+   * document", "documentText": "text of document", "count": "maximum number of genres to return"}
    */
   @SuppressWarnings("serial")
   public static class SimCalcServlet extends HttpServlet {
-    private RequestHandler requestHandler = new RequestHandler();
+    /** The number of document IDs returned by /genreDocuments when only a cursor is provided */
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+
+    /** Responses with at least this many entries are gzip compressed, if the client accepts it */
+    private static final int GZIP_MIN_ENTRIES = 256;
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    /** Not defined by {@link HttpServletResponse} */
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /** The endpoints that metrics are recorded for */
+    public static final List<String> ENDPOINTS =
+        Collections.unmodifiableList(
+            Arrays.asList(
+                "GET /termFrequencies",
+                "GET /similarityScore",
+                "GET /genreDocuments",
+                "GET /nClosestGenres",
+                "PUT /genreDocument",
+                "PUT /genreDocuments",
+                "DELETE /genreDocument",
+                "POST /nClosestGenres"));
+
+    private final RequestHandler requestHandler;
+
+    /** Runs classification requests asynchronously, or null to run them on the http thread */
+    private final BoundedExecutor classifyExecutor;
+
+    /**
+     * Runs batch classification requests (POST /nClosestGenres) asynchronously, separately from
+     * single classifications, or null to run them on the classify executor
+     */
+    private final BoundedExecutor batchExecutor;
+
+    private final ServerMetrics metrics;
+
+    public SimCalcServlet() {
+      this(new RequestHandler());
+    }
+
+    public SimCalcServlet(RequestHandler requestHandler) {
+      this(requestHandler, null);
+    }
+
+    public SimCalcServlet(RequestHandler requestHandler, BoundedExecutor classifyExecutor) {
+      this(requestHandler, classifyExecutor, new ServerMetrics(true, ENDPOINTS));
+    }
+
+    public SimCalcServlet(
+        RequestHandler requestHandler, BoundedExecutor classifyExecutor, ServerMetrics metrics) {
+      this(requestHandler, classifyExecutor, null, metrics);
+    }
+
+    public SimCalcServlet(
+        RequestHandler requestHandler,
+        BoundedExecutor classifyExecutor,
+        BoundedExecutor batchExecutor,
+        ServerMetrics metrics) {
+      this.requestHandler = requestHandler;
+      this.classifyExecutor = classifyExecutor;
+      this.batchExecutor = batchExecutor;
+      this.metrics = metrics;
+    }
+
+    /** @return the latency, throughput and allocations of each endpoint */
+    public ServerMetrics getMetrics() {
+      return metrics;
+    }
+
+    /** Handle readiness checks, and reject requests until the classifiers have been restored */
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response)
+        throws ServletException, IOException {
+      long started = System.nanoTime();
+      boolean ready = requestHandler.isReady();
+      if ("/ready".equals(request.getPathInfo())) {
+        response.setContentType("text/plain");
+        response.setStatus(
+            ready ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.getWriter().println(ready ? "ready" : "restoring");
+        return;
+      }
+      EndpointMetrics endpoint = metrics.endpoint(request.getMethod(), request.getPathInfo());
+      if (!ready) {
+        reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "restoring");
+        endpoint.record(System.nanoTime() - started, -1, response.getStatus());
+      } else if (classifyExecutor != null && "/nClosestGenres".equals(request.getPathInfo())) {
+        boolean batch = batchExecutor != null && "POST".equals(request.getMethod());
+        BoundedExecutor executor = batch ? batchExecutor : classifyExecutor;
+        serviceAsync(request, response, endpoint, started, executor);
+      } else {
+        serviceMeasured(request, response, endpoint, started, false);
+      }
+    }
+
+    /**
+     * Handle a request, recording its latency and the bytes that were allocated while handling it,
+     * and tracing it for the slow request log if it's sampled
+     *
+     * @param started when the request was received, per {@link System#nanoTime()}
+     * @param queued whether the request waited in a queue before this was called
+     */
+    private void serviceMeasured(
+        HttpServletRequest request,
+        HttpServletResponse response,
+        EndpointMetrics endpoint,
+        long started,
+        boolean queued)
+        throws ServletException, IOException {
+      RequestTrace trace = metrics.startTrace(request.getMethod(), request.getPathInfo(), started);
+      if (queued) {
+        RequestTrace.stage("queue");
+      }
+      long allocatedBefore = metrics.allocatedBytes();
+      int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+      try {
+        super.service(request, response);
+        status = response.getStatus();
+      } finally {
+        long allocated = allocatedBefore < 0 ? -1 : metrics.allocatedBytes() - allocatedBefore;
+        endpoint.record(System.nanoTime() - started, allocated, status);
+        metrics.finishTrace(trace);
+      }
+    }
+
+    /**
+     * Handle a request on an executor, releasing the http thread in the meantime. The request is
+     * rejected with 429 if the executor's queue is full, or 503 if it waited in the queue for too
+     * long. The request's latency includes the time it spent in the queue.
+     */
+    private void serviceAsync(
+        HttpServletRequest request,
+        HttpServletResponse response,
+        EndpointMetrics endpoint,
+        long started,
+        BoundedExecutor executor)
+        throws IOException {
+      AsyncContext async = request.startAsync();
+      // the executor enforces its own deadline for queued requests, and running requests aren't
+      // interrupted
+      async.setTimeout(0);
+      boolean accepted =
+          executor.execute(
+              () -> {
+                try {
+                  serviceMeasured(request, response, endpoint, started, true);
+                } catch (Exception e) {
+                  log.error("Could not handle request: {}", request.getPathInfo(), e);
+                  if (!response.isCommitted()) {
+                    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                  }
+                } finally {
+                  async.complete();
+                }
+              },
+              () -> {
+                try {
+                  reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "overloaded");
+                  endpoint.record(System.nanoTime() - started, -1, response.getStatus());
+                } catch (IOException e) {
+                  log.debug("Could not reject request", e);
+                } finally {
+                  async.complete();
+                }
+              });
+      if (!accepted) {
+        try {
+          reject(response, SC_TOO_MANY_REQUESTS, "overloaded");
+          endpoint.record(System.nanoTime() - started, -1, SC_TOO_MANY_REQUESTS);
+        } finally {
+          async.complete();
+        }
+      }
+    }
+
+    /**
+     * @param count the requested number of genres
+     * @return the number of genres, or -1 if it's missing, not a number or out of range
+     */
+    private static int parseCount(String count) {
+      try {
+        int n = Integer.parseInt(count);
+        return n <= RequestHandler.MAX_GENRE_COUNT ? n : -1;
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+
+    /** Respond with an error that the client shouldn't retry without changing the request */
+    private static void badRequest(HttpServletResponse response, String message)
+        throws IOException {
+      response.setContentType("text/plain");
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      response.getWriter().println(message);
+    }
+
+    /** Respond with an error that the client should retry after a short delay */
+    private static void reject(HttpServletResponse response, int status, String message)
+        throws IOException {
+      response.setContentType("text/plain");
+      response.setStatus(status);
+      response.setHeader("Retry-After", "1");
+      response.getWriter().println(message);
+    }
+
+    @Override
+    public void destroy() {
+      if (classifyExecutor != null) {
+        classifyExecutor.close();
+      }
+      if (batchExecutor != null) {
+        batchExecutor.close();
+      }
+      requestHandler.close();
+    }
 
     /** Handle http get. Dispatch the handling of requests for the supported rest end points */
     @Override
@@ -106,8 +501,13 @@ public class Main {
         if (request.getPathInfo().equals("/termFrequencies")) {
           String docText = request.getParameter("documentText");
           Map<CharSequence, Double> termFrequencies = requestHandler.getTermFrequencies(docText);
-          String responseBody = doubleMapToJson(termFrequencies);
-          response.getWriter().println(responseBody);
+          try (JsonWriter json = jsonResponse(request, response, termFrequencies.size())) {
+            json.beginObject();
+            for (Map.Entry<CharSequence, Double> entry : termFrequencies.entrySet()) {
+              json.name(entry.getKey()).value(entry.getValue().longValue());
+            }
+            json.endObject().newline();
+          }
         } else if (request.getPathInfo().equals("/similarityScore")) {
           String doc1Text = request.getParameter("documentText1");
           String doc2Text = request.getParameter("documentText2");
@@ -115,21 +515,47 @@ public class Main {
           response.getWriter().println(similarityScore.toString());
         } else if (request.getPathInfo().equals("/genreDocuments")) {
           String genre = request.getParameter("genre");
-          List<String> docIds = requestHandler.getDocumentsInGenre(genre);
-          String responseBody = stringListToJson(docIds);
-          response.getWriter().println(responseBody);
+          String limit = request.getParameter("limit");
+          String after = request.getParameter("after");
+          List<String> docIds =
+              limit == null && after == null
+                  ? requestHandler.getDocumentsInGenre(genre)
+                  : requestHandler.getDocumentsInGenre(
+                      genre, after, limit == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limit));
+          try (JsonWriter json = jsonResponse(request, response, docIds.size())) {
+            writeStrings(json, docIds);
+          }
         } else if (request.getPathInfo().equals("/nClosestGenres")) {
           String documentText = request.getParameter("documentText");
           String count = request.getParameter("count");
+          String minScore = request.getParameter("minScore");
+          String exact = request.getParameter("exact");
+          RequestTrace.stage("decode");
+          int n = parseCount(count);
+          if (n < 1) {
+            badRequest(response, "count must be between 1 and " + RequestHandler.MAX_GENRE_COUNT);
+            return;
+          }
 
           List<String> genres =
-              requestHandler.getNClosestGenres(documentText, Integer.parseInt(count));
-          String responseBody = stringListToJson(genres);
-          response.getWriter().println(responseBody);
+              requestHandler.getNClosestGenres(
+                  documentText,
+                  n,
+                  minScore == null ? Double.NEGATIVE_INFINITY : Double.parseDouble(minScore),
+                  exact == null || Boolean.parseBoolean(exact));
+          try (JsonWriter json = jsonResponse(request, response, genres.size())) {
+            writeStrings(json, genres);
+          }
+          RequestTrace.stage("serialize");
         } else {
           response.setStatus(HttpServletResponse.SC_NOT_FOUND);
         }
       } catch (Exception e) {
+        if (response.isCommitted()) {
+          throw new ServletException(e);
+        }
+        // discard any headers that were set for the response body, e.g. the content encoding
+        response.reset();
         response.setContentType("text/plain");
         response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         response.getWriter().println(e.toString());
@@ -148,11 +574,49 @@ public class Main {
           String genre = request.getParameter("genre");
           String docId = request.getParameter("docId");
           String documentText = request.getParameter("documentText");
+          RequestTrace.stage("decode");
           requestHandler.addDocumentToGenre(genre, docId, documentText);
+        } else if (request.getPathInfo().equals("/genreDocuments")) {
+          // bulk ingest of newline delimited JSON documents
+          response.setContentType("application/x-ndjson");
+          response.setCharacterEncoding("UTF-8");
+          requestHandler.addDocumentsToGenres(request.getReader(), response.getWriter());
         } else {
           response.setStatus(HttpServletResponse.SC_NOT_FOUND);
         }
       } catch (Exception e) {
+        if (response.isCommitted()) {
+          // e.g. a bulk ingest whose output can no longer be written
+          throw new ServletException(e);
+        }
+        response.reset();
+        response.setContentType("text/plain");
+        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        response.getWriter().println(e.toString());
+      }
+    }
+
+    /** Handle http post. Dispatch the handling of requests for the supported rest end points */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+        throws ServletException, IOException {
+      try {
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+
+        if (request.getPathInfo().equals("/nClosestGenres")) {
+          // results are streamed back as each group of documents is classified
+          requestHandler.getNClosestGenres(request.getReader(), response.getWriter());
+        } else {
+          response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+      } catch (Exception e) {
+        if (response.isCommitted()) {
+          // results have already been streamed, so an error can't be appended to them
+          throw new ServletException(e);
+        }
+        response.reset();
         response.setContentType("text/plain");
         response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         response.getWriter().println(e.toString());
@@ -181,47 +645,67 @@ public class Main {
       }
     }
 
-    /** Serialize a Map<CharSequence,Double> to json: '{key1:value1, key2:value2, ...}' */
-    private String doubleMapToJson(Map<CharSequence, Double> map) {
-      StringBuilder result = new StringBuilder();
-      result.append('{');
-
-      map.forEach(
-          (k, v) -> {
-            result.append('"').append(k).append("\":").append(v.intValue()).append(',');
-          });
-
-      if (result.length() > 1) {
-        result.deleteCharAt(result.length() - 1); // remove trailing comma
+    /**
+     * Start a UTF-8 JSON response that is written straight to the response's output stream. Larger
+     * responses are gzip compressed if the client accepts it.
+     *
+     * @param entries the number of entries in the response, used to decide whether to compress it
+     */
+    private static JsonWriter jsonResponse(
+        HttpServletRequest request, HttpServletResponse response, int entries) throws IOException {
+      response.setCharacterEncoding("UTF-8");
+      response.setHeader("Vary", "Accept-Encoding");
+      OutputStream out = response.getOutputStream();
+      if (entries >= GZIP_MIN_ENTRIES && acceptsGzip(request.getHeader("Accept-Encoding"))) {
+        response.setHeader("Content-Encoding", "gzip");
+        out = new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
       }
-
-      result.append('}');
-
-      return result.toString();
+      return new JsonWriter(out);
     }
 
     /**
-     * Serialize a List<String> to json: '["item1","item2","item3"]'
-     *
-     * @param list
-     * @return
+     * Check whether an Accept-Encoding header allows gzip, e.g. "gzip, deflate" or "*;q=0.5", but
+     * not "gzip;q=0"
      */
-    private String stringListToJson(List<String> list) {
-      StringBuilder result = new StringBuilder();
-      result.append('[');
-
-      list.forEach(
-          (item) -> {
-            result.append('"').append(item).append("\",");
-          });
-
-      if (result.length() > 1) {
-        result.deleteCharAt(result.length() - 1); // remove trailing comma
+    private static boolean acceptsGzip(String acceptEncoding) {
+      if (acceptEncoding == null) {
+        return false;
       }
+      boolean wildcard = false;
+      for (String coding : acceptEncoding.split(",")) {
+        String[] params = coding.split(";");
+        String name = params[0].trim();
+        if (name.equalsIgnoreCase("gzip")) {
+          return quality(params) > 0;
+        } else if (name.equals("*")) {
+          wildcard = quality(params) > 0;
+        }
+      }
+      return wildcard;
+    }
 
-      result.append(']');
+    /** @return the q parameter of a content coding, e.g. "gzip;q=0.5" */
+    private static double quality(String[] params) {
+      for (int i = 1; i < params.length; i++) {
+        String param = params[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            return Double.parseDouble(param.substring(2));
+          } catch (NumberFormatException e) {
+            return 0;
+          }
+        }
+      }
+      return 1;
+    }
 
-      return result.toString();
+    /** Serialize a List<String> to json: '["item1","item2","item3"]' */
+    private static void writeStrings(JsonWriter json, List<String> values) throws IOException {
+      json.beginArray();
+      for (String value : values) {
+        json.value(value);
+      }
+      json.endArray().newline();
     }
   }
 }
@@ -1,29 +1,67 @@
 package com.mitchseymour;
 
+import com.mitchseymour.cache.CacheKey;
+import com.mitchseymour.cache.GenerationalCache;
+import com.mitchseymour.cache.ResultCache;
+import com.mitchseymour.classifier.ClassifierSnapshot;
 import com.mitchseymour.classifier.DocumentClassifier;
+import com.mitchseymour.classifier.GenreIndex;
+import com.mitchseymour.classifier.GenreScorer;
+import com.mitchseymour.json.JsonReader;
+import com.mitchseymour.json.JsonWriter;
+import com.mitchseymour.metrics.ClassifierMetricsMXBean;
+import com.mitchseymour.metrics.RequestTrace;
 import com.mitchseymour.similarity.CosineSimilarity;
-import com.mitchseymour.similarity.SimilarityScore;
+import com.mitchseymour.similarity.TfIdfSimilarity;
+import com.mitchseymour.similarity.TopK;
 import com.mitchseymour.store.InMemoryStore;
 import com.mitchseymour.store.Store;
 import com.mitchseymour.store.StoreException;
+import com.mitchseymour.vector.FeatureHasher;
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermDictionary;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
 import org.slf4j.*;
 
 /** Handler for operations related to calculating similarity scores */
 public class RequestHandler {
   static final Logger log = LoggerFactory.getLogger(RequestHandler.class);
 
+  /** The number of documents in a batch that are scored against the same snapshot */
+  private static final int BATCH_GROUP_SIZE = 64;
+
+  /** The maximum number of closest genres that can be requested for a document */
+  public static final int MAX_GENRE_COUNT = 10_000;
+
+  /** The number of documents that are ingested at once when adding documents in bulk */
+  private static final int INGEST_BATCH_SIZE = 1024;
+
   /**
-   * The store to be used for saving documents. In this example, we use a simple in-memory store. We
-   * would want to swap this out with a persistent store before going to production. The store can
-   * be interacted with directly, but we also configure our document classifiers with this store
-   * since they require some mechanism of saving previously seen documents for a given genre.
+   * The store to be used for saving documents. By default, we use a simple in-memory store, but a
+   * persistent store (see {@link com.mitchseymour.store.LogStructuredStore}) can be provided
+   * instead. The store can be interacted with directly, but we also configure our document
+   * classifiers with this store since they require some mechanism of saving previously seen
+   * documents for a given genre.
    */
-  private Store store = new InMemoryStore();
+  private final Store store;
 
   /**
    * A map of classifiers than be used for retrieving similarity scores between a provided document
@@ -31,6 +69,335 @@ public class RequestHandler {
    */
   private Map<String, DocumentClassifier> genreClassifiers = new ConcurrentHashMap<>();
 
+  /**
+   * An inverted index over the term counts of every classifier, used for finding the closest
+   * genres without comparing the document to every genre centroid
+   */
+  private GenreIndex genreIndex = new GenreIndex();
+
+  /** Finds the closest genres using the index. Scores on the calling thread unless configured */
+  private GenreScorer genreScorer = new GenreScorer(genreIndex);
+
+  /**
+   * Writes (adding / removing documents) hold the read lock, and taking a snapshot of the
+   * classifiers holds the write lock, so that a snapshot never includes a partially applied write
+   */
+  private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+  /** Where to save snapshots of the classifiers, or null if snapshots are disabled */
+  private final Path snapshotFile;
+
+  /** The store sequence number of the last snapshot that was written or restored */
+  private long snapshotSequence = -1;
+
+  private ScheduledExecutorService snapshotScheduler;
+
+  /** The number of extra LSH buckets to probe per band when scoring approximately */
+  private volatile int lshProbes = 0;
+
+  /** Caches the results of {@link #getTermFrequencies(String)}, or null if caching is disabled */
+  private volatile ResultCache<Map<CharSequence, Double>> termFrequencyCache;
+
+  /** Caches the results of {@link #getSimilarityScore}, or null if caching is disabled */
+  private volatile ResultCache<Double> similarityCache;
+
+  /** Caches the results of {@link #getNClosestGenres}, or null if caching is disabled */
+  private volatile GenerationalCache<List<String>> closestGenresCache;
+
+  /** Whether the classifiers have been restored from the store (see {@link #restore()}) */
+  private volatile boolean ready = false;
+
+  /** Constructor. Documents are saved in memory, and are lost when the process exits */
+  public RequestHandler() {
+    this(new InMemoryStore());
+  }
+
+  /**
+   * Constructor. Any documents that were previously saved to the store are loaded into the
+   * classifiers before this returns.
+   *
+   * @param store the store to save documents to
+   */
+  public RequestHandler(Store store) {
+    this(store, null);
+    restore();
+  }
+
+  /**
+   * Constructor. The classifiers are empty until {@link #restore()} is called.
+   *
+   * @param store the store to save documents to
+   * @param snapshotFile where to save snapshots of the classifiers, or null to disable snapshots
+   */
+  public RequestHandler(Store store, Path snapshotFile) {
+    this.store = store;
+    this.snapshotFile = snapshotFile;
+  }
+
+  /**
+   * Restore the classifiers from the documents that were previously saved to the store. If there's
+   * a snapshot that is consistent with the store, the classifiers are restored from the snapshot
+   * instead of adding every document again.
+   */
+  public synchronized void restore() {
+    if (ready) {
+      return;
+    }
+    long started = System.nanoTime();
+    if (!restoreSnapshot()) {
+      loadDocuments();
+    }
+    ready = true;
+    log.info(
+        "Restored {} genres in {} ms",
+        genreClassifiers.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+  }
+
+  /** @return true once the classifiers have been restored and requests can be served */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /** @return true if the classifiers were restored from a snapshot */
+  private boolean restoreSnapshot() {
+    if (snapshotFile == null || !Files.exists(snapshotFile)) {
+      return false;
+    }
+    try {
+      ClassifierSnapshot snapshot = ClassifierSnapshot.read(snapshotFile);
+      if (snapshot.getSequence() != store.sequence() || snapshot.getSequence() < 0) {
+        log.info("Snapshot is out of date, documents will be loaded from the store instead");
+        return false;
+      }
+      snapshot.restore(
+          genre ->
+              genreClassifiers.computeIfAbsent(
+                  genre, key -> new DocumentClassifier(key, store, genreIndex)));
+      snapshotSequence = snapshot.getSequence();
+      return true;
+    } catch (IOException e) {
+      log.warn("Could not read snapshot: {}", snapshotFile, e);
+      return false;
+    }
+  }
+
+  /** Rebuild the classifiers from the documents in the store */
+  private void loadDocuments() {
+    long loaded = 0;
+    for (String genre : store.getGenres()) {
+      DocumentClassifier classifier =
+          genreClassifiers.computeIfAbsent(
+              genre, key -> new DocumentClassifier(key, store, genreIndex));
+      // page through the genre, so that the doc IDs are never all held in memory at once
+      List<String> docIds = store.get(genre, null, INGEST_BATCH_SIZE);
+      while (!docIds.isEmpty()) {
+        List<Document> batch = new ArrayList<>(docIds.size());
+        for (String docId : docIds) {
+          Document doc = store.getDocument(genre, docId);
+          if (doc != null) {
+            batch.add(doc);
+          }
+        }
+        // tokenize in parallel, outside of the classifier's lock
+        batch.parallelStream().forEach(Document::getTermVector);
+        classifier.loadDocuments(batch);
+        loaded += batch.size();
+        docIds = store.get(genre, docIds.get(docIds.size() - 1), INGEST_BATCH_SIZE);
+      }
+    }
+    if (loaded > 0) {
+      log.info("Loaded {} documents from the store", loaded);
+    }
+  }
+
+  /**
+   * Score genres on a dedicated pool of threads when classifying large documents / catalogs. This
+   * reduces the latency of individual requests on hosts with many cores, at the cost of throughput
+   * when the host is already busy.
+   *
+   * @param parallelism the number of threads to score with
+   * @param threshold documents whose terms have fewer postings (i.e. (term, genre) pairs) than this
+   *     are still scored on the calling thread
+   */
+  public void enableParallelScoring(int parallelism, long threshold) {
+    GenreScorer previous = genreScorer;
+    genreScorer = new GenreScorer(genreIndex, parallelism, threshold);
+    previous.close();
+  }
+
+  /**
+   * Set how terms are weighted when finding the closest genres. This should be set before the
+   * classifiers are restored, since changing it re-weights every genre.
+   *
+   * @param weighting TF to compare documents to the raw (average term count) centroids, or TF_IDF
+   *     to also weight terms by their inverse document frequency across every genre
+   */
+  public void setWeighting(GenreIndex.Weighting weighting) {
+    genreIndex.setWeighting(weighting);
+    for (DocumentClassifier classifier : genreClassifiers.values()) {
+      classifier.setSimilarity(
+          weighting == GenreIndex.Weighting.TF_IDF
+              ? new TfIdfSimilarity(genreIndex::idfWeights)
+              : new CosineSimilarity());
+    }
+  }
+
+  /**
+   * Allow the closest genres to be found approximately (see {@link #getNClosestGenres(String,
+   * Integer, double, boolean)}), by hashing the genres into locality-sensitive hash tables and
+   * only scoring the genres that hash like the document. This is much faster than scoring every
+   * genre that shares a term with the document once there are many genres, but may miss some of
+   * the closest ones.
+   *
+   * @param bands the number of hash tables. More bands find more of the closest genres
+   * @param rows the number of bits per band, between 1 and 30. More rows mean fewer candidates
+   * @param probes the number of extra buckets to probe in each band. More probes find more of the
+   *     closest genres, at the cost of scoring more candidates
+   */
+  public void enableApproximateScoring(int bands, int rows, int probes) {
+    genreIndex.enableLsh(bands, rows);
+    lshProbes = probes;
+  }
+
+  /**
+   * Cache the results of {@link #getTermFrequencies(String)} and {@link #getSimilarityScore}, which
+   * only depend on the text(s) they're given, so that texts which are sent over and over again are
+   * only tokenized once. The closest genres to a text are also cached, until a document is added
+   * to or removed from a genre.
+   *
+   * @param maximumBytes the approximate maximum size of each cache
+   */
+  public void enableResultCaches(long maximumBytes) {
+    termFrequencyCache =
+        new ResultCache<>(
+            maximumBytes,
+            // a hash map entry, a string and a boxed double per term
+            termFrequencies -> {
+              long bytes = 64;
+              for (CharSequence term : termFrequencies.keySet()) {
+                bytes += 88 + 2L * term.length();
+              }
+              return bytes;
+            });
+    // the key, the entry and a boxed double
+    similarityCache = new ResultCache<>(maximumBytes, score -> 64);
+    // a list of strings, which are shared with the classifiers
+    closestGenresCache = new GenerationalCache<>(maximumBytes, genres -> 64 + 8L * genres.size());
+  }
+
+  /** @return the cache for term frequencies, or null if caching is disabled */
+  public ResultCache<Map<CharSequence, Double>> getTermFrequencyCache() {
+    return termFrequencyCache;
+  }
+
+  /** @return the cache for similarity scores, or null if caching is disabled */
+  public ResultCache<Double> getSimilarityCache() {
+    return similarityCache;
+  }
+
+  /** @return the cache for the closest genres, or null if caching is disabled */
+  public GenerationalCache<List<String>> getClosestGenresCache() {
+    return closestGenresCache;
+  }
+
+  /** @return gauges for the size of the classifiers, which can be registered as an MBean */
+  public ClassifierMetricsMXBean getClassifierMetrics() {
+    return new ClassifierMetricsMXBean() {
+      @Override
+      public int getGenreCount() {
+        return genreClassifiers.size();
+      }
+
+      @Override
+      public long getDocumentCount() {
+        long documents = 0;
+        for (DocumentClassifier classifier : genreClassifiers.values()) {
+          documents += classifier.getDocCount().longValue();
+        }
+        return documents;
+      }
+
+      @Override
+      public int getVocabularySize() {
+        FeatureHasher hasher = FeatureHasher.global();
+        return hasher == null ? TermDictionary.global().size() : hasher.buckets();
+      }
+    };
+  }
+
+  /**
+   * Write snapshots of the classifiers periodically, in addition to when the handler is closed.
+   * Snapshots are only written when the store has changed since the last snapshot.
+   *
+   * @param interval the time between snapshots
+   * @param unit the unit of the interval
+   */
+  public synchronized void scheduleSnapshots(long interval, TimeUnit unit) {
+    if (snapshotFile == null || snapshotScheduler != null) {
+      return;
+    }
+    snapshotScheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "classifier-snapshots");
+              thread.setDaemon(true);
+              return thread;
+            });
+    snapshotScheduler.scheduleWithFixedDelay(
+        () -> {
+          try {
+            writeSnapshot();
+          } catch (Exception e) {
+            log.error("Could not write snapshot: {}", snapshotFile, e);
+          }
+        },
+        interval,
+        interval,
+        unit);
+  }
+
+  /**
+   * Write a snapshot of the classifiers, if snapshots are enabled and the store has changed since
+   * the last snapshot. Writes are blocked while the classifiers are copied, but not while the
+   * snapshot is written to disk.
+   *
+   * @throws IOException if the snapshot can't be written
+   */
+  public synchronized void writeSnapshot() throws IOException {
+    if (snapshotFile == null || !ready) {
+      return;
+    }
+    ClassifierSnapshot snapshot;
+    snapshotLock.writeLock().lock();
+    try {
+      long sequence = store.sequence();
+      if (sequence < 0 || sequence == snapshotSequence) {
+        return;
+      }
+      snapshot = ClassifierSnapshot.capture(sequence, genreClassifiers.values());
+    } finally {
+      snapshotLock.writeLock().unlock();
+    }
+    snapshot.write(snapshotFile);
+    snapshotSequence = snapshot.getSequence();
+    log.info("Wrote snapshot of {} genres to {}", genreClassifiers.size(), snapshotFile);
+  }
+
+  /** Release any resources held by this handler, writing a final snapshot first */
+  public void close() {
+    if (snapshotScheduler != null) {
+      snapshotScheduler.shutdownNow();
+    }
+    try {
+      writeSnapshot();
+    } catch (IOException e) {
+      log.error("Could not write snapshot: {}", snapshotFile, e);
+    }
+    genreScorer.close();
+    store.close();
+  }
+
   /**
    * Implement for part 1
    *
@@ -39,8 +406,14 @@ public class RequestHandler {
    *     that term.
    */
   public Map<CharSequence, Double> getTermFrequencies(String documentText) {
-    Document doc = new Document(documentText);
-    return doc.getTermFrequencies();
+    ResultCache<Map<CharSequence, Double>> cache = termFrequencyCache;
+    if (cache == null) {
+      return new Document(documentText).getTermFrequencies();
+    }
+    // cached maps are shared between requests, so they can't be modified
+    return cache.get(
+        CacheKey.of(documentText),
+        () -> Collections.unmodifiableMap(new Document(documentText).getTermFrequencies()));
   }
 
   /**
@@ -51,9 +424,21 @@ public class RequestHandler {
    * @return The similarity score. The range of values will be algorithm specific.
    */
   public Double getSimilarityScore(String doc1Text, String doc2Text) {
-    Document doc1 = new Document(doc1Text);
-    Document doc2 = new Document(doc2Text);
-    return doc1.similarityToDocument(doc2, new CosineSimilarity()).getScore();
+    ResultCache<Double> cache = similarityCache;
+    if (cache == null) {
+      return similarityScore(doc1Text, doc2Text);
+    }
+    // cosine similarity is symmetric, so the order of the documents doesn't matter
+    return cache.get(
+        CacheKey.ofUnordered(doc1Text, doc2Text), () -> similarityScore(doc1Text, doc2Text));
+  }
+
+  private static Double similarityScore(String doc1Text, String doc2Text) {
+    // neither document is saved, so their terms aren't added to the dictionary
+    Map<CharSequence, Integer> unknownTerms = new HashMap<>();
+    SparseVector doc1 = new Document(doc1Text).getQueryVector(unknownTerms);
+    SparseVector doc2 = new Document(doc2Text).getQueryVector(unknownTerms);
+    return new CosineSimilarity().calculate(doc1, doc2);
   }
 
   /**
@@ -66,19 +451,152 @@ public class RequestHandler {
    */
   public void addDocumentToGenre(String genre, String docId, String documentText) {
     Document doc = new Document(docId, documentText);
+    RequestTrace.count("textLength", documentText == null ? 0 : documentText.length());
+    RequestTrace.count("termCount", doc.getTermVector().size());
+    RequestTrace.stage("tokenize");
 
+    snapshotLock.readLock().lock();
     try {
       // add the document to the classifier and store
-      genreClassifiers.putIfAbsent(
-          genre,
-          // initialize a new classifier if this genre hasn't been seen before
-          new DocumentClassifier(genre, store));
-      DocumentClassifier classifier = genreClassifiers.get(genre);
+      DocumentClassifier classifier =
+          genreClassifiers.computeIfAbsent(
+              genre,
+              // initialize a new classifier if this genre hasn't been seen before
+              key -> new DocumentClassifier(key, store, genreIndex));
       classifier.addDocument(doc);
     } catch (Exception e) {
       log.error("Could not add document: {}", docId, e);
       throw e;
+    } finally {
+      snapshotLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Add a batch of documents to their genres. The documents are tokenized in parallel, and each
+   * genre's classifier is updated once for all of its documents in the batch.
+   *
+   * @param documentsByGenre a mapping of genre -> documents to add to that genre
+   */
+  public void addDocumentsToGenres(Map<String, List<Document>> documentsByGenre) {
+    addDocumentsToGenres(documentsByGenre, count -> {});
+  }
+
+  /**
+   * @param documentsByGenre the documents to add, by genre
+   * @param added invoked with the number of documents in each genre, once they've been added
+   */
+  private void addDocumentsToGenres(
+      Map<String, List<Document>> documentsByGenre, IntConsumer added) {
+    // tokenize up front, outside of any classifier locks
+    documentsByGenre
+        .values()
+        .parallelStream()
+        .flatMap(List::stream)
+        .forEach(Document::getTermVector);
+
+    documentsByGenre.forEach(
+        (genre, documents) -> {
+          snapshotLock.readLock().lock();
+          try {
+            genreClassifiers
+                .computeIfAbsent(genre, key -> new DocumentClassifier(key, store, genreIndex))
+                .addDocuments(documents);
+            added.accept(documents.size());
+          } catch (Exception e) {
+            log.error("Could not add {} documents to genre: {}", documents.size(), genre, e);
+            throw e;
+          } finally {
+            snapshotLock.readLock().unlock();
+          }
+        });
+  }
+
+  /**
+   * Add a stream of documents to their genres. The input is newline delimited JSON, with one object
+   * per document:
+   *
+   * <pre>
+   *   {"genre": "music", "docId": "123", "documentText": "..."}
+   * </pre>
+   *
+   * <p>Documents are read and applied in batches (see {@link #addDocumentsToGenres(Map)}), so the
+   * input is never held in memory. An error line is written for each document that can't be
+   * parsed, followed by a final line with the number of documents that were added:
+   *
+   * <pre>
+   *   {"line": 7, "error": "..."}
+   *   {"added": 41}
+   * </pre>
+   *
+   * <p>If a batch can't be applied (e.g. the store fails) once the response has started, the final
+   * line has the error instead, along with the number of documents that were added before it:
+   *
+   * <pre>
+   *   {"error": "...", "added": 1024}
+   * </pre>
+   *
+   * @param requests the NDJSON input
+   * @param responses where to write the NDJSON output
+   * @return the number of documents that were added
+   * @throws IOException if the input can't be read or the output can't be written
+   */
+  public long addDocumentsToGenres(Reader requests, Writer responses) throws IOException {
+    BufferedReader reader = new BufferedReader(requests);
+    JsonWriter json = new JsonWriter(responses);
+    Map<String, List<Document>> batch = new LinkedHashMap<>();
+    int batchSize = 0;
+    long[] added = {0};
+    boolean written = false;
+    long lineNumber = 0;
+
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        try {
+          Map<String, String> fields = JsonReader.parseObject(line);
+          String genre = fields.get("genre");
+          String docId = fields.get("docId");
+          String documentText = fields.get("documentText");
+          if (genre == null || docId == null || documentText == null) {
+            throw new IllegalArgumentException("genre, docId and documentText are required");
+          }
+          Document doc = new Document(docId, documentText);
+          batch.computeIfAbsent(genre, key -> new ArrayList<>()).add(doc);
+        } catch (IllegalArgumentException e) {
+          json.beginObject().name("line").value(lineNumber).name("error").value(e.getMessage());
+          json.endObject().newline();
+          written = true;
+          continue;
+        }
+
+        if (++batchSize == INGEST_BATCH_SIZE) {
+          addDocumentsToGenres(batch, count -> added[0] += count);
+          batch.clear();
+          batchSize = 0;
+        }
+      }
+      addDocumentsToGenres(batch, count -> added[0] += count);
+    } catch (RuntimeException e) {
+      if (added[0] == 0 && !written) {
+        // nothing has been added or written, so the request can still fail outright
+        throw e;
+      }
+      // the response may already be committed, so the failure is reported in the last line, along
+      // with how many documents were added, since some genres in the failed batch may be applied
+      json.beginObject().name("error").value(e.toString()).name("added").value(added[0]);
+      json.endObject().newline();
+      json.flush();
+      return added[0];
     }
+
+    json.beginObject().name("added").value(added[0]).endObject().newline();
+    json.flush();
+    return added[0];
   }
 
   /**
@@ -88,6 +606,7 @@ public class RequestHandler {
    * @param docId document to remove
    */
   public void removeDocumentFromGenre(String genre, String docId) {
+    snapshotLock.readLock().lock();
     try {
       // remove the document from the classifier and store
       DocumentClassifier classifier = genreClassifiers.get(genre);
@@ -99,6 +618,8 @@ public class RequestHandler {
     } catch (Exception e) {
       log.error("Could not remove document: {}", docId, e);
       throw e;
+    } finally {
+      snapshotLock.readLock().unlock();
     }
   }
 
@@ -118,6 +639,24 @@ public class RequestHandler {
     }
   }
 
+  /**
+   * Get a page of the documents in a genre. Pages can be iterated by passing the last ID of the
+   * previous page as the cursor for the next page.
+   *
+   * @param genre the genre
+   * @param after only return IDs that sort after this ID, or null to start from the first ID
+   * @param limit the maximum number of IDs to return
+   * @return list of document ids in the genre, in sorted order
+   */
+  public List<String> getDocumentsInGenre(String genre, String after, int limit) {
+    try {
+      return store.get(genre, after, limit);
+    } catch (StoreException se) {
+      log.error("Could get documents for genre: {}", genre, se);
+      throw se;
+    }
+  }
+
   /**
    * Implement for part 4. Returns the list of genres which are most similar to the document text
    * specified
@@ -127,23 +666,193 @@ public class RequestHandler {
    * @return list of the closest Genres sorted from most similar genre to least similar
    */
   public List<String> getNClosestGenres(String documentText, Integer n) {
-    // create a set that is sorted based on the centroid similarity
-    TreeSet<SimilarityScore> scores = new TreeSet<>();
-    genreClassifiers.forEach(
-        (genre, classifier) -> {
-          if (classifier.getDocCount() > 0) {
-            // classifier.setSimilarity(...);
-            Document compareTo = new Document(documentText);
-            scores.add(classifier.similarityToDocumentCentroid(compareTo));
+    return getNClosestGenres(documentText, n, Double.NEGATIVE_INFINITY);
+  }
+
+  /**
+   * Returns the list of genres which are most similar to the document text specified, excluding
+   * genres whose similarity is below a minimum score
+   *
+   * @param documentText the text of the document to compare
+   * @param n the number of genres to return in the list
+   * @param minScore the minimum similarity score for a genre to be returned
+   * @return list of the closest Genres sorted from most similar genre to least similar
+   */
+  public List<String> getNClosestGenres(String documentText, Integer n, double minScore) {
+    return getNClosestGenres(documentText, n, minScore, true);
+  }
+
+  /**
+   * Returns the list of genres which are most similar to the document text specified, optionally
+   * finding them approximately (see {@link #enableApproximateScoring})
+   *
+   * @param documentText the text of the document to compare
+   * @param n the number of genres to return in the list
+   * @param minScore the minimum similarity score for a genre to be returned
+   * @param exact false to only score the genres that are likely to be closest, which may miss
+   *     some of them. Ignored unless approximate scoring is enabled
+   * @return list of the closest Genres sorted from most similar genre to least similar
+   */
+  public List<String> getNClosestGenres(
+      String documentText, Integer n, double minScore, boolean exact) {
+    RequestTrace.count("textLength", documentText == null ? 0 : documentText.length());
+    GenerationalCache<List<String>> cache = closestGenresCache;
+    if (cache == null) {
+      return closestGenres(documentText, n, minScore, exact);
+    }
+    // results are only reused until a genre changes. The generation is read before scoring, so a
+    // write that races with the scoring makes the result stale rather than being missed
+    CacheKey key =
+        CacheKey.of(documentText)
+            .with(n)
+            .with(Double.doubleToLongBits(minScore))
+            .with(exact ? 1 : 0);
+    List<String> genres =
+        cache.get(
+            key,
+            genreIndex.generation(),
+            () -> {
+              RequestTrace.stage("cache");
+              return Collections.unmodifiableList(
+                  closestGenres(documentText, n, minScore, exact));
+            });
+    RequestTrace.stage("cache");
+    return genres;
+  }
+
+  private List<String> closestGenres(
+      String documentText, int n, double minScore, boolean exact) {
+    SparseVector query = new Document(documentText).getQueryVector();
+    RequestTrace.stage("tokenize");
+    RequestTrace.count("termCount", query.size());
+
+    // keep the n best scores, ordered by centroid similarity
+    // only genres that share at least one term with the document are scored
+    TopK scores =
+        exact
+            ? genreScorer.closestGenres(query, n, minScore)
+            : genreScorer.approximateClosestGenres(query, n, minScore, lshProbes);
+    RequestTrace.stage("score");
+    RequestTrace.count("genresScored", scores.offered());
+
+    // return the n closest genres
+    List<String> genres = scores.genres();
+    RequestTrace.stage("select");
+    return genres;
+  }
+
+  /**
+   * Classify a stream of documents. The input is newline delimited JSON, with one object per
+   * document:
+   *
+   * <pre>
+   *   {"id": "doc1", "documentText": "...", "count": 3}
+   * </pre>
+   *
+   * <p>An optional "minScore" field may also be provided. Documents are read, scored and written in
+   * groups, so the batch is never held in memory. Each group is scored against one consistent
+   * snapshot of the classifiers, and one line is written (and flushed) per document as soon as its
+   * group has been scored:
+   *
+   * <pre>
+   *   {"id": "doc1", "genres": ["music", "film"]}
+   * </pre>
+   *
+   * <p>Documents that can't be parsed produce an "error" field instead of "genres", and don't
+   * prevent the rest of the batch from being classified.
+   *
+   * @param requests the NDJSON input
+   * @param responses where to write the NDJSON output
+   * @throws IOException if the input can't be read or the output can't be written
+   */
+  public void getNClosestGenres(Reader requests, Writer responses) throws IOException {
+    BufferedReader reader = new BufferedReader(requests);
+    JsonWriter json = new JsonWriter(responses);
+    List<BatchItem> group = new ArrayList<>(BATCH_GROUP_SIZE);
+
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      group.add(BatchItem.parse(line));
+      if (group.size() == BATCH_GROUP_SIZE) {
+        classifyGroup(group, json);
+        group.clear();
+      }
+    }
+    classifyGroup(group, json);
+  }
+
+  private void classifyGroup(List<BatchItem> group, JsonWriter json) throws IOException {
+    // tokenize before taking the snapshot, so that writers are only blocked while scoring
+    for (BatchItem item : group) {
+      if (item.error == null) {
+        item.query = new Document(item.documentText).getQueryVector();
+      }
+    }
+
+    GenreScorer scorer = genreScorer;
+    scorer.withSnapshot(
+        () -> {
+          for (BatchItem item : group) {
+            if (item.error == null) {
+              item.result = scorer.closestGenres(item.query, item.count, item.minScore);
+            }
           }
+          return null;
         });
 
-    // return the n closest genres
-    return scores
-        .stream()
-        // .filter(score -> score.getScore() > 0.0)
-        .map(score -> score.getGenre())
-        .limit(n)
-        .collect(Collectors.toList());
+    for (BatchItem item : group) {
+      json.beginObject().name("id").value(item.id);
+      if (item.error != null) {
+        json.name("error").value(item.error);
+      } else {
+        json.name("genres").beginArray();
+        for (String genre : item.result.genres()) {
+          json.value(genre);
+        }
+        json.endArray();
+      }
+      json.endObject().newline();
+    }
+    json.flush();
+  }
+
+  /** A single document in a classification batch */
+  private static class BatchItem {
+    private String id;
+    private String documentText;
+    private int count;
+    private double minScore = Double.NEGATIVE_INFINITY;
+    private String error;
+    private SparseVector query;
+    private TopK result;
+
+    static BatchItem parse(String line) {
+      BatchItem item = new BatchItem();
+      try {
+        Map<String, String> fields = JsonReader.parseObject(line);
+        item.id = fields.get("id");
+        item.documentText = fields.get("documentText");
+        String count = fields.get("count");
+        String minScore = fields.get("minScore");
+        if (item.documentText == null || count == null) {
+          throw new IllegalArgumentException("documentText and count are required");
+        }
+        item.count = Integer.parseInt(count);
+        if (item.count < 1 || item.count > MAX_GENRE_COUNT) {
+          // a group keeps every item's results until they're written, so large counts add up
+          throw new IllegalArgumentException("count must be between 1 and " + MAX_GENRE_COUNT);
+        }
+        if (minScore != null) {
+          item.minScore = Double.parseDouble(minScore);
+        }
+      } catch (IllegalArgumentException e) {
+        // also covers NumberFormatException
+        item.error = e.getMessage();
+      }
+      return item;
+    }
   }
 }
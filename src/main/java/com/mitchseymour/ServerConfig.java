@@ -0,0 +1,90 @@
+package com.mitchseymour;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Server settings. Each setting has a dotted name, e.g. {@code server.maxThreads}, and is looked up
+ * in the following order:
+ *
+ * <ol>
+ *   <li>a command line argument, e.g. {@code --server.maxThreads=200}
+ *   <li>an environment variable, e.g. {@code SERVER_MAX_THREADS=200}
+ *   <li>a system property, e.g. {@code -Dserver.maxThreads=200}
+ *   <li>the default value
+ * </ol>
+ */
+public class ServerConfig {
+  private final Map<String, String> args;
+  private final Map<String, String> env;
+  private final Properties properties;
+
+  /**
+   * Constructor
+   *
+   * @param args command line arguments, in the form --name=value
+   * @param env environment variables
+   * @param properties system properties
+   */
+  public ServerConfig(String[] args, Map<String, String> env, Properties properties) {
+    this.args = new HashMap<>();
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (!arg.startsWith("--") || equals < 0) {
+        throw new IllegalArgumentException("Expected an argument of the form --name=value: " + arg);
+      }
+      this.args.put(arg.substring(2, equals), arg.substring(equals + 1));
+    }
+    this.env = env;
+    this.properties = properties;
+  }
+
+  /** @return the settings for this process */
+  public static ServerConfig load(String[] args) {
+    return new ServerConfig(args, System.getenv(), System.getProperties());
+  }
+
+  /** @return the value of a setting, or the default value if it isn't set */
+  public String get(String name, String defaultValue) {
+    String value = args.get(name);
+    if (value == null) {
+      value = env.get(envName(name));
+    }
+    if (value == null) {
+      value = properties.getProperty(name);
+    }
+    return value == null ? defaultValue : value;
+  }
+
+  public int getInt(String name, int defaultValue) {
+    String value = get(name, null);
+    return value == null ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  public long getLong(String name, long defaultValue) {
+    String value = get(name, null);
+    return value == null ? defaultValue : Long.parseLong(value.trim());
+  }
+
+  public boolean getBoolean(String name, boolean defaultValue) {
+    String value = get(name, null);
+    return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+  }
+
+  /** @return the environment variable for a setting, e.g. SERVER_MAX_THREADS */
+  static String envName(String name) {
+    StringBuilder result = new StringBuilder(name.length() + 4);
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c == '.') {
+        result.append('_');
+      } else if (Character.isUpperCase(c)) {
+        result.append('_').append(c);
+      } else {
+        result.append(Character.toUpperCase(c));
+      }
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,210 @@
+package com.mitchseymour;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * A single-pass tokenizer that produces the same terms as the original regex based pipeline in
+ * {@link Document#words()}, i.e.
+ *
+ * <pre>
+ *   text.replaceAll("\\p{P}", "").split(" ") -> toLowerCase() -> trim() -> filter(!isEmpty())
+ * </pre>
+ *
+ * but without the intermediate copies of the text. Punctuation removal, splitting and case folding
+ * are all handled inline while scanning the text once.
+ *
+ * <p>Tokens are emitted as {@link CharSequence} views over a buffer that is reused for every token,
+ * so a view is only valid for the duration of the callback. Call {@code toString()} on the token if
+ * it needs to outlive the callback. Views hash and compare like {@link String}s with the same
+ * content, which allows them to be used for lookups (but not inserts) against String-keyed maps.
+ *
+ * <p>Instances are not thread-safe. Use {@link #get()} to obtain a tokenizer that is local to the
+ * current thread.
+ */
+public final class Tokenizer {
+
+  private static final ThreadLocal<Tokenizer> LOCAL = ThreadLocal.withInitial(Tokenizer::new);
+
+  /** Lookup table for punctuation in the ASCII range, which covers the vast majority of input */
+  private static final boolean[] ASCII_PUNCTUATION = new boolean[128];
+
+  static {
+    for (int c = 0; c < ASCII_PUNCTUATION.length; c++) {
+      ASCII_PUNCTUATION[c] = isPunctuationType(Character.getType(c));
+    }
+  }
+
+  private final Token token = new Token();
+
+  private char[] buffer = new char[64];
+
+  /** @return a tokenizer instance that is local to the current thread */
+  public static Tokenizer get() {
+    return LOCAL.get();
+  }
+
+  /**
+   * Split the provided text into terms.
+   *
+   * @param text the text to tokenize
+   * @param consumer callback that is invoked once for every term. The term is only valid for the
+   *     duration of the callback
+   */
+  public void tokenize(CharSequence text, Consumer<CharSequence> consumer) {
+    // the ASCII fast path for lower casing is only correct if the default locale doesn't have
+    // special casing rules for ASCII characters (e.g. the dotless i in Turkish)
+    boolean asciiFastPath = hasAsciiCaseFolding(Locale.getDefault());
+
+    int length = 0;
+    boolean ascii = true;
+    for (int i = 0; i < text.length(); ) {
+      int c = Character.codePointAt(text, i);
+      i += Character.charCount(c);
+
+      if (c == ' ') {
+        emit(length, ascii && asciiFastPath, consumer);
+        length = 0;
+        ascii = true;
+      } else if (!isPunctuation(c)) {
+        if (length + 2 > buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        length += Character.toChars(c, buffer, length);
+        ascii &= c < 128;
+      }
+    }
+    emit(length, ascii && asciiFastPath, consumer);
+  }
+
+  /** Trim, lower case and emit the token that is currently in the buffer */
+  private void emit(int length, boolean ascii, Consumer<CharSequence> consumer) {
+    // trim, using the same definition of whitespace as String.trim()
+    int start = 0;
+    int end = length;
+    while (start < end && buffer[start] <= ' ') {
+      start++;
+    }
+    while (end > start && buffer[end - 1] <= ' ') {
+      end--;
+    }
+    if (start == end) {
+      return;
+    }
+
+    if (ascii) {
+      for (int i = start; i < end; i++) {
+        char c = buffer[i];
+        if (c >= 'A' && c <= 'Z') {
+          buffer[i] = (char) (c + ('a' - 'A'));
+        }
+      }
+    } else {
+      // defer to String for the full (locale and context sensitive) case mapping rules. This
+      // allocates, but only for tokens that contain non-ASCII characters
+      String lower = new String(buffer, start, end - start).toLowerCase();
+      if (lower.length() > buffer.length) {
+        buffer = new char[lower.length()];
+      }
+      lower.getChars(0, lower.length(), buffer, 0);
+      start = 0;
+      end = lower.length();
+    }
+
+    token.set(buffer, start, end - start);
+    consumer.accept(token);
+  }
+
+  private static boolean isPunctuation(int c) {
+    if (c < 128) {
+      return ASCII_PUNCTUATION[c];
+    }
+    return isPunctuationType(Character.getType(c));
+  }
+
+  /** Matches the Unicode categories covered by the \p{P} regex character class */
+  private static boolean isPunctuationType(int type) {
+    switch (type) {
+      case Character.CONNECTOR_PUNCTUATION:
+      case Character.DASH_PUNCTUATION:
+      case Character.START_PUNCTUATION:
+      case Character.END_PUNCTUATION:
+      case Character.INITIAL_QUOTE_PUNCTUATION:
+      case Character.FINAL_QUOTE_PUNCTUATION:
+      case Character.OTHER_PUNCTUATION:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean hasAsciiCaseFolding(Locale locale) {
+    String language = locale.getLanguage();
+    return !language.equals("tr") && !language.equals("az");
+  }
+
+  /** A reusable view over the tokenizer's buffer */
+  private static final class Token implements CharSequence {
+    private char[] chars;
+    private int offset;
+    private int length;
+
+    void set(char[] chars, int offset, int length) {
+      this.chars = chars;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException(String.valueOf(index));
+      }
+      return chars[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return toString().subSequence(start, end);
+    }
+
+    /** Uses the same hash function as {@link String#hashCode()} */
+    @Override
+    public int hashCode() {
+      int h = 0;
+      for (int i = offset; i < offset + length; i++) {
+        h = 31 * h + chars[i];
+      }
+      return h;
+    }
+
+    /** Content based equality against any other CharSequence (including Strings) */
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof CharSequence)) {
+        return false;
+      }
+      CharSequence other = (CharSequence) o;
+      if (other.length() != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (other.charAt(i) != chars[offset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return new String(chars, offset, length);
+    }
+  }
+}
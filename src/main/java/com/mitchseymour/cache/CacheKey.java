@@ -0,0 +1,146 @@
+package com.mitchseymour.cache;
+
+/**
+ * A 128-bit hash of some text, used as a cache key in place of the text itself. Hashing is
+ * MurmurHash3 (x64, 128-bit) over the UTF-16 code units of the text, so the text never has to be
+ * encoded, and a cached result only costs the 16 bytes of its key rather than a copy of its input.
+ * At 128 bits, the odds of two different texts colliding are negligible.
+ */
+public final class CacheKey {
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private final long high;
+  private final long low;
+
+  private CacheKey(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  /** @return the key for a single text */
+  public static CacheKey of(CharSequence text) {
+    long h1 = 0;
+    long h2 = 0;
+    int length = text.length();
+    int blockEnd = length & ~7;
+
+    // 8 chars (16 bytes) per block
+    for (int i = 0; i < blockEnd; i += 8) {
+      long k1 = chars(text, i, 4);
+      long k2 = chars(text, i + 4, 4);
+
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    int tail = length - blockEnd;
+    if (tail > 4) {
+      h2 ^= mixK2(chars(text, blockEnd + 4, tail - 4));
+    }
+    if (tail > 0) {
+      h1 ^= mixK1(chars(text, blockEnd, Math.min(tail, 4)));
+    }
+
+    h1 ^= length * 2L;
+    h2 ^= length * 2L;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+    return new CacheKey(h1, h2);
+  }
+
+  /**
+   * @return the key for a pair of texts, which doesn't depend on their order. Used for results
+   *     that are symmetric in their inputs, e.g. similarity scores
+   */
+  public static CacheKey ofUnordered(CharSequence first, CharSequence second) {
+    CacheKey a = of(first);
+    CacheKey b = of(second);
+    if (a.compareTo(b) > 0) {
+      CacheKey swap = a;
+      a = b;
+      b = swap;
+    }
+    return new CacheKey(fmix64(a.high * C1 + b.high), fmix64(a.low * C2 + b.low));
+  }
+
+  /**
+   * @return a key that also depends on a parameter of the computation, e.g. the number of results
+   *     to return
+   */
+  public CacheKey with(long parameter) {
+    return new CacheKey(fmix64(high * C1 + parameter), fmix64(low * C2 + parameter));
+  }
+
+  /** @return 64 well mixed bits of the key, e.g. for choosing a shard or sketch counters */
+  long hash64() {
+    return high ^ low;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof CacheKey)) {
+      return false;
+    }
+    CacheKey key = (CacheKey) other;
+    return high == key.high && low == key.low;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) low;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", high, low);
+  }
+
+  private int compareTo(CacheKey other) {
+    int result = Long.compare(high, other.high);
+    return result != 0 ? result : Long.compare(low, other.low);
+  }
+
+  /** @return up to 4 chars packed into a long, little-endian */
+  private static long chars(CharSequence text, int offset, int count) {
+    long result = 0;
+    for (int i = 0; i < count; i++) {
+      result |= (long) text.charAt(offset + i) << (16 * i);
+    }
+    return result;
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    k1 *= C2;
+    return k1;
+  }
+
+  private static long mixK2(long k2) {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    k2 *= C1;
+    return k2;
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
@@ -0,0 +1,65 @@
+package com.mitchseymour.cache;
+
+/**
+ * A count-min sketch of how often keys have been requested recently, used to decide whether a new
+ * entry is worth evicting an existing one for. Each key is counted in 4 rows of 4-bit counters, and
+ * its frequency is the smallest of its counters. Every counter is halved once the number of
+ * increments reaches 10x the width of the sketch, so that keys which were popular a long time ago
+ * don't stay in the cache forever.
+ *
+ * <p>This class is not thread-safe.
+ */
+class FrequencySketch {
+  private static final int ROWS = 4;
+  private static final int MAX_COUNT = 15;
+  private static final long[] SEEDS = {
+    0x9e3779b97f4a7c15L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0xd6e8feb86659fd93L
+  };
+
+  private final byte[][] counters;
+  private final int shift;
+  private final int sampleSize;
+  private int increments = 0;
+
+  /** @param width the number of counters per row. Rounded up to a power of two */
+  FrequencySketch(int width) {
+    int size = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+    this.counters = new byte[ROWS][size];
+    this.shift = 64 - Integer.numberOfTrailingZeros(size);
+    this.sampleSize = 10 * size;
+  }
+
+  void increment(long hash) {
+    for (int row = 0; row < ROWS; row++) {
+      int index = index(hash, row);
+      if (counters[row][index] < MAX_COUNT) {
+        counters[row][index]++;
+      }
+    }
+    if (++increments == sampleSize) {
+      reset();
+    }
+  }
+
+  int frequency(long hash) {
+    int frequency = MAX_COUNT;
+    for (int row = 0; row < ROWS; row++) {
+      frequency = Math.min(frequency, counters[row][index(hash, row)]);
+    }
+    return frequency;
+  }
+
+  private int index(long hash, int row) {
+    return (int) ((hash * SEEDS[row]) >>> shift);
+  }
+
+  /** Halve every counter */
+  private void reset() {
+    for (byte[] row : counters) {
+      for (int i = 0; i < row.length; i++) {
+        row[i] >>= 1;
+      }
+    }
+    increments /= 2;
+  }
+}
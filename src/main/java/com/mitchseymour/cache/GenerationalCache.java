@@ -0,0 +1,145 @@
+package com.mitchseymour.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache for results that depend on their input and on some mutable state, e.g. the closest genres
+ * to a document. The state is versioned by a generation number that is bumped on every write, and
+ * each result is cached along with the generation it was computed at. A result from an older
+ * generation is treated as a miss, so writes never have to find and invalidate the entries they
+ * affect.
+ *
+ * <p>Concurrent misses for the same key and generation are coalesced: the first request computes
+ * the result, and the others wait for it instead of computing it again.
+ *
+ * @param <V> the type of the cached results. These are shared between callers, so they must be
+ *     immutable
+ */
+public class GenerationalCache<V> {
+  private final ResultCache<Versioned<V>> cache;
+
+  /** Results that are being computed, keyed by the input's key combined with the generation */
+  private final ConcurrentHashMap<CacheKey, CompletableFuture<V>> inFlight =
+      new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+
+  /**
+   * Constructor
+   *
+   * @param maximumWeight the maximum total weight of the cached entries
+   * @param weigher calculates the weight of a result
+   */
+  public GenerationalCache(long maximumWeight, ToLongFunction<V> weigher) {
+    this.cache =
+        new ResultCache<>(maximumWeight, versioned -> 16 + weigher.applyAsLong(versioned.value));
+  }
+
+  /**
+   * Get a cached result, computing (and caching) it if it isn't cached for the current generation.
+   *
+   * @param key the key of the input
+   * @param generation the current generation of the state the result depends on. This must be read
+   *     before the result is computed, so that a write which races with the computation causes the
+   *     next request to miss
+   * @param loader computes the result
+   * @return the result
+   */
+  public V get(CacheKey key, long generation, Supplier<V> loader) {
+    Versioned<V> cached = cache.getIfPresent(key);
+    if (cached != null && cached.generation == generation) {
+      hits.increment();
+      return cached.value;
+    }
+
+    CacheKey flightKey = key.with(generation);
+    CompletableFuture<V> flight = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(flightKey, flight);
+    if (existing != null) {
+      coalesced.increment();
+      return await(existing);
+    }
+
+    misses.increment();
+    try {
+      V value = loader.get();
+      flight.complete(value);
+      if (value != null) {
+        cache.put(key, new Versioned<>(generation, value));
+      }
+      return value;
+    } catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(flightKey, flight);
+    }
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /** @return the number of requests that computed their result */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /** @return the number of requests that waited for another request to compute their result */
+  public long getCoalescedCount() {
+    return coalesced.sum();
+  }
+
+  public long getEvictionCount() {
+    return cache.getEvictionCount();
+  }
+
+  /** @return the number of cached entries, including those from older generations */
+  public long size() {
+    return cache.size();
+  }
+
+  private static <V> V await(CompletableFuture<V> flight) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return flight.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          // rethrow the loader's exception in this thread
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new CompletionException(cause);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static final class Versioned<V> {
+    private final long generation;
+    private final V value;
+
+    Versioned(long generation, V value) {
+      this.generation = generation;
+      this.value = value;
+    }
+  }
+}
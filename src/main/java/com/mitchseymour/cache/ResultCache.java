@@ -0,0 +1,227 @@
+package com.mitchseymour.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * A bounded cache for results that are pure functions of their input, so entries never have to be
+ * invalidated. Entries are weighed (e.g. by their approximate size in bytes), and the cache evicts
+ * entries once their total weight exceeds a maximum.
+ *
+ * <p>Eviction follows the W-TinyLFU policy: new entries go into a small LRU window, and an entry
+ * that falls out of the window only replaces the least recently used entry of the main LRU region
+ * if its key has been requested more often, according to a {@link FrequencySketch}. This keeps a
+ * burst of one-off texts from flushing the texts that are requested over and over.
+ *
+ * <p>The cache is split into shards by key, each with its own lock and a share of the maximum
+ * weight. Loading a missing value happens outside of the lock, so concurrent requests for the same
+ * missing key may both compute it.
+ *
+ * @param <V> the type of the cached results. These are shared between callers, so they must be
+ *     immutable
+ */
+public class ResultCache<V> {
+  private static final int SHARDS = 16;
+
+  /** The share of each shard's weight that is used for the admission window */
+  private static final double WINDOW_FRACTION = 0.01;
+
+  /** The expected average weight of an entry, used for sizing the frequency sketches */
+  private static final int EXPECTED_ENTRY_WEIGHT = 512;
+
+  private final Shard[] shards;
+  private final ToLongFunction<V> weigher;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Constructor
+   *
+   * @param maximumWeight the maximum total weight of the cached entries
+   * @param weigher calculates the weight of a result
+   */
+  @SuppressWarnings("unchecked")
+  public ResultCache(long maximumWeight, ToLongFunction<V> weigher) {
+    this.weigher = weigher;
+    this.shards = new ResultCache.Shard[SHARDS];
+    for (int i = 0; i < SHARDS; i++) {
+      shards[i] = new Shard(maximumWeight / SHARDS);
+    }
+  }
+
+  /**
+   * Get a cached result, computing (and caching) it if it isn't cached.
+   *
+   * @param key the key of the input
+   * @param loader computes the result
+   * @return the result
+   */
+  public V get(CacheKey key, Supplier<V> loader) {
+    Shard shard = shard(key);
+    V value = shard.get(key);
+    if (value != null) {
+      hits.increment();
+      return value;
+    }
+    misses.increment();
+    value = loader.get();
+    if (value != null) {
+      put(key, value);
+    }
+    return value;
+  }
+
+  /** @return the cached result, or null if it isn't cached */
+  public V getIfPresent(CacheKey key) {
+    return shard(key).get(key);
+  }
+
+  /** Cache a result, replacing any result that is already cached for the key */
+  public void put(CacheKey key, V value) {
+    shard(key).put(key, value, weigher.applyAsLong(value));
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /** @return the number of entries that were evicted, or not admitted to the cache */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /** @return the fraction of requests that were served from the cache */
+  public double getHitRate() {
+    long hits = getHitCount();
+    long requests = hits + getMissCount();
+    return requests == 0 ? 1.0 : (double) hits / requests;
+  }
+
+  /** @return the number of cached entries */
+  public long size() {
+    long size = 0;
+    for (Shard shard : shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  /** @return the total weight of the cached entries */
+  public long weight() {
+    long weight = 0;
+    for (Shard shard : shards) {
+      weight += shard.weight();
+    }
+    return weight;
+  }
+
+  private Shard shard(CacheKey key) {
+    return shards[(int) (key.hash64() >>> 60)];
+  }
+
+  private static final class Entry<V> {
+    private final V value;
+    private final long weight;
+
+    Entry(V value, long weight) {
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+
+  private final class Shard {
+    private final long windowMaximum;
+    private final long mainMaximum;
+
+    /** Both regions are in access order, so the first entry is the least recently used */
+    private final LinkedHashMap<CacheKey, Entry<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<CacheKey, Entry<V>> main = new LinkedHashMap<>(16, 0.75f, true);
+    private long windowWeight = 0;
+    private long mainWeight = 0;
+
+    private final FrequencySketch sketch;
+
+    Shard(long maximumWeight) {
+      this.windowMaximum = (long) (maximumWeight * WINDOW_FRACTION);
+      this.mainMaximum = maximumWeight - windowMaximum;
+      this.sketch =
+          new FrequencySketch(
+              (int) Math.min(1 << 20, Math.max(64, maximumWeight / EXPECTED_ENTRY_WEIGHT)));
+    }
+
+    synchronized V get(CacheKey key) {
+      sketch.increment(key.hash64());
+      Entry<V> entry = window.get(key);
+      if (entry == null) {
+        entry = main.get(key);
+      }
+      return entry == null ? null : entry.value;
+    }
+
+    synchronized void put(CacheKey key, V value, long weight) {
+      if (weight > mainMaximum) {
+        evictions.increment();
+        return;
+      }
+      // replace the previous value, e.g. if it was loaded concurrently by another request
+      Entry<V> previous = window.remove(key);
+      if (previous != null) {
+        windowWeight -= previous.weight;
+      } else if ((previous = main.remove(key)) != null) {
+        mainWeight -= previous.weight;
+      }
+      window.put(key, new Entry<>(value, weight));
+      windowWeight += weight;
+
+      Iterator<Map.Entry<CacheKey, Entry<V>>> candidates = window.entrySet().iterator();
+      while (windowWeight > windowMaximum && candidates.hasNext()) {
+        Map.Entry<CacheKey, Entry<V>> candidate = candidates.next();
+        candidates.remove();
+        windowWeight -= candidate.getValue().weight;
+        admit(candidate.getKey(), candidate.getValue());
+      }
+    }
+
+    /**
+     * Move an entry that fell out of the window to the main region, if there's room or it's more
+     * popular than the least recently used entry of the main region. Must hold the lock
+     */
+    private void admit(CacheKey key, Entry<V> entry) {
+      if (mainWeight + entry.weight > mainMaximum) {
+        CacheKey victim = main.keySet().iterator().next();
+        if (sketch.frequency(key.hash64()) <= sketch.frequency(victim.hash64())) {
+          evictions.increment();
+          return;
+        }
+      }
+      Iterator<Entry<V>> victims = main.values().iterator();
+      while (mainWeight + entry.weight > mainMaximum) {
+        Entry<V> victim = victims.next();
+        victims.remove();
+        mainWeight -= victim.weight;
+        evictions.increment();
+      }
+      main.put(key, entry);
+      mainWeight += entry.weight;
+    }
+
+    synchronized int size() {
+      return window.size() + main.size();
+    }
+
+    synchronized long weight() {
+      return windowWeight + mainWeight;
+    }
+  }
+}
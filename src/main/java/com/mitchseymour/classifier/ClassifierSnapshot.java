@@ -0,0 +1,251 @@
+package com.mitchseymour.classifier;
+
+import com.mitchseymour.store.Store;
+import com.mitchseymour.vector.FeatureHasher;
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermCounts;
+import com.mitchseymour.vector.TermDictionary;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A point-in-time copy of the state of a set of classifiers (each genre's term counts, doc count
+ * and norm), which can be saved to a file and used to restore the classifiers without adding every
+ * document again.
+ *
+ * <p>Term IDs are only stable for the lifetime of the process, so the snapshot contains its own
+ * dictionary of the terms used by the classifiers, and the terms are mapped back to IDs in the
+ * current process's {@link TermDictionary} when the snapshot is read. When terms are hashed (see
+ * {@link FeatureHasher}), the term IDs are buckets, which are already stable, so the snapshot's
+ * dictionary is empty. A snapshot can only be read with the same hashing configuration that it was
+ * written with.
+ *
+ * <p>File format (big endian):
+ *
+ * <pre>
+ *   int magic, int version, long sequence
+ *   int hash buckets (0 if terms aren't hashed)
+ *   int term count, then for each term:
+ *     string term
+ *   int genre count, then for each genre:
+ *     string genre, int doc count, double norm, int size, then for each term in the genre:
+ *       int term, double count
+ *   long crc32 of everything above
+ * </pre>
+ *
+ * where each string is an int byte length followed by UTF-8 bytes, and terms are indexes into the
+ * snapshot's own dictionary, or buckets if terms are hashed. Version 1 snapshots don't have the
+ * hash buckets field, and are only read if terms aren't hashed.
+ */
+public class ClassifierSnapshot {
+  private static final int MAGIC = 0x47534e50;
+  private static final int VERSION = 2;
+
+  private final long sequence;
+
+  private final List<Genre> genres;
+
+  private ClassifierSnapshot(long sequence, List<Genre> genres) {
+    this.sequence = sequence;
+    this.genres = genres;
+  }
+
+  /**
+   * Copy the state of a set of classifiers. The caller must make sure that the classifiers aren't
+   * modified while they are being copied, so that the snapshot is consistent with the store.
+   *
+   * @param sequence the store's sequence number (see {@link Store#sequence()})
+   * @param classifiers the classifiers to copy
+   * @return the snapshot
+   */
+  public static ClassifierSnapshot capture(
+      long sequence, Collection<DocumentClassifier> classifiers) {
+    List<Genre> genres = new ArrayList<>(classifiers.size());
+    for (DocumentClassifier classifier : classifiers) {
+      SparseVector counts = classifier.getTermCounts();
+      genres.add(
+          new Genre(
+              classifier.getGenre(), classifier.getDocCount().intValue(), counts.norm(), counts));
+    }
+    return new ClassifierSnapshot(sequence, genres);
+  }
+
+  /** @return the store sequence number that the snapshot is consistent with */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Restore the classifiers from the snapshot
+   *
+   * @param classifiers returns the (empty) classifier for a genre
+   */
+  public void restore(Function<String, DocumentClassifier> classifiers) {
+    for (Genre genre : genres) {
+      classifiers.apply(genre.name).restore(genre.counts, genre.docCount);
+    }
+  }
+
+  /**
+   * Write the snapshot to a file. The snapshot is written to a temporary file first and then moved
+   * into place, so a crash while writing never leaves a partial snapshot behind.
+   *
+   * @param file the file to write
+   * @throws IOException if the file can't be written
+   */
+  public void write(Path file) throws IOException {
+    TermDictionary dictionary = TermDictionary.global();
+    FeatureHasher hasher = FeatureHasher.global();
+    Map<Integer, Integer> localIds = new HashMap<>();
+    List<String> terms = new ArrayList<>();
+    for (Genre genre : genres) {
+      for (int i = 0; hasher == null && i < genre.counts.size(); i++) {
+        int term = genre.counts.termAt(i);
+        if (!localIds.containsKey(term)) {
+          localIds.put(term, terms.size());
+          terms.add(dictionary.term(term));
+        }
+      }
+    }
+
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileOutputStream stream = new FileOutputStream(temp.toFile())) {
+      CRC32 crc = new CRC32();
+      DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(new CheckedOutputStream(stream, crc), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(sequence);
+      out.writeInt(hasher == null ? 0 : hasher.buckets());
+      out.writeInt(terms.size());
+      for (String term : terms) {
+        writeString(out, term);
+      }
+      out.writeInt(genres.size());
+      for (Genre genre : genres) {
+        writeString(out, genre.name);
+        out.writeInt(genre.docCount);
+        out.writeDouble(genre.norm);
+        out.writeInt(genre.counts.size());
+        for (int i = 0; i < genre.counts.size(); i++) {
+          int term = genre.counts.termAt(i);
+          out.writeInt(hasher == null ? localIds.get(term) : term);
+          out.writeDouble(genre.counts.valueAt(i));
+        }
+      }
+      out.flush();
+      // the checksum itself isn't covered by the checksum
+      new DataOutputStream(stream).writeLong(crc.getValue());
+      stream.getFD().sync();
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read a snapshot from a file. The file is memory-mapped rather than streamed through a buffer.
+   *
+   * @param file the file to read
+   * @return the snapshot
+   * @throws IOException if the file can't be read, or isn't a valid snapshot
+   */
+  public static ClassifierSnapshot read(Path file) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    try {
+      int version;
+      if (buffer.getInt() != MAGIC || ((version = buffer.getInt()) != 1 && version != VERSION)) {
+        throw new IOException("Not a classifier snapshot: " + file);
+      }
+      ByteBuffer contents = buffer.duplicate();
+      contents.position(0).limit(buffer.capacity() - 8);
+      CRC32 crc = new CRC32();
+      crc.update(contents);
+      if (buffer.getLong(buffer.capacity() - 8) != crc.getValue()) {
+        throw new IOException("Classifier snapshot is corrupt: " + file);
+      }
+
+      long sequence = buffer.getLong();
+      FeatureHasher hasher = FeatureHasher.global();
+      int buckets = version == 1 ? 0 : buffer.getInt();
+      if (buckets != (hasher == null ? 0 : hasher.buckets())) {
+        throw new IOException("Classifier snapshot was written with other term hashing: " + file);
+      }
+      TermDictionary dictionary = TermDictionary.global();
+      int[] termIds = new int[buffer.getInt()];
+      for (int i = 0; i < termIds.length; i++) {
+        termIds[i] = dictionary.idOf(readString(buffer));
+      }
+
+      int genreCount = buffer.getInt();
+      List<Genre> genres = new ArrayList<>(genreCount);
+      for (int i = 0; i < genreCount; i++) {
+        String name = readString(buffer);
+        int docCount = buffer.getInt();
+        double norm = buffer.getDouble();
+        int size = buffer.getInt();
+        // the IDs in this process may be in a different order, so the counts are re-sorted
+        TermCounts counts = new TermCounts(size);
+        for (int j = 0; j < size; j++) {
+          int term = buffer.getInt();
+          counts.add(buckets == 0 ? termIds[term] : term, buffer.getDouble());
+        }
+        if (Math.abs(counts.norm() - norm) > 1e-9 * Math.max(1.0, norm)) {
+          throw new IOException("Classifier snapshot has an unexpected norm for genre: " + name);
+        }
+        genres.add(new Genre(name, docCount, norm, counts.toVector(1.0)));
+      }
+      return new ClassifierSnapshot(sequence, genres);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("Classifier snapshot is truncated: " + file, e);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** The state of a single genre's classifier */
+  private static class Genre {
+    private final String name;
+    private final int docCount;
+    private final double norm;
+    private final SparseVector counts;
+
+    Genre(String name, int docCount, double norm, SparseVector counts) {
+      this.name = name;
+      this.docCount = docCount;
+      this.norm = norm;
+      this.counts = counts;
+    }
+  }
+}
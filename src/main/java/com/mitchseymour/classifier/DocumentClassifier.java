@@ -1,13 +1,22 @@
 package com.mitchseymour.classifier;
 
 import com.mitchseymour.Document;
+import com.mitchseymour.metrics.RequestTrace;
 import com.mitchseymour.similarity.CosineSimilarity;
 import com.mitchseymour.similarity.Similarity;
 import com.mitchseymour.similarity.SimilarityScore;
+import com.mitchseymour.similarity.TfIdfSimilarity;
 import com.mitchseymour.store.Store;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import com.mitchseymour.vector.DenseTermCounts;
+import com.mitchseymour.vector.FeatureHasher;
+import com.mitchseymour.vector.MutableTermVector;
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermCounts;
+import com.mitchseymour.vector.TermVector;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A simple store-backed classifier that compares target documents to a document centroid, which is
@@ -24,11 +33,32 @@ public class DocumentClassifier {
 
   private Similarity similarity = new CosineSimilarity();
 
-  /** Global term frequencies, which is needed to compute the document centroid */
-  private Map<CharSequence, Double> globalTermCounts = new ConcurrentHashMap<>();
+  /**
+   * Guards the term counts and doc count. Writers (adding / removing documents) take the write lock
+   * and scoring takes the read lock, so the centroid is never observed mid-update
+   */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Global term frequencies, which along with the doc count are the source of truth for the
+   * document centroid. When terms are hashed, this is a fixed-size array with a count per bucket
+   */
+  private final MutableTermVector globalTermCounts;
+
+  /** The number of documents in this genre */
+  private volatile int docCount = 0;
+
+  /**
+   * The document centroid. This is a view that derives each weight from the global term counts and
+   * doc count when it is read, so it never needs to be recomputed
+   */
+  private final TermVector centroid = new Centroid();
+
+  /** An optional inverted index that is kept up to date with this classifier's term counts */
+  private final GenreIndex index;
 
-  /** Used for the document centroid calculation */
-  private Map<CharSequence, Double> centroid = new ConcurrentHashMap<>();
+  /** This genre's ordinal in the index */
+  private final int ordinal;
 
   /**
    * Constructor
@@ -36,93 +66,191 @@ public class DocumentClassifier {
    * @param genre The genre for this classifier
    */
   public DocumentClassifier(String genre, Store store) {
+    this(genre, store, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param genre The genre for this classifier
+   * @param index An inverted index to keep updated as documents are added and removed, or null
+   */
+  public DocumentClassifier(String genre, Store store, GenreIndex index) {
     this.genre = genre;
     this.store = store;
+    FeatureHasher hasher = FeatureHasher.global();
+    this.globalTermCounts =
+        hasher == null ? new TermCounts() : new DenseTermCounts(hasher.buckets());
+    this.index = index;
+    this.ordinal = index == null ? -1 : index.register(genre);
+    if (index != null && index.getWeighting() == GenreIndex.Weighting.TF_IDF) {
+      // score against the centroid the same way the index does
+      this.similarity = new TfIdfSimilarity(index::idfWeights);
+    }
   }
 
   /**
-   * Add a document to the classifier. We will also recompute the document centroid each time a
-   * record is added.
+   * Add a document to the classifier. Only the counts for the terms in the document are updated,
+   * so the cost of adding a document doesn't depend on the size of the genre.
    *
    * @param document The document to add
    */
   public void addDocument(Document document) {
-    store.put(genre, document);
-
-    Map<CharSequence, Double> tf = document.getTermFrequencies();
-
-    // iterate over the document's term frequencies, and increment the global,
-    // genre-level term counts
-    for (Map.Entry<CharSequence, Double> entry : tf.entrySet()) {
-      CharSequence term = entry.getKey();
-      if (globalTermCounts.containsKey(term)) {
-        // the term is already being tracked in the global term frequencies
-        Double currentCount = globalTermCounts.get(term);
-        globalTermCounts.put(term, currentCount + 1.0);
-      } else {
-        // this is the first time we've seen this term for this genre
-        globalTermCounts.put(term, 1.0);
+    // compute the term vector before saving the document, so that the store keeps the vector
+    // alongside the document and it doesn't need to be recomputed when the document is removed
+    SparseVector tf = document.getTermVector();
+
+    lock.writeLock().lock();
+    try {
+      RequestTrace.stage("lock");
+      Document previous = store.put(genre, document);
+      RequestTrace.stage("store");
+      if (previous != null) {
+        // the document is replacing an existing document with the same ID
+        updateCounts(previous.getTermVector(), -1.0);
+        docCount--;
+      }
+
+      // increment the global, genre-level term counts
+      updateCounts(tf, 1.0);
+      docCount++;
+      RequestTrace.stage("index");
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Add a batch of documents to the classifier. The changes from every document in the batch are
+   * combined first, and then applied to the term counts (and index) in a single pass, so the
+   * centroid is only updated once per batch rather than once per document.
+   *
+   * @param documents The documents to add. Their term vectors should ideally have been computed
+   *     already (e.g. in parallel), since this method holds the classifier's write lock
+   */
+  public void addDocuments(List<Document> documents) {
+    addDocuments(documents, true);
+  }
+
+  /**
+   * Add a batch of documents that have already been saved to the store, e.g. when rebuilding the
+   * classifier from a persistent store after a restart.
+   *
+   * @param documents The documents to add
+   */
+  public void loadDocuments(List<Document> documents) {
+    addDocuments(documents, false);
+  }
+
+  private void addDocuments(List<Document> documents, boolean save) {
+    TermCounts deltas = new TermCounts();
+    for (Document document : documents) {
+      countTerms(deltas, document.getTermVector(), 1.0);
+    }
+
+    lock.writeLock().lock();
+    try {
+      List<Document> replaced = save ? store.putAll(genre, documents) : Collections.emptyList();
+      for (Document previous : replaced) {
+        countTerms(deltas, previous.getTermVector(), -1.0);
+      }
+
+      SparseVector combined = deltas.toVector(1.0);
+      for (int i = 0; i < combined.size(); i++) {
+        int term = combined.termAt(i);
+        double count = globalTermCounts.get(term);
+        globalTermCounts.add(term, Math.max(0.0, count + combined.valueAt(i)) - count);
       }
+      if (index != null) {
+        index.updateAll(ordinal, combined, documents.size() - replaced.size());
+      }
+      docCount += documents.size() - replaced.size();
+    } finally {
+      lock.writeLock().unlock();
     }
+  }
 
-    computeDocumentCentroid();
+  private static void countTerms(TermCounts counts, SparseVector tf, double delta) {
+    for (int i = 0; i < tf.size(); i++) {
+      counts.add(tf.termAt(i), delta);
+    }
   }
 
   /**
-   * Remove a document from the classifier. We will also recompute the document centroid each time a
-   * record is removed.
+   * Remove a document from the classifier. Only the counts for the terms in the document are
+   * updated, so the cost of removing a document doesn't depend on the size of the genre.
    *
    * @param docId the id of the document to remove
    */
   public void removeDocument(String docId) {
-    Document doc = store.remove(genre, docId);
-    if (doc == null) {
-      // no document to remove
-      return;
-    }
-
-    Map<CharSequence, Double> tf = doc.getTermFrequencies();
-
-    // iterate over the document's term frequencies, and decrement the global,
-    // genre-level term counts
-    for (Map.Entry<CharSequence, Double> entry : tf.entrySet()) {
-      CharSequence term = entry.getKey();
-      if (globalTermCounts.containsKey(term)) {
-        Double currentCount = globalTermCounts.get(term);
-        // remove the term from the global counts if the new term count would
-        // resolve to 0
-        if (currentCount == 1.0) {
-          globalTermCounts.remove(term);
-          continue;
-        }
-        // decrement the global count for this term
-        globalTermCounts.put(term, currentCount - 1.0);
+    lock.writeLock().lock();
+    try {
+      Document doc = store.remove(genre, docId);
+      if (doc == null) {
+        // no document to remove
+        return;
       }
-    }
 
-    computeDocumentCentroid();
+      // decrement the global, genre-level term counts. Terms are dropped from the global counts
+      // once their count resolves to 0
+      updateCounts(doc.getTermVector(), -1.0);
+      docCount--;
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
   /**
-   * Compute the document centroid. There are different possible implementations for this. This is a
-   * simple implmentation that averages the term frequencies across all documents in this
-   * classifier. Future implementations may wish to apply additional weighting to the terms (one
-   * common approach being TF-IDF: {@see https://en.wikipedia.org/wiki/Tf-idf})
+   * Apply a document's terms to the global term counts. Each term is counted once per document,
+   * regardless of how often it occurs in the document.
+   *
+   * @param tf the document's term vector
+   * @param delta 1 if the document is being added, -1 if it's being removed
    */
-  private void computeDocumentCentroid() {
-    Double docCount = getDocCount();
+  private void updateCounts(SparseVector tf, double delta) {
+    for (int i = 0; i < tf.size(); i++) {
+      int term = tf.termAt(i);
+      if (delta > 0.0 || globalTermCounts.get(term) > 0.0) {
+        globalTermCounts.add(term, delta);
+      }
+    }
+    if (index != null) {
+      index.update(ordinal, tf, delta);
+    }
+  }
 
-    // Compute the average term frequencies across all documents
-    Map<CharSequence, Double> avg = new HashMap<>();
-    for (Map.Entry<CharSequence, Double> entry : globalTermCounts.entrySet()) {
-      avg.put(entry.getKey(), entry.getValue() / docCount);
+  /**
+   * Restore the classifier from a snapshot (see {@link ClassifierSnapshot}) instead of adding each
+   * document again. The documents must already be saved in the store.
+   *
+   * @param termCounts the genre-level term counts
+   * @param docCount the number of documents in the genre
+   * @throws IllegalStateException if documents have already been added to the classifier
+   */
+  public void restore(SparseVector termCounts, int docCount) {
+    lock.writeLock().lock();
+    try {
+      if (this.docCount != 0) {
+        throw new IllegalStateException("Classifier has already been populated: " + genre);
+      }
+      for (int i = 0; i < termCounts.size(); i++) {
+        globalTermCounts.add(termCounts.termAt(i), termCounts.valueAt(i));
+      }
+      if (index != null) {
+        index.updateAll(ordinal, termCounts, docCount);
+      }
+      this.docCount = docCount;
+    } finally {
+      lock.writeLock().unlock();
     }
+  }
 
-    centroid = avg;
+  public String getGenre() {
+    return genre;
   }
 
   public Double getDocCount() {
-    return new Double(store.get(genre).size());
+    return (double) docCount;
   }
 
   /**
@@ -133,21 +261,55 @@ public class DocumentClassifier {
    * @return A SimilarityScore instance containing the genre and score
    */
   public SimilarityScore similarityToDocumentCentroid(Document compareTo) {
-    Double score =
-        getSimilarity()
-            .calculate(
-                // term frequencies for the current doc
-                getDocumentCentroid(),
-                // term frequences for the comparison doc
-                compareTo.getTermFrequencies());
+    SparseVector tf = compareTo.getTermVector();
+    Double score;
+    lock.readLock().lock();
+    try {
+      score =
+          getSimilarity()
+              .calculate(
+                  // term frequencies for the current doc
+                  centroid,
+                  // term frequences for the comparison doc
+                  tf);
+    } finally {
+      lock.readLock().unlock();
+    }
     return new SimilarityScore(genre, score);
   }
 
-  public Map<CharSequence, Double> getDocumentCentroid() {
-    return centroid;
+  /**
+   * Get a copy of the document centroid, i.e. the average term frequencies across all documents in
+   * this classifier. Note that this copies every term in the genre, so it shouldn't be used on hot
+   * paths. Future implementations may wish to apply additional weighting to the terms (one common
+   * approach being TF-IDF: {@see https://en.wikipedia.org/wiki/Tf-idf})
+   *
+   * @return a snapshot of the centroid
+   */
+  public SparseVector getDocumentCentroid() {
+    lock.readLock().lock();
+    try {
+      return docCount == 0 ? SparseVector.EMPTY : globalTermCounts.toVector(1.0 / docCount);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** @return a copy of the global term counts */
+  public SparseVector getTermCounts() {
+    lock.readLock().lock();
+    try {
+      return globalTermCounts.toVector(1.0);
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
-  public Map<CharSequence, Double> getGlobalTermCounts() {
+  /**
+   * Get the global term counts. The returned counts are live and not thread-safe, so callers must
+   * not read them while documents are being added or removed.
+   */
+  public MutableTermVector getGlobalTermCounts() {
     return globalTermCounts;
   }
 
@@ -158,4 +320,33 @@ public class DocumentClassifier {
   public void setSimilarity(Similarity similarity) {
     this.similarity = similarity;
   }
+
+  /**
+   * The centroid, derived from the global term counts by scaling each count by the doc count. Must
+   * only be read while holding the read lock.
+   */
+  private class Centroid implements TermVector {
+    @Override
+    public int size() {
+      return globalTermCounts.size();
+    }
+
+    @Override
+    public double get(int term) {
+      int count = docCount;
+      return count == 0 ? 0.0 : globalTermCounts.get(term) / count;
+    }
+
+    @Override
+    public double norm() {
+      int count = docCount;
+      return count == 0 ? 0.0 : globalTermCounts.norm() / count;
+    }
+
+    @Override
+    public void forEach(TermConsumer consumer) {
+      int count = docCount;
+      globalTermCounts.forEach((term, value) -> consumer.accept(term, value / count));
+    }
+  }
 }
@@ -0,0 +1,856 @@
+package com.mitchseymour.classifier;
+
+import com.mitchseymour.metrics.RequestTrace;
+import com.mitchseymour.vector.SparseVector;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * An inverted index of term -> (genre, term count) postings, which is kept up to date by the
+ * {@link DocumentClassifier}s that are attached to it. This allows a document to be compared to
+ * every genre centroid by only visiting the postings for the document's terms, instead of
+ * computing a full cosine similarity against every genre (most of which typically don't share any
+ * terms with the document).
+ *
+ * <p>The postings contain the raw genre-level term counts rather than the centroid weights (count /
+ * doc count). Cosine similarity is scale invariant, so dividing the dot product by the norm of the
+ * raw counts gives the same score as using the centroid, and a write doesn't need to touch every
+ * posting of the genre when its doc count changes.
+ *
+ * <p>Terms can optionally be weighted by their inverse document frequency (see {@link
+ * Weighting#TF_IDF}). The number of documents that contain each term is the sum of the term's
+ * postings, so it's maintained as postings are updated. Rather than re-weighting every genre
+ * whenever a document frequency changes, the IDF weights are a snapshot that both the genre norms
+ * and queries use, so scores are always consistent. Once the number of documents has changed by
+ * more than 10%, the next query starts a refresh of the snapshot on a background thread, and keeps
+ * using the current snapshot in the meantime. The refresh re-weights every posting a chunk at a
+ * time, only holding the read lock for each chunk, and writes that land in between are applied to
+ * both the current and the new norms. The new weights, norms and LSH tables are then swapped in
+ * while briefly holding the write lock.
+ *
+ * <p>When there are many genres, even the postings for a document's terms can cover most of them.
+ * Locality-sensitive hashing can optionally be enabled (see {@link #enableLsh}) to only score the
+ * genres that are likely to be most similar to a document, trading some recall for latency.
+ */
+public class GenreIndex {
+  /** The seed for the LSH hyperplanes. Fixed, so that approximate results are reproducible */
+  private static final long LSH_SEED = 0x5DEECE66DL;
+
+  /**
+   * The cost of a step of merging a document's terms with a genre's, relative to visiting a
+   * posting. Merging is branchy, while postings are visited sequentially
+   */
+  private static final int MERGE_COST = 4;
+
+  /** The number of postings that are re-weighted each time a refresh takes the read lock */
+  private static final int REFRESH_CHUNK_SIZE = 1 << 16;
+
+  /** Refreshes the IDF weights of every index, one index at a time */
+  private static final ExecutorService REFRESH_EXECUTOR =
+      Executors.newSingleThreadExecutor(
+          r -> {
+            Thread thread = new Thread(r, "genre-index-refresh");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /**
+   * Guards all of the index state. Writers take the write lock, and scoring holds the read lock for
+   * the entire pass so that every genre is scored against the same version of the index
+   */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /** A mapping of genre name -> ordinal. Ordinals are assigned sequentially */
+  private final Map<String, Integer> ordinals = new HashMap<>();
+
+  /** Genre names, by ordinal */
+  private String[] genres = new String[16];
+
+  /** Sum of squared (weighted) term counts for each genre, by ordinal */
+  private double[] sumOfSquares = new double[16];
+
+  /** Norm of the (weighted) term counts for each genre, by ordinal */
+  private double[] norms = new double[16];
+
+  /** Postings, by term ID. Null if no genre contains the term */
+  private Postings[] postings = new Postings[1024];
+
+  /** The number of documents that contain each term across every genre, by term ID */
+  private double[] documentFrequencies = new double[1024];
+
+  /** The number of documents across every genre */
+  private volatile long documentCount = 0;
+
+  private volatile Weighting weighting = Weighting.TF;
+
+  /** The IDF weights that the norms were computed with, or null if terms aren't weighted */
+  private volatile IdfWeights idfWeights;
+
+  /**
+   * Incremented by every write to the postings, so that results computed from an earlier version
+   * of the index can be recognized as stale. Only written while holding the write lock
+   */
+  private volatile long generation = 0;
+
+  /** Hash tables for finding candidate genres approximately, or null if disabled */
+  private LshTables lsh;
+
+  /**
+   * The refresh of the IDF weights that is in progress, or null. Only set while holding the lock,
+   * and cleared to cancel the refresh
+   */
+  private volatile Refresh refresh;
+
+  /** Whether a refresh has been scheduled and hasn't finished yet */
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+
+  private final Executor refreshExecutor;
+
+  private final int refreshChunkSize;
+
+  /**
+   * The terms of each genre, by ordinal, for scoring LSH candidates without a binary search of
+   * every term's postings. Only maintained while LSH is enabled
+   */
+  private Postings[] genreTerms;
+
+  /** Scratch space for accumulating scores, reused across queries on the same thread */
+  private final ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(Accumulator::new);
+
+  public GenreIndex() {
+    this(REFRESH_EXECUTOR, REFRESH_CHUNK_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param refreshExecutor runs the refreshes of the IDF weights
+   * @param refreshChunkSize the number of postings to re-weight each time the read lock is taken
+   */
+  GenreIndex(Executor refreshExecutor, int refreshChunkSize) {
+    this.refreshExecutor = refreshExecutor;
+    this.refreshChunkSize = refreshChunkSize;
+  }
+
+  /**
+   * Get the ordinal for a genre, registering the genre if it hasn't been seen before.
+   *
+   * @param genre the genre name
+   * @return the ordinal of the genre
+   */
+  public int register(String genre) {
+    lock.writeLock().lock();
+    try {
+      Integer ordinal = ordinals.get(genre);
+      if (ordinal != null) {
+        return ordinal;
+      }
+      ordinal = ordinals.size();
+      if (ordinal == genres.length) {
+        genres = Arrays.copyOf(genres, ordinal * 2);
+        sumOfSquares = Arrays.copyOf(sumOfSquares, ordinal * 2);
+        norms = Arrays.copyOf(norms, ordinal * 2);
+        if (genreTerms != null) {
+          genreTerms = Arrays.copyOf(genreTerms, ordinal * 2);
+        }
+      }
+      genres[ordinal] = genre;
+      if (genreTerms != null) {
+        genreTerms[ordinal] = new Postings();
+      }
+      ordinals.put(genre, ordinal);
+      return ordinal;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Apply a document's terms to a genre's postings. This mirrors the term counts that are
+   * maintained by the {@link DocumentClassifier}, i.e. each term is counted once per document.
+   *
+   * @param ordinal the genre's ordinal
+   * @param tf the document's term vector
+   * @param delta 1 if the document is being added, -1 if it's being removed
+   */
+  void update(int ordinal, SparseVector tf, double delta) {
+    update(ordinal, tf, delta, false, (long) delta);
+  }
+
+  /**
+   * Apply a batch of changes to a genre's postings.
+   *
+   * @param ordinal the genre's ordinal
+   * @param deltas the change in count for each term
+   * @param documents the change in the genre's number of documents
+   */
+  void updateAll(int ordinal, SparseVector deltas, long documents) {
+    update(ordinal, deltas, 0.0, true, documents);
+  }
+
+  private void update(
+      int ordinal, SparseVector terms, double delta, boolean useValues, long documents) {
+    lock.writeLock().lock();
+    try {
+      IdfWeights weights = idfWeights;
+      Refresh pending = refresh;
+      double sum = sumOfSquares[ordinal];
+      for (int i = 0; i < terms.size(); i++) {
+        int term = terms.termAt(i);
+        double termDelta = useValues ? terms.valueAt(i) : delta;
+        if (term >= postings.length) {
+          int length = Math.max(term + 1, postings.length * 2);
+          postings = Arrays.copyOf(postings, length);
+          documentFrequencies = Arrays.copyOf(documentFrequencies, length);
+        }
+        Postings termPostings = postings[term];
+        if (termPostings == null) {
+          if (termDelta < 0.0) {
+            continue;
+          }
+          termPostings = postings[term] = new Postings();
+        }
+        // counts never drop below 0, even if asked to remove a term that isn't being tracked
+        double count = termPostings.get(ordinal);
+        double newCount = Math.max(0.0, count + termDelta);
+        termPostings.set(ordinal, newCount);
+        if (termPostings.size == 0) {
+          postings[term] = null;
+        }
+        documentFrequencies[term] += newCount - count;
+        // weighted with the current snapshot of the IDF weights, like every other posting
+        double weight = weights == null ? 1.0 : weights.applyAsDouble(term);
+        sum += (newCount * newCount - count * count) * weight * weight;
+        if (lsh != null && newCount != count) {
+          genreTerms[ordinal].set(term, newCount);
+          lsh.add(ordinal, term, (newCount - count) * weight);
+        }
+        if (pending != null && term < pending.cursor) {
+          // the refresh has already re-weighted this term's postings, so it needs the change too
+          pending.add(ordinal, term, count, newCount);
+        }
+      }
+      sumOfSquares[ordinal] = sum;
+      norms[ordinal] = Math.sqrt(sum);
+      if (lsh != null) {
+        lsh.rehash(ordinal, sum > 0.0);
+      }
+      if (pending != null && pending.cursor == Refresh.DONE && pending.lsh != null) {
+        pending.lsh.rehash(ordinal, pending.sumOfSquares(ordinal) > 0.0);
+      }
+      documentCount += documents;
+      generation++;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Compute the cosine similarity between a document and each genre that shares at least one term
+   * with the document. Genres that don't share any terms have a similarity of 0 and are skipped.
+   *
+   * @param query the document's term vector
+   * @param consumer callback that is invoked with each genre and its score
+   */
+  public void score(SparseVector query, ScoreConsumer consumer) {
+    refreshWeightsIfStale();
+    lock.readLock().lock();
+    try {
+      score(query, 0, genreCount(), consumer);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Score the genres whose ordinals fall within a range. The caller must hold the read lock (see
+   * {@link #readLock()}), though the scoring itself may happen on other threads as long as the lock
+   * is held for the duration.
+   *
+   * @param query the document's term vector
+   * @param from the first ordinal to score (inclusive)
+   * @param to the last ordinal to score (exclusive)
+   * @param consumer callback that is invoked with each genre and its score
+   */
+  void score(SparseVector query, int from, int to, ScoreConsumer consumer) {
+    IdfWeights weights = idfWeights;
+    double queryNorm = queryNorm(query, weights);
+    if (queryNorm <= 0.0 || from >= to) {
+      return;
+    }
+
+    Accumulator acc = accumulators.get();
+    acc.ensureCapacity(genreCount());
+    try {
+      // term-at-a-time accumulation of the dot products
+      for (int i = 0; i < query.size(); i++) {
+        int term = query.termAt(i);
+        // terms that aren't in the dictionary have negative IDs (see Document#getQueryVector)
+        if (term < 0 || term >= postings.length || postings[term] == null) {
+          continue;
+        }
+        Postings termPostings = postings[term];
+        // the term's IDF weight applies to both the query and the genre
+        double idf = weights == null ? 1.0 : weights.applyAsDouble(term);
+        double weight = query.valueAt(i) * idf * idf;
+        // postings are sorted by ordinal, so the range can be located with a binary search
+        int end = termPostings.indexOf(to);
+        for (int j = termPostings.indexOf(from); j < end; j++) {
+          acc.add(termPostings.keys[j], weight * termPostings.counts[j]);
+        }
+      }
+
+      for (int i = 0; i < acc.touched; i++) {
+        int ordinal = acc.ordinals[i];
+        consumer.accept(genres[ordinal], acc.scores[ordinal] / (queryNorm * norms[ordinal]));
+      }
+    } finally {
+      acc.clear();
+    }
+  }
+
+  /**
+   * Compute the cosine similarity between a document and the genres that are likely to be most
+   * similar to it, per the LSH tables (see {@link #enableLsh}). The candidates are scored exactly,
+   * so their scores are the same as {@link #score}'s, but genres that are similar to the document
+   * may be missed. Falls back to scoring every genre if LSH isn't enabled.
+   *
+   * @param query the document's term vector
+   * @param probes the number of extra buckets to probe in each band. More probes find more of the
+   *     similar genres, at the cost of scoring more candidates
+   * @param consumer callback that is invoked with each candidate genre and its score
+   */
+  public void scoreApproximate(SparseVector query, int probes, ScoreConsumer consumer) {
+    refreshWeightsIfStale();
+    lock.readLock().lock();
+    try {
+      scoreCandidates(query, probes, consumer);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Score the LSH candidates for a document. The caller must hold the read lock */
+  void scoreCandidates(SparseVector query, int probes, ScoreConsumer consumer) {
+    if (lsh == null) {
+      score(query, 0, genreCount(), consumer);
+      return;
+    }
+    IdfWeights weights = idfWeights;
+    double queryNorm = queryNorm(query, weights);
+    if (queryNorm <= 0.0) {
+      return;
+    }
+    LshTables.Candidates candidates = lsh.candidates(query, probes, genreCount(), weights);
+    RequestTrace.count("lshCandidates", candidates.size);
+    // when genres aren't well separated there can be so many candidates that merging the document's
+    // terms with each of theirs would cost more than visiting the document's postings
+    long steps = 0;
+    for (int c = 0; c < candidates.size; c++) {
+      steps += query.size() + genreTerms[candidates.ordinals[c]].size;
+    }
+    if (steps * MERGE_COST >= postingsCount(query)) {
+      score(query, 0, genreCount(), consumer);
+      return;
+    }
+    // document-at-a-time: both the document's and the genre's terms are sorted by term ID
+    for (int c = 0; c < candidates.size; c++) {
+      int ordinal = candidates.ordinals[c];
+      Postings terms = genreTerms[ordinal];
+      double dot = 0.0;
+      int j = 0;
+      for (int i = 0; i < query.size() && j < terms.size; i++) {
+        int term = query.termAt(i);
+        while (j < terms.size && terms.keys[j] < term) {
+          j++;
+        }
+        if (j < terms.size && terms.keys[j] == term) {
+          double idf = weights == null ? 1.0 : weights.applyAsDouble(term);
+          dot += query.valueAt(i) * idf * idf * terms.counts[j];
+        }
+      }
+      if (dot != 0.0) {
+        consumer.accept(genres[ordinal], dot / (queryNorm * norms[ordinal]));
+      }
+    }
+  }
+
+  /**
+   * Build LSH tables over the genres, which {@link #scoreApproximate} uses to only score the
+   * genres that are likely to be most similar to a document. The tables are kept up to date as
+   * documents are added and removed. The genres are projected onto bands x rows random hyperplanes,
+   * which costs bands x rows floats of memory per genre, and as many additions per term of every
+   * document that's added or removed. Each genre's terms are also kept in a forward index, which
+   * roughly doubles the memory used by the postings. Genres are hashed by their weighted counts,
+   * so the tables are rebuilt whenever the IDF weights are refreshed.
+   *
+   * @param bands the number of hash tables. More bands find more of the similar genres
+   * @param rows the number of hyperplanes per band, between 1 and 30. More rows mean fewer
+   *     candidates, which are more similar to the document
+   */
+  public void enableLsh(int bands, int rows) {
+    LshTables tables = new LshTables(bands, rows, LSH_SEED);
+    lock.writeLock().lock();
+    try {
+      genreTerms = new Postings[genres.length];
+      for (int ordinal = 0; ordinal < genreCount(); ordinal++) {
+        genreTerms[ordinal] = new Postings();
+      }
+      for (int term = 0; term < postings.length; term++) {
+        Postings termPostings = postings[term];
+        for (int j = 0; termPostings != null && j < termPostings.size; j++) {
+          genreTerms[termPostings.keys[j]].set(term, termPostings.counts[j]);
+        }
+      }
+      lsh = fill(tables, idfWeights);
+      // a refresh that's in progress wouldn't have any LSH tables to swap in
+      refresh = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Hash every genre into empty LSH tables, by visiting every posting. The caller must hold the
+   * write lock
+   *
+   * @param tables the tables to fill
+   * @param weights the weights to project the genres with, or null if terms aren't weighted
+   * @return the tables
+   */
+  private LshTables fill(LshTables tables, IdfWeights weights) {
+    for (int term = 0; term < postings.length; term++) {
+      Postings termPostings = postings[term];
+      double weight = weights == null ? 1.0 : weights.applyAsDouble(term);
+      for (int j = 0; termPostings != null && j < termPostings.size; j++) {
+        tables.add(termPostings.keys[j], term, termPostings.counts[j] * weight);
+      }
+    }
+    for (int ordinal = 0; ordinal < genreCount(); ordinal++) {
+      tables.rehash(ordinal, sumOfSquares[ordinal] > 0.0);
+    }
+    return tables;
+  }
+
+  /** @return whether {@link #scoreApproximate} uses LSH tables */
+  public boolean isLshEnabled() {
+    lock.readLock().lock();
+    try {
+      return lsh != null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static double queryNorm(SparseVector query, IdfWeights weights) {
+    return weights == null ? query.norm() : weightedNorm(query, weights);
+  }
+
+  private static double weightedNorm(SparseVector query, IdfWeights weights) {
+    double sum = 0.0;
+    for (int i = 0; i < query.size(); i++) {
+      double value = query.valueAt(i) * weights.applyAsDouble(query.termAt(i));
+      sum += value * value;
+    }
+    return Math.sqrt(sum);
+  }
+
+  /**
+   * Set how terms are weighted. Every posting is re-weighted while holding the write lock, which
+   * blocks writes and queries, so this is best done before documents are added.
+   *
+   * @param weighting the weighting to use
+   */
+  public void setWeighting(Weighting weighting) {
+    lock.writeLock().lock();
+    try {
+      this.weighting = weighting;
+      refresh = null;
+      reweight(
+          weighting == Weighting.TF_IDF
+              ? new IdfWeights(documentFrequencies, documentCount)
+              : null);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public Weighting getWeighting() {
+    return weighting;
+  }
+
+  /**
+   * @return the current IDF weight of each term, by term ID. Every weight is 1 if terms aren't
+   *     weighted by IDF
+   */
+  public IntToDoubleFunction idfWeights() {
+    IdfWeights weights = idfWeights;
+    return weights == null ? term -> 1.0 : weights;
+  }
+
+  /**
+   * Start refreshing the IDF weights if the number of documents has changed by more than 10% since
+   * they were computed, unless a refresh is already in progress. Queries keep using the current
+   * weights until the refresh finishes. Does nothing if the calling thread holds the read lock,
+   * since the refresh executor may run the refresh on the calling thread, which would then be
+   * unable to take the write lock; the weights will be refreshed by a later query instead.
+   */
+  void refreshWeightsIfStale() {
+    if (!isStale(idfWeights)
+        || lock.getReadHoldCount() > 0
+        || !refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      refreshExecutor.execute(this::refreshWeights);
+    } catch (RuntimeException e) {
+      refreshing.set(false);
+      throw e;
+    }
+  }
+
+  /**
+   * Re-weight every posting with new IDF weights, a chunk of postings at a time, and then swap in
+   * the new weights, norms and LSH tables
+   */
+  private void refreshWeights() {
+    Refresh pending = null;
+    try {
+      lock.readLock().lock();
+      try {
+        // the weights may have been refreshed (or the weighting changed) since this was scheduled
+        if (!isStale(idfWeights)) {
+          return;
+        }
+        // writers are excluded while the read lock is held, so they all see the refresh
+        pending = new Refresh(new IdfWeights(documentFrequencies, documentCount), lsh);
+        refresh = pending;
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      while (pending.cursor != Refresh.DONE) {
+        lock.readLock().lock();
+        try {
+          if (refresh != pending) {
+            return;
+          }
+          reweightChunk(pending);
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+
+      lock.writeLock().lock();
+      try {
+        if (refresh != pending) {
+          return;
+        }
+        int capacity = sumOfSquares.length;
+        sumOfSquares = Arrays.copyOf(pending.sumOfSquares, capacity);
+        norms = new double[capacity];
+        for (int ordinal = 0; ordinal < capacity; ordinal++) {
+          norms[ordinal] = Math.sqrt(sumOfSquares[ordinal]);
+        }
+        lsh = pending.lsh;
+        idfWeights = pending.weights;
+        generation++;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } finally {
+      if (pending != null && refresh == pending) {
+        lock.writeLock().lock();
+        try {
+          if (refresh == pending) {
+            refresh = null;
+          }
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+      refreshing.set(false);
+    }
+  }
+
+  /**
+   * Re-weight the postings of the next terms for a refresh, up to the chunk size. The caller must
+   * hold the read lock
+   */
+  private void reweightChunk(Refresh pending) {
+    int visited = 0;
+    while (pending.cursor < postings.length && visited < refreshChunkSize) {
+      int term = pending.cursor;
+      Postings termPostings = postings[term];
+      for (int j = 0; termPostings != null && j < termPostings.size; j++) {
+        pending.add(termPostings.keys[j], term, 0.0, termPostings.counts[j]);
+      }
+      visited += 1 + (termPostings == null ? 0 : termPostings.size);
+      pending.cursor++;
+    }
+    if (pending.cursor == postings.length) {
+      if (pending.lsh != null) {
+        for (int ordinal = 0; ordinal < genreCount(); ordinal++) {
+          pending.lsh.rehash(ordinal, pending.sumOfSquares(ordinal) > 0.0);
+        }
+      }
+      // from now on, writers apply every change to the refresh
+      pending.cursor = Refresh.DONE;
+    }
+  }
+
+  private boolean isStale(IdfWeights weights) {
+    return weights != null
+        && Math.abs(documentCount - weights.documentCount)
+            > IdfWeights.REFRESH_FRACTION * weights.documentCount;
+  }
+
+  /**
+   * Recompute the norm of every genre with new weights, by visiting every posting. The caller must
+   * hold the write lock
+   *
+   * @param weights the new weights, or null if terms aren't weighted
+   */
+  private void reweight(IdfWeights weights) {
+    Arrays.fill(sumOfSquares, 0.0);
+    for (int term = 0; term < postings.length; term++) {
+      Postings termPostings = postings[term];
+      if (termPostings == null) {
+        continue;
+      }
+      double weight = weights == null ? 1.0 : weights.applyAsDouble(term);
+      for (int j = 0; j < termPostings.size; j++) {
+        double count = termPostings.counts[j] * weight;
+        sumOfSquares[termPostings.keys[j]] += count * count;
+      }
+    }
+    for (int ordinal = 0; ordinal < sumOfSquares.length; ordinal++) {
+      norms[ordinal] = Math.sqrt(sumOfSquares[ordinal]);
+    }
+    if (lsh != null) {
+      // the genres are hashed by their weighted counts too, so they need to be hashed again
+      lsh = fill(lsh.emptyCopy(), weights);
+    }
+    idfWeights = weights;
+    generation++;
+  }
+
+  /** @return the number of documents that contain a term, across every genre */
+  double documentFrequency(int term) {
+    lock.readLock().lock();
+    try {
+      return term < documentFrequencies.length ? documentFrequencies[term] : 0.0;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Estimate the cost of scoring a document, i.e. the number of postings that would be visited.
+   * The caller must hold the read lock.
+   *
+   * @param query the document's term vector
+   * @return the number of postings for the document's terms
+   */
+  long postingsCount(SparseVector query) {
+    long count = 0;
+    for (int i = 0; i < query.size(); i++) {
+      int term = query.termAt(i);
+      if (term >= 0 && term < postings.length && postings[term] != null) {
+        count += postings[term].size;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the version of the index, which changes whenever a document is added to or removed
+   *     from a genre. Scores that were computed at the same generation are still valid
+   */
+  public long generation() {
+    return generation;
+  }
+
+  /** @return the number of genres that have been registered. The caller must hold the read lock */
+  int genreCount() {
+    return ordinals.size();
+  }
+
+  /** @return the lock that must be held while reading from the index */
+  Lock readLock() {
+    return lock.readLock();
+  }
+
+  /** How terms are weighted when comparing documents to genres */
+  public enum Weighting {
+    /** Terms are weighted by their (average) count, i.e. the raw centroid */
+    TF,
+
+    /**
+     * Terms are also weighted by their inverse document frequency, so that terms which occur in
+     * most documents (e.g. stop words) count for less than rare ones
+     */
+    TF_IDF
+  }
+
+  /**
+   * A snapshot of the IDF weight of each term, i.e. ln((1 + N) / (1 + df)) + 1 where N is the
+   * number of documents and df is the number of documents that contain the term. Terms that
+   * weren't seen when the snapshot was taken get the weight of a term with a df of 0.
+   */
+  private static final class IdfWeights implements IntToDoubleFunction {
+    /** The weights are refreshed once the number of documents changes by this fraction */
+    static final double REFRESH_FRACTION = 0.1;
+
+    final long documentCount;
+    private final double[] weights;
+    private final double unseen;
+
+    IdfWeights(double[] documentFrequencies, long documentCount) {
+      this.documentCount = documentCount;
+      this.weights = new double[documentFrequencies.length];
+      for (int term = 0; term < weights.length; term++) {
+        weights[term] = Math.log((1.0 + documentCount) / (1.0 + documentFrequencies[term])) + 1.0;
+      }
+      this.unseen = Math.log(1.0 + documentCount) + 1.0;
+    }
+
+    @Override
+    public double applyAsDouble(int term) {
+      return term >= 0 && term < weights.length ? weights[term] : unseen;
+    }
+  }
+
+  /**
+   * The new norms and LSH tables for a refresh of the IDF weights, which are built up by visiting
+   * the postings in order of term ID. Only modified while holding the lock: by the refresh with the
+   * read lock, and by writers with the write lock
+   */
+  private static final class Refresh {
+    /** The cursor once every term has been visited */
+    static final int DONE = Integer.MAX_VALUE;
+
+    final IdfWeights weights;
+
+    /** The new tables, or null if LSH isn't enabled */
+    final LshTables lsh;
+
+    /** Sum of squared weighted term counts for each genre, by ordinal */
+    private double[] sumOfSquares = new double[16];
+
+    /** The postings of the terms below this ID have been visited */
+    int cursor = 0;
+
+    Refresh(IdfWeights weights, LshTables current) {
+      this.weights = weights;
+      this.lsh = current == null ? null : current.emptyCopy();
+    }
+
+    /** Apply a change in a genre's count of a term that has already been visited */
+    void add(int ordinal, int term, double count, double newCount) {
+      if (ordinal >= sumOfSquares.length) {
+        sumOfSquares = Arrays.copyOf(sumOfSquares, Math.max(ordinal + 1, sumOfSquares.length * 2));
+      }
+      double weight = weights.applyAsDouble(term);
+      sumOfSquares[ordinal] += (newCount * newCount - count * count) * weight * weight;
+      if (lsh != null) {
+        lsh.add(ordinal, term, (newCount - count) * weight);
+      }
+    }
+
+    double sumOfSquares(int ordinal) {
+      return ordinal < sumOfSquares.length ? sumOfSquares[ordinal] : 0.0;
+    }
+  }
+
+  /** Callback for receiving genre scores */
+  @FunctionalInterface
+  public interface ScoreConsumer {
+    void accept(String genre, double score);
+  }
+
+  /**
+   * Counts sorted by key: the genres that contain a term along with the term count in each genre,
+   * keyed by ordinal, or the terms that a genre contains, keyed by term ID
+   */
+  private static class Postings {
+    private int[] keys = new int[2];
+    private double[] counts = new double[2];
+    private int size = 0;
+
+    /** @return the index of the first key >= the provided key */
+    int indexOf(int key) {
+      int index = Arrays.binarySearch(keys, 0, size, key);
+      return index < 0 ? -index - 1 : index;
+    }
+
+    double get(int key) {
+      int index = Arrays.binarySearch(keys, 0, size, key);
+      return index < 0 ? 0.0 : counts[index];
+    }
+
+    /** Set the count for a key, removing the key from the postings if the count is 0 */
+    void set(int key, double count) {
+      int index = Arrays.binarySearch(keys, 0, size, key);
+      if (index >= 0) {
+        if (count != 0.0) {
+          counts[index] = count;
+        } else {
+          System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+          System.arraycopy(counts, index + 1, counts, index, size - index - 1);
+          size--;
+        }
+        return;
+      }
+      if (count == 0.0) {
+        return;
+      }
+      index = -index - 1;
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+      System.arraycopy(keys, index, keys, index + 1, size - index);
+      System.arraycopy(counts, index, counts, index + 1, size - index);
+      keys[index] = key;
+      counts[index] = count;
+      size++;
+    }
+  }
+
+  /** Per-genre dot product accumulators, along with the list of genres that were touched */
+  private static class Accumulator {
+    private double[] scores = new double[0];
+    private int[] ordinals = new int[0];
+    private int touched = 0;
+
+    void ensureCapacity(int genreCount) {
+      if (scores.length < genreCount) {
+        scores = new double[genreCount];
+        ordinals = new int[genreCount];
+      }
+    }
+
+    void add(int ordinal, double value) {
+      if (scores[ordinal] == 0.0) {
+        ordinals[touched++] = ordinal;
+      }
+      scores[ordinal] += value;
+    }
+
+    void clear() {
+      for (int i = 0; i < touched; i++) {
+        scores[ordinals[i]] = 0.0;
+      }
+      touched = 0;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.mitchseymour.classifier;
+
+import com.mitchseymour.similarity.TopK;
+import com.mitchseymour.vector.SparseVector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Finds the genres that are closest to a document using a {@link GenreIndex}. By default, scoring
+ * happens on the calling thread. Parallel scoring can be enabled, in which case the genres are
+ * split into chunks of ordinals that are scored on a dedicated {@link ForkJoinPool}, each chunk
+ * selecting its own top k, and the results are merged. Parallel scoring only kicks in for documents
+ * whose postings exceed a threshold, since smaller documents are cheaper to score on a single
+ * thread than to fan out.
+ */
+public class GenreScorer {
+  private final GenreIndex index;
+
+  /** The pool to score on, or null if parallel scoring is disabled */
+  private final ForkJoinPool pool;
+
+  /** Documents with fewer postings than this are scored on the calling thread */
+  private final long parallelThreshold;
+
+  /**
+   * Constructor for a scorer that only scores on the calling thread
+   *
+   * @param index the index to score against
+   */
+  public GenreScorer(GenreIndex index) {
+    this(index, 1, Long.MAX_VALUE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param index the index to score against
+   * @param parallelism the number of threads to score with. Parallel scoring is disabled if this is
+   *     1 or less
+   * @param parallelThreshold the minimum number of postings (summed across the document's terms)
+   *     before a document is scored in parallel
+   */
+  public GenreScorer(GenreIndex index, int parallelism, long parallelThreshold) {
+    this.index = index;
+    this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    this.parallelThreshold = parallelThreshold;
+  }
+
+  /**
+   * Find the genres that are most similar to a document.
+   *
+   * @param query the document's term vector
+   * @param k the maximum number of genres to select
+   * @param minScore the minimum score for a genre to be selected
+   * @return the selected genres
+   */
+  public TopK closestGenres(SparseVector query, int k, double minScore) {
+    index.refreshWeightsIfStale();
+    index.readLock().lock();
+    try {
+      int genreCount = index.genreCount();
+      // k comes from the client, so it's capped at the number of genres that could be selected
+      k = Math.min(k, genreCount);
+      if (pool == null || genreCount < 2 || index.postingsCount(query) < parallelThreshold) {
+        TopK topK = new TopK(k, minScore);
+        index.score(query, 0, genreCount, topK::offer);
+        return topK;
+      }
+
+      // split the ordinals into a few chunks per thread, so that uneven chunks balance out. The
+      // read lock is held by this thread until all of the chunks have been scored
+      int chunkSize = Math.max(1, genreCount / (pool.getParallelism() * 4));
+      return pool.invoke(new ScoreTask(query, k, minScore, 0, genreCount, chunkSize));
+    } finally {
+      index.readLock().unlock();
+    }
+  }
+
+  /**
+   * Find the genres that are most similar to a document, approximately: only the candidate genres
+   * found by the index's LSH tables are scored (see {@link GenreIndex#scoreApproximate}), so
+   * similar genres may be missed. Falls back to {@link #closestGenres} if LSH isn't enabled.
+   *
+   * @param query the document's term vector
+   * @param k the maximum number of genres to select
+   * @param minScore the minimum score for a genre to be selected
+   * @param probes the number of extra buckets to probe in each LSH band
+   * @return the selected genres
+   */
+  public TopK approximateClosestGenres(SparseVector query, int k, double minScore, int probes) {
+    index.refreshWeightsIfStale();
+    index.readLock().lock();
+    try {
+      if (!index.isLshEnabled()) {
+        return closestGenres(query, k, minScore);
+      }
+      TopK topK = new TopK(Math.min(k, index.genreCount()), minScore);
+      index.scoreCandidates(query, probes, topK::offer);
+      return topK;
+    } finally {
+      index.readLock().unlock();
+    }
+  }
+
+  /**
+   * Run some work against a consistent snapshot of the index, i.e. every document that is scored
+   * by the work sees the same version of every genre. Writers are blocked until the work completes,
+   * so it should be kept short.
+   *
+   * @param work the work to run, typically one or more calls to {@link #closestGenres}
+   * @return the result of the work
+   */
+  public <T> T withSnapshot(Supplier<T> work) {
+    index.refreshWeightsIfStale();
+    index.readLock().lock();
+    try {
+      return work.get();
+    } finally {
+      index.readLock().unlock();
+    }
+  }
+
+  /** Stop the scoring threads */
+  public void close() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  /** Scores a range of ordinals, splitting the range in half until it fits in a single chunk */
+  @SuppressWarnings("serial")
+  private class ScoreTask extends RecursiveTask<TopK> {
+    private final SparseVector query;
+    private final int k;
+    private final double minScore;
+    private final int from;
+    private final int to;
+    private final int chunkSize;
+
+    ScoreTask(SparseVector query, int k, double minScore, int from, int to, int chunkSize) {
+      this.query = query;
+      this.k = k;
+      this.minScore = minScore;
+      this.from = from;
+      this.to = to;
+      this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected TopK compute() {
+      if (to - from <= chunkSize) {
+        TopK topK = new TopK(k, minScore);
+        index.score(query, from, to, topK::offer);
+        return topK;
+      }
+      int middle = (from + to) >>> 1;
+      ScoreTask left = new ScoreTask(query, k, minScore, from, middle, chunkSize);
+      ScoreTask right = new ScoreTask(query, k, minScore, middle, to, chunkSize);
+      left.fork();
+      TopK topK = right.compute();
+      topK.addAll(left.join());
+      return topK;
+    }
+  }
+}
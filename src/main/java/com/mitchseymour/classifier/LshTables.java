@@ -0,0 +1,286 @@
+package com.mitchseymour.classifier;
+
+import com.mitchseymour.vector.SparseVector;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Locality-sensitive hash tables over the genres' (weighted) term counts, for finding candidate
+ * genres for a document without scoring every genre that shares a term with it.
+ *
+ * <p>Each genre is signed with random hyperplanes: bit h of the signature is whether the genre's
+ * term counts are on the positive side of hyperplane h, so the probability that two vectors agree
+ * on a bit is 1 - angle / pi. The signature is split into bands of rows, and each band is hashed
+ * into its own table, so genres that agree with a document on every row of any band are
+ * candidates. More rows per band means fewer (but more similar) candidates, and more bands means
+ * more chances for a similar genre to be found. Queries can also probe the buckets that differ from
+ * the document's in the bits it's least certain of (multi-probe LSH), which raises recall without
+ * rebuilding the tables.
+ *
+ * <p>The hyperplanes have a random +1 / -1 component per term, derived from a hash of the term ID,
+ * so they never need to be stored. Each genre's projection onto every hyperplane is kept up to
+ * date as its term counts change, so a write only costs (terms in the document) x (hyperplanes)
+ * additions, and the genre is only moved between buckets when a bit of its signature flips. Not
+ * thread-safe: {@link GenreIndex} guards the tables with its lock.
+ */
+final class LshTables {
+  private final int bands;
+  private final int rows;
+  private final int hyperplanes;
+  private final long seed;
+
+  /** Each genre's projection onto each hyperplane, by ordinal * hyperplanes + hyperplane */
+  private float[] projections;
+
+  /** Each genre's key in each band, by ordinal * bands + band, if the genre is in the tables */
+  private int[] keys;
+
+  /** Whether each genre is in the tables, by ordinal. Genres without any terms aren't */
+  private boolean[] hashed;
+
+  /** A table per band, of band key -> the genres with that key */
+  private final Map<Integer, Bucket>[] tables;
+
+  /** Scratch space for queries, reused across queries on the same thread */
+  private final ThreadLocal<Candidates> candidates = ThreadLocal.withInitial(Candidates::new);
+
+  /**
+   * Constructor
+   *
+   * @param bands the number of tables
+   * @param rows the number of signature bits per band, between 1 and 30
+   * @param seed the seed for the hyperplanes
+   */
+  @SuppressWarnings("unchecked")
+  LshTables(int bands, int rows, long seed) {
+    if (bands < 1 || rows < 1 || rows > 30) {
+      throw new IllegalArgumentException("Invalid LSH bands / rows: " + bands + " / " + rows);
+    }
+    this.bands = bands;
+    this.rows = rows;
+    this.hyperplanes = bands * rows;
+    this.seed = seed;
+    this.projections = new float[16 * hyperplanes];
+    this.keys = new int[16 * bands];
+    this.hashed = new boolean[16];
+    this.tables = new Map[bands];
+    for (int band = 0; band < bands; band++) {
+      tables[band] = new HashMap<>();
+    }
+  }
+
+  /** @return empty tables with the same configuration and hyperplanes as these */
+  LshTables emptyCopy() {
+    return new LshTables(bands, rows, seed);
+  }
+
+  /**
+   * Apply a change in one of a genre's term counts to its projections. Call {@link #rehash} once
+   * every term of the change has been applied.
+   *
+   * @param ordinal the genre's ordinal
+   * @param term the term ID
+   * @param delta the change in the term's (weighted) count
+   */
+  void add(int ordinal, int term, double delta) {
+    if (ordinal >= hashed.length) {
+      int capacity = Math.max(ordinal + 1, hashed.length * 2);
+      projections = Arrays.copyOf(projections, capacity * hyperplanes);
+      keys = Arrays.copyOf(keys, capacity * bands);
+      hashed = Arrays.copyOf(hashed, capacity);
+    }
+    float value = (float) delta;
+    int base = ordinal * hyperplanes;
+    for (int word = 0; word * 64 < hyperplanes; word++) {
+      long signs = signs(term, word);
+      int end = Math.min(hyperplanes, (word + 1) * 64);
+      for (int h = word * 64; h < end; h++) {
+        // branch free, since the signs are random: +value if the bit is set, otherwise -value
+        projections[base + h] += value * ((((signs >>> (h & 63)) & 1L) << 1) - 1);
+      }
+    }
+  }
+
+  /**
+   * Move a genre to the buckets that match its current projections
+   *
+   * @param ordinal the genre's ordinal
+   * @param hasTerms whether the genre has any terms. Genres without terms are removed
+   */
+  void rehash(int ordinal, boolean hasTerms) {
+    if (ordinal >= hashed.length) {
+      return;
+    }
+    for (int band = 0; band < bands; band++) {
+      int key = bandKey(projections, ordinal * hyperplanes + band * rows);
+      int slot = ordinal * bands + band;
+      boolean moved = !hasTerms || !hashed[ordinal] || keys[slot] != key;
+      if (hashed[ordinal] && moved) {
+        Bucket bucket = tables[band].get(keys[slot]);
+        bucket.remove(ordinal);
+        if (bucket.size == 0) {
+          tables[band].remove(keys[slot]);
+        }
+      }
+      if (hasTerms && moved) {
+        tables[band].computeIfAbsent(key, k -> new Bucket()).add(ordinal);
+      }
+      keys[slot] = key;
+    }
+    hashed[ordinal] = hasTerms;
+  }
+
+  /**
+   * Find the candidate genres for a document
+   *
+   * @param query the document's term vector
+   * @param probes the number of extra buckets to probe in each band, between 0 and rows. Each
+   *     extra bucket differs from the document's bucket in one of its least certain bits
+   * @param genreCount the number of genres in the index
+   * @param weights the weight of each term, by term ID, which must be the weights that the genres
+   *     were hashed with, or null if terms aren't weighted
+   * @return the candidates, which are only valid until the next query on this thread
+   */
+  Candidates candidates(
+      SparseVector query, int probes, int genreCount, IntToDoubleFunction weights) {
+    Candidates result = candidates.get();
+    result.reset(genreCount, hyperplanes);
+    double[] projection = result.projection;
+    for (int i = 0; i < query.size(); i++) {
+      int term = query.termAt(i);
+      double value = query.valueAt(i) * (weights == null ? 1.0 : weights.applyAsDouble(term));
+      for (int word = 0; word * 64 < hyperplanes; word++) {
+        long signs = signs(term, word);
+        int end = Math.min(hyperplanes, (word + 1) * 64);
+        for (int h = word * 64; h < end; h++) {
+          projection[h] += value * ((((signs >>> (h & 63)) & 1L) << 1) - 1);
+        }
+      }
+    }
+
+    int probeCount = Math.min(Math.max(0, probes), rows);
+    for (int band = 0; band < bands; band++) {
+      int base = band * rows;
+      int key = bandKey(projection, base);
+      result.addAll(tables[band].get(key));
+      // flip the bits whose projections are closest to the hyperplane, one at a time
+      long probed = 0;
+      for (int probe = 0; probe < probeCount; probe++) {
+        int least = -1;
+        double leastDistance = Double.MAX_VALUE;
+        for (int row = 0; row < rows; row++) {
+          double distance = Math.abs(projection[base + row]);
+          if ((probed & (1L << row)) == 0 && distance < leastDistance) {
+            least = row;
+            leastDistance = distance;
+          }
+        }
+        probed |= 1L << least;
+        result.addAll(tables[band].get(key ^ (1 << least)));
+      }
+    }
+    return result;
+  }
+
+  private int bandKey(float[] projections, int offset) {
+    int key = 0;
+    for (int row = 0; row < rows; row++) {
+      if (projections[offset + row] > 0.0f) {
+        key |= 1 << row;
+      }
+    }
+    return key;
+  }
+
+  private int bandKey(double[] projection, int offset) {
+    int key = 0;
+    for (int row = 0; row < rows; row++) {
+      if (projection[offset + row] > 0.0) {
+        key |= 1 << row;
+      }
+    }
+    return key;
+  }
+
+  /** @return the signs of a term's components in hyperplanes [64 * word, 64 * word + 64) */
+  private long signs(int term, int word) {
+    // splitmix64
+    long z = seed + term * 0x9E3779B97F4A7C15L + word * 0xC2B2AE3D27D4EB4FL;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /** The genres that share a band key */
+  private static final class Bucket {
+    private int[] ordinals = new int[4];
+    private int size = 0;
+
+    void add(int ordinal) {
+      if (size == ordinals.length) {
+        ordinals = Arrays.copyOf(ordinals, size * 2);
+      }
+      ordinals[size++] = ordinal;
+    }
+
+    void remove(int ordinal) {
+      for (int i = 0; i < size; i++) {
+        if (ordinals[i] == ordinal) {
+          ordinals[i] = ordinals[--size];
+          return;
+        }
+      }
+    }
+  }
+
+  /** The distinct candidate genres for a query */
+  static final class Candidates {
+    /** The candidates' ordinals */
+    int[] ordinals = new int[64];
+
+    int size = 0;
+
+    /** The query's projection onto each hyperplane */
+    private double[] projection = new double[0];
+
+    /** Marks the genres that are already candidates, by ordinal, with the current epoch */
+    private int[] seen = new int[0];
+
+    private int epoch = 0;
+
+    void reset(int genreCount, int hyperplanes) {
+      size = 0;
+      if (projection.length != hyperplanes) {
+        projection = new double[hyperplanes];
+      } else {
+        Arrays.fill(projection, 0.0);
+      }
+      if (seen.length < genreCount) {
+        seen = new int[Math.max(genreCount, seen.length * 2)];
+        epoch = 0;
+      }
+      if (++epoch == Integer.MAX_VALUE) {
+        Arrays.fill(seen, 0);
+        epoch = 1;
+      }
+    }
+
+    void addAll(Bucket bucket) {
+      if (bucket == null) {
+        return;
+      }
+      for (int i = 0; i < bucket.size; i++) {
+        int ordinal = bucket.ordinals[i];
+        if (seen[ordinal] != epoch) {
+          seen[ordinal] = epoch;
+          if (size == ordinals.length) {
+            ordinals = Arrays.copyOf(ordinals, size * 2);
+          }
+          ordinals[size++] = ordinal;
+        }
+      }
+    }
+  }
+}
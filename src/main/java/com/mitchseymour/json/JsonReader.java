@@ -0,0 +1,155 @@
+package com.mitchseymour.json;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A minimal JSON parser for flat objects, i.e. objects whose values are strings, numbers, booleans
+ * or null. This covers the records that are sent to the NDJSON endpoints, without pulling in a full
+ * JSON library.
+ */
+public final class JsonReader {
+  private final CharSequence json;
+  private int pos = 0;
+
+  private JsonReader(CharSequence json) {
+    this.json = json;
+  }
+
+  /**
+   * Parse a flat JSON object.
+   *
+   * @param json the JSON text, e.g. a single line of an NDJSON stream
+   * @return a map of field name -> value. String values are unescaped, other values are returned as
+   *     their literal text (e.g. "3", "true"), and null values are returned as null
+   * @throws IllegalArgumentException if the text isn't a flat JSON object
+   */
+  public static Map<String, String> parseObject(CharSequence json) {
+    JsonReader reader = new JsonReader(json);
+    Map<String, String> object = reader.readObject();
+    reader.skipWhitespace();
+    if (reader.pos != json.length()) {
+      throw reader.error("Unexpected trailing characters");
+    }
+    return object;
+  }
+
+  private Map<String, String> readObject() {
+    Map<String, String> object = new LinkedHashMap<>();
+    expect('{');
+    skipWhitespace();
+    if (peek() == '}') {
+      pos++;
+      return object;
+    }
+    while (true) {
+      skipWhitespace();
+      String name = readString();
+      skipWhitespace();
+      expect(':');
+      skipWhitespace();
+      object.put(name, readValue());
+      skipWhitespace();
+      char c = next();
+      if (c == '}') {
+        return object;
+      } else if (c != ',') {
+        throw error("Expected ',' or '}'");
+      }
+    }
+  }
+
+  private String readValue() {
+    char c = peek();
+    if (c == '"') {
+      return readString();
+    } else if (c == '{' || c == '[') {
+      throw error("Nested objects and arrays are not supported");
+    }
+    int start = pos;
+    while (pos < json.length() && "-+.eE0123456789truefalsn".indexOf(json.charAt(pos)) >= 0) {
+      pos++;
+    }
+    String literal = json.subSequence(start, pos).toString();
+    if (literal.isEmpty()) {
+      throw error("Expected a value");
+    }
+    return literal.equals("null") ? null : literal;
+  }
+
+  private String readString() {
+    expect('"');
+    StringBuilder value = new StringBuilder();
+    while (true) {
+      char c = next();
+      if (c == '"') {
+        return value.toString();
+      } else if (c != '\\') {
+        value.append(c);
+        continue;
+      }
+      c = next();
+      switch (c) {
+        case 'b':
+          value.append('\b');
+          break;
+        case 'f':
+          value.append('\f');
+          break;
+        case 'n':
+          value.append('\n');
+          break;
+        case 'r':
+          value.append('\r');
+          break;
+        case 't':
+          value.append('\t');
+          break;
+        case 'u':
+          if (pos + 4 > json.length()) {
+            throw error("Invalid unicode escape");
+          }
+          try {
+            value.append((char) Integer.parseInt(json.subSequence(pos, pos + 4).toString(), 16));
+          } catch (NumberFormatException e) {
+            throw error("Invalid unicode escape");
+          }
+          pos += 4;
+          break;
+        default:
+          // covers \" \\ and \/
+          value.append(c);
+      }
+    }
+  }
+
+  private void skipWhitespace() {
+    while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  private char peek() {
+    if (pos >= json.length()) {
+      throw error("Unexpected end of input");
+    }
+    return json.charAt(pos);
+  }
+
+  private char next() {
+    char c = peek();
+    pos++;
+    return c;
+  }
+
+  private void expect(char expected) {
+    if (next() != expected) {
+      pos--;
+      throw error("Expected '" + expected + "'");
+    }
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at position " + pos);
+  }
+}
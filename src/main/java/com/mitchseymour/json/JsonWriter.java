@@ -0,0 +1,185 @@
+package com.mitchseymour.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A streaming JSON writer. Values are written straight to the underlying writer as they are
+ * produced, rather than building the whole document in memory first. Strings are escaped according
+ * to RFC 8259.
+ */
+public class JsonWriter implements Closeable, Flushable {
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final char LINE_SEPARATOR = 0x2028;
+  private static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+  private final Writer out;
+
+  /** Whether the current object / array already contains a value, by nesting depth */
+  private boolean[] hasValue = new boolean[8];
+
+  private int depth = 0;
+
+  /** Set after writing a name, so that the following value isn't preceded by a comma */
+  private boolean afterName = false;
+
+  public JsonWriter(Writer out) {
+    this.out = out;
+  }
+
+  /** Write UTF-8 encoded JSON to an output stream, e.g. the body of a servlet response */
+  public JsonWriter(OutputStream out) {
+    this(new Utf8Writer(out));
+  }
+
+  public JsonWriter beginObject() throws IOException {
+    return open('{');
+  }
+
+  public JsonWriter endObject() throws IOException {
+    return close('}');
+  }
+
+  public JsonWriter beginArray() throws IOException {
+    return open('[');
+  }
+
+  public JsonWriter endArray() throws IOException {
+    return close(']');
+  }
+
+  /** Write the name of the next field in the current object */
+  public JsonWriter name(CharSequence name) throws IOException {
+    beforeValue();
+    writeString(name);
+    out.write(':');
+    afterName = true;
+    return this;
+  }
+
+  public JsonWriter value(CharSequence value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    beforeValue();
+    writeString(value);
+    return this;
+  }
+
+  public JsonWriter value(long value) throws IOException {
+    beforeValue();
+    out.write(Long.toString(value));
+    return this;
+  }
+
+  /** Write a number. JSON doesn't support NaN or infinity, so those are written as null */
+  public JsonWriter value(double value) throws IOException {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return nullValue();
+    }
+    beforeValue();
+    out.write(Double.toString(value));
+    return this;
+  }
+
+  public JsonWriter nullValue() throws IOException {
+    beforeValue();
+    out.write("null");
+    return this;
+  }
+
+  /**
+   * End the current top-level value with a newline, e.g. to separate the records of an NDJSON
+   * stream.
+   */
+  public JsonWriter newline() throws IOException {
+    if (depth != 0) {
+      throw new IllegalStateException("Cannot end a record inside of an object or array");
+    }
+    out.write('\n');
+    hasValue[0] = false;
+    return this;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /** Flush and close the underlying writer */
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+  private JsonWriter open(char c) throws IOException {
+    beforeValue();
+    out.write(c);
+    if (++depth == hasValue.length) {
+      hasValue = Arrays.copyOf(hasValue, depth * 2);
+    }
+    hasValue[depth] = false;
+    return this;
+  }
+
+  private JsonWriter close(char c) throws IOException {
+    if (depth == 0) {
+      throw new IllegalStateException("Nothing to close");
+    }
+    depth--;
+    out.write(c);
+    return this;
+  }
+
+  private void beforeValue() throws IOException {
+    if (afterName) {
+      afterName = false;
+      return;
+    }
+    if (hasValue[depth] && depth > 0) {
+      out.write(',');
+    }
+    hasValue[depth] = true;
+  }
+
+  private void writeString(CharSequence value) throws IOException {
+    out.write('"');
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          out.write("\\\"");
+          break;
+        case '\\':
+          out.write("\\\\");
+          break;
+        case '\n':
+          out.write("\\n");
+          break;
+        case '\r':
+          out.write("\\r");
+          break;
+        case '\t':
+          out.write("\\t");
+          break;
+        default:
+          if (c < 0x20 || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+            // other control characters (and line separators, which break some JS parsers)
+            out.write("\\u");
+            out.write(HEX[(c >> 12) & 0xF]);
+            out.write(HEX[(c >> 8) & 0xF]);
+            out.write(HEX[(c >> 4) & 0xF]);
+            out.write(HEX[c & 0xF]);
+          } else {
+            out.write(c);
+          }
+      }
+    }
+    out.write('"');
+  }
+}
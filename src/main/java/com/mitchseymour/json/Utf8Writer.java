@@ -0,0 +1,128 @@
+package com.mitchseymour.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A writer that encodes characters as UTF-8 straight into a byte buffer, and writes the buffer to
+ * an output stream whenever it fills up. Unlike an {@link java.io.OutputStreamWriter}, writing a
+ * single character doesn't go through a charset encoder or any locking, which matters for the
+ * character-at-a-time output of {@link JsonWriter}.
+ *
+ * <p>The buffer is handed back to the current thread when the writer is closed, so that the next
+ * response written on the same thread doesn't have to allocate a new one. Unpaired surrogates are
+ * written as '?'.
+ */
+public class Utf8Writer extends Writer {
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<>();
+
+  private final OutputStream out;
+
+  /** Null once the writer has been closed */
+  private byte[] buffer;
+
+  private int position = 0;
+
+  /** A high surrogate that is waiting for the low surrogate that follows it, or 0 */
+  private char highSurrogate = 0;
+
+  public Utf8Writer(OutputStream out) {
+    this.out = out;
+    byte[] cached = BUFFERS.get();
+    if (cached != null) {
+      BUFFERS.remove();
+      this.buffer = cached;
+    } else {
+      this.buffer = new byte[BUFFER_SIZE];
+    }
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    encode((char) c);
+  }
+
+  @Override
+  public void write(char[] chars, int offset, int length) throws IOException {
+    for (int i = offset; i < offset + length; i++) {
+      encode(chars[i]);
+    }
+  }
+
+  @Override
+  public void write(String value, int offset, int length) throws IOException {
+    for (int i = offset; i < offset + length; i++) {
+      encode(value.charAt(i));
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (buffer == null) {
+      return;
+    }
+    try {
+      if (highSurrogate != 0) {
+        highSurrogate = 0;
+        encode('?');
+      }
+      flushBuffer();
+      out.close();
+    } finally {
+      BUFFERS.set(buffer);
+      buffer = null;
+    }
+  }
+
+  private void encode(char c) throws IOException {
+    if (buffer == null) {
+      throw new IOException("Writer is closed");
+    }
+    if (buffer.length - position < 4) {
+      flushBuffer();
+    }
+    if (highSurrogate != 0) {
+      char high = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        int codePoint = Character.toCodePoint(high, c);
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+        return;
+      }
+      buffer[position++] = '?';
+      encode(c);
+    } else if (c < 0x80) {
+      buffer[position++] = (byte) c;
+    } else if (c < 0x800) {
+      buffer[position++] = (byte) (0xC0 | (c >> 6));
+      buffer[position++] = (byte) (0x80 | (c & 0x3F));
+    } else if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      buffer[position++] = '?';
+    } else {
+      buffer[position++] = (byte) (0xE0 | (c >> 12));
+      buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+      buffer[position++] = (byte) (0x80 | (c & 0x3F));
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (position > 0) {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package com.mitchseymour.metrics;
+
+/** Gauges for the size of the classifiers, which are published over JMX */
+public interface ClassifierMetricsMXBean {
+
+  /** @return the number of genres that have a classifier */
+  int getGenreCount();
+
+  /** @return the number of documents across every genre */
+  long getDocumentCount();
+
+  /**
+   * @return the number of distinct terms that have been seen, i.e. the size of the dictionary, or
+   *     the number of buckets if terms are hashed
+   */
+  int getVocabularySize();
+}
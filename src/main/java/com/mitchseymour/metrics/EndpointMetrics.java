@@ -0,0 +1,213 @@
+package com.mitchseymour.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latency, throughput and allocations of the requests to an endpoint. Recording a request is
+ * lock free: a few counter increments, and a nanoTime call to check whether the window has ended.
+ *
+ * <p>Latencies and allocations are recorded in histograms that are swapped for empty ones at the
+ * end of each interval, and are read from the previous and current histograms together, so that
+ * percentiles reflect the last one to two intervals rather than everything since the server
+ * started.
+ */
+public class EndpointMetrics implements EndpointMetricsMXBean {
+  private static final long DEFAULT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  /** Used for measuring allocations, or null if the JVM doesn't support it */
+  private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+  private final long intervalNanos;
+
+  private final LongAdder requests = new LongAdder();
+
+  private final LongAdder errors = new LongAdder();
+
+  private final LongAdder rejected = new LongAdder();
+
+  private final LongAdder allocatedBytes = new LongAdder();
+
+  private final AtomicReference<Window> current;
+
+  private volatile Window previous;
+
+  public EndpointMetrics() {
+    this(DEFAULT_INTERVAL_NANOS);
+  }
+
+  /** @param intervalNanos how long values are recorded in a histogram before it's swapped out */
+  EndpointMetrics(long intervalNanos) {
+    this.intervalNanos = intervalNanos;
+    long now = System.nanoTime();
+    this.current = new AtomicReference<>(new Window(now));
+    this.previous = new Window(now);
+  }
+
+  /**
+   * @return the number of bytes that have been allocated by the current thread, or -1 if the JVM
+   *     doesn't support measuring allocations
+   */
+  public static long currentThreadAllocatedBytes() {
+    return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static com.sun.management.ThreadMXBean threads() {
+    try {
+      java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      if (threads instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        if (hotspot.isThreadAllocatedMemorySupported()
+            && hotspot.isThreadAllocatedMemoryEnabled()) {
+          return hotspot;
+        }
+      }
+    } catch (LinkageError e) {
+      // not a HotSpot JVM
+    }
+    return null;
+  }
+
+  /**
+   * Record a request
+   *
+   * @param latencyNanos how long the request took
+   * @param allocatedBytes the number of bytes allocated while handling the request, or a negative
+   *     number if it wasn't measured
+   * @param status the response status
+   */
+  public void record(long latencyNanos, long allocatedBytes, int status) {
+    if (status == 429 || status == 503) {
+      // rejections are counted, but would otherwise hide the latency of the requests that were
+      // actually handled
+      rejected.increment();
+      return;
+    }
+    requests.increment();
+    if (status >= 500) {
+      errors.increment();
+    }
+    Window window = window(System.nanoTime());
+    window.latencies.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    if (allocatedBytes >= 0) {
+      this.allocatedBytes.add(allocatedBytes);
+      window.allocations.record(allocatedBytes);
+    }
+  }
+
+  /** @return the current window, starting a new one if the current one has ended */
+  private Window window(long now) {
+    Window window = current.get();
+    if (now - window.start < intervalNanos) {
+      return window;
+    }
+    Window next = new Window(now);
+    if (current.compareAndSet(window, next)) {
+      // if nothing was recorded for a whole interval, the ended window is too old to report on
+      previous = now - window.start < 2 * intervalNanos ? window : new Window(now - intervalNanos);
+      return next;
+    }
+    return current.get();
+  }
+
+  /** @return the latencies recorded in the previous and current windows */
+  private LatencyHistogram recentLatencies() {
+    Window window = window(System.nanoTime());
+    LatencyHistogram latencies = previous.latencies.copy();
+    latencies.add(window.latencies);
+    return latencies;
+  }
+
+  private LatencyHistogram recentAllocations() {
+    Window window = window(System.nanoTime());
+    LatencyHistogram allocations = previous.allocations.copy();
+    allocations.add(window.allocations);
+    return allocations;
+  }
+
+  @Override
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  @Override
+  public long getErrorCount() {
+    return errors.sum();
+  }
+
+  @Override
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  @Override
+  public long getAllocatedBytes() {
+    return allocatedBytes.sum();
+  }
+
+  @Override
+  public double getRequestsPerSecond() {
+    long now = System.nanoTime();
+    window(now);
+    Window previous = this.previous;
+    long count = previous.latencies.getCount() + current.get().latencies.getCount();
+    return count / Math.max(1e-9, (now - previous.start) / 1e9);
+  }
+
+  @Override
+  public double getLatencyMeanMicros() {
+    return recentLatencies().getMean();
+  }
+
+  @Override
+  public long getLatencyP50Micros() {
+    return recentLatencies().getValueAtPercentile(50);
+  }
+
+  @Override
+  public long getLatencyP90Micros() {
+    return recentLatencies().getValueAtPercentile(90);
+  }
+
+  @Override
+  public long getLatencyP99Micros() {
+    return recentLatencies().getValueAtPercentile(99);
+  }
+
+  @Override
+  public long getLatencyP999Micros() {
+    return recentLatencies().getValueAtPercentile(99.9);
+  }
+
+  @Override
+  public long getLatencyMaxMicros() {
+    return recentLatencies().getMax();
+  }
+
+  @Override
+  public double getAllocatedBytesPerRequest() {
+    return recentAllocations().getMean();
+  }
+
+  @Override
+  public long getAllocatedBytesP99() {
+    return recentAllocations().getValueAtPercentile(99);
+  }
+
+  /** The values that were recorded during an interval */
+  private static class Window {
+    final long start;
+
+    /** In microseconds */
+    final LatencyHistogram latencies = new LatencyHistogram();
+
+    /** In bytes per request */
+    final LatencyHistogram allocations = new LatencyHistogram();
+
+    Window(long start) {
+      this.start = start;
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package com.mitchseymour.metrics;
+
+/**
+ * The metrics of an endpoint that are published over JMX. Counts are totals since the server
+ * started. Rates, means and percentiles are over the last one to two minutes.
+ */
+public interface EndpointMetricsMXBean {
+
+  /** @return the number of requests that were handled, including errors but not rejections */
+  long getRequestCount();
+
+  /** @return the number of requests that failed with a server error */
+  long getErrorCount();
+
+  /** @return the number of requests that were rejected to shed load, i.e. 429 or 503 responses */
+  long getRejectedCount();
+
+  /** @return the number of bytes that were allocated while handling requests */
+  long getAllocatedBytes();
+
+  double getRequestsPerSecond();
+
+  double getLatencyMeanMicros();
+
+  long getLatencyP50Micros();
+
+  long getLatencyP90Micros();
+
+  long getLatencyP99Micros();
+
+  long getLatencyP999Micros();
+
+  long getLatencyMaxMicros();
+
+  double getAllocatedBytesPerRequest();
+
+  long getAllocatedBytesP99();
+}
@@ -0,0 +1,23 @@
+package com.mitchseymour.metrics;
+
+/**
+ * Gauges and counters for a bounded pool of worker threads, which are published over JMX. A
+ * growing queue, or rejected / expired tasks, mean that the pool can't keep up with the load
+ */
+public interface ExecutorMetricsMXBean {
+
+  /** @return the number of threads in the pool */
+  int getThreadCount();
+
+  /** @return the number of threads that are running a task */
+  int getActiveCount();
+
+  /** @return the number of tasks waiting for a thread */
+  int getQueueSize();
+
+  /** @return the number of tasks that were rejected because the queue was full */
+  long getRejectedCount();
+
+  /** @return the number of tasks that were expired because they waited for too long */
+  long getExpiredCount();
+}
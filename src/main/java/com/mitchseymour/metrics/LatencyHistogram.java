@@ -0,0 +1,135 @@
+package com.mitchseymour.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies (or any other non-negative values) with a fixed relative precision,
+ * along the lines of HdrHistogram. Values below 256 are counted exactly. Larger values are counted
+ * in buckets whose width doubles with each power of two, with 128 buckets per power of two, so any
+ * recorded value is reported to within 1% of its true value regardless of its magnitude. Recording
+ * a value is a single atomic increment, and the histogram has a fixed size of under 60KB.
+ *
+ * <p>Recording is thread-safe. Reading while values are being recorded gives an approximate
+ * snapshot, e.g. a value may be counted before it's included in the total.
+ */
+public class LatencyHistogram {
+  /** Values with fewer significant bits than this are counted exactly */
+  private static final int PRECISION_BITS = 8;
+
+  private static final int SUB_BUCKETS = 1 << (PRECISION_BITS - 1);
+
+  private static final int BUCKETS = (64 - PRECISION_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  /** @param value the value to record. Negative values are recorded as 0 */
+  public void record(long value) {
+    counts.incrementAndGet(index(Math.max(0, value)));
+  }
+
+  /** Add every value that was recorded by another histogram to this one */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      long count = other.counts.get(i);
+      if (count != 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+  }
+
+  /** @return a copy of this histogram, which isn't affected by values recorded afterwards */
+  public LatencyHistogram copy() {
+    LatencyHistogram copy = new LatencyHistogram();
+    copy.add(this);
+    return copy;
+  }
+
+  /** Remove every recorded value */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+  }
+
+  /** @return the number of recorded values */
+  public long getCount() {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * @param percentile the percentile, between 0 and 100, e.g. 99.9
+   * @return the highest value that is equivalent (i.e. in the same bucket) to the value at the
+   *     percentile, or 0 if no values have been recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return highestEquivalentValue(i);
+      }
+    }
+    return highestEquivalentValue(BUCKETS - 1);
+  }
+
+  /** @return the highest recorded value (to within the precision of the histogram), or 0 */
+  public long getMax() {
+    for (int i = BUCKETS - 1; i >= 0; i--) {
+      if (counts.get(i) != 0) {
+        return highestEquivalentValue(i);
+      }
+    }
+    return 0;
+  }
+
+  /** @return the mean of the recorded values (to within the precision of the histogram), or 0 */
+  public double getMean() {
+    long total = 0;
+    double sum = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      long count = counts.get(i);
+      if (count != 0) {
+        total += count;
+        sum += count * (double) highestEquivalentValue(i);
+      }
+    }
+    return total == 0 ? 0 : sum / total;
+  }
+
+  /**
+   * Values below 2 * SUB_BUCKETS are their own index. Above that, a value's index is made up of its
+   * power of two (the shift) and its most significant bits (in [SUB_BUCKETS, 2 * SUB_BUCKETS))
+   */
+  static int index(long value) {
+    int shift = 64 - Long.numberOfLeadingZeros(value) - PRECISION_BITS;
+    if (shift <= 0) {
+      return (int) value;
+    }
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  static long highestEquivalentValue(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long mantissa = index - shift * SUB_BUCKETS;
+    long highest = ((mantissa + 1) << shift) - 1;
+    // the top bucket's upper bound overflows
+    return highest < 0 ? Long.MAX_VALUE : highest;
+  }
+}
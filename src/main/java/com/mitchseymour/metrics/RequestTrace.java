@@ -0,0 +1,164 @@
+package com.mitchseymour.metrics;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A breakdown of where the time went while handling a request, for the slow request log (see
+ * {@link SlowRequestLog}). The code along the request's path calls {@link #stage(String)} at the
+ * end of each stage, and {@link #count(String, long)} to note the size of its inputs. Both are
+ * static, and do nothing unless the request on the current thread is being traced, so they can be
+ * left in hot paths: when tracing is disabled they cost a single volatile read.
+ *
+ * <p>A trace is only used by the thread that handles the request, so it isn't thread-safe.
+ */
+public final class RequestTrace {
+  /** Set once any slow request log is enabled. Until then, the thread local isn't even read */
+  private static volatile boolean enabled = false;
+
+  private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+  private final String endpoint;
+  private final long started;
+  private long last;
+
+  private String[] names = new String[8];
+  private long[] values = new long[8];
+
+  /** Stages and counts are kept in the same arrays. This marks which entries are counts */
+  private boolean[] isCount = new boolean[8];
+
+  private int size = 0;
+
+  private RequestTrace(String endpoint, long started) {
+    this.endpoint = endpoint;
+    this.started = started;
+    this.last = started;
+  }
+
+  /** Allow requests to be traced. Called when a slow request log is created */
+  static void enable() {
+    enabled = true;
+  }
+
+  /**
+   * Start tracing the request that is handled by the current thread
+   *
+   * @param endpoint the request's endpoint, e.g. "GET /nClosestGenres"
+   * @param started when the request was received, per {@link System#nanoTime()}
+   * @return the trace, which must be passed to {@link #finish()} once the request completes
+   */
+  static RequestTrace start(String endpoint, long started) {
+    RequestTrace trace = new RequestTrace(endpoint, started);
+    CURRENT.set(trace);
+    return trace;
+  }
+
+  /** @return the trace of the request on the current thread, or null if it isn't being traced */
+  public static RequestTrace current() {
+    return enabled ? CURRENT.get() : null;
+  }
+
+  /**
+   * Mark the end of a stage of the current request, if it's being traced. The stage's time is the
+   * time since the previous stage ended (or the request was received). A stage that's reached more
+   * than once (e.g. in a loop) accumulates its time.
+   *
+   * @param name the name of the stage, e.g. "tokenize"
+   */
+  public static void stage(String name) {
+    RequestTrace trace = current();
+    if (trace != null) {
+      long now = System.nanoTime();
+      trace.add(name, now - trace.last, false);
+      trace.last = now;
+    }
+  }
+
+  /**
+   * Note the size of one of the current request's inputs, if it's being traced
+   *
+   * @param name what was counted, e.g. "termCount"
+   * @param value the count, which is added to any previous count with the same name
+   */
+  public static void count(String name, long value) {
+    RequestTrace trace = current();
+    if (trace != null) {
+      trace.add(name, value, true);
+    }
+  }
+
+  private void add(String name, long value, boolean count) {
+    for (int i = 0; i < size; i++) {
+      if (names[i].equals(name)) {
+        values[i] += value;
+        return;
+      }
+    }
+    if (size == names.length) {
+      names = Arrays.copyOf(names, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+      isCount = Arrays.copyOf(isCount, size * 2);
+    }
+    names[size] = name;
+    values[size] = value;
+    isCount[size] = count;
+    size++;
+  }
+
+  /**
+   * Stop tracing the request. Any time since the last stage ended is attributed to an "other"
+   * stage, so that the stages add up to the total
+   *
+   * @return the request's total time, in nanoseconds
+   */
+  long finish() {
+    CURRENT.remove();
+    long now = System.nanoTime();
+    if (now > last) {
+      add("other", now - last, false);
+      last = now;
+    }
+    return now - started;
+  }
+
+  /** @return the value of a stage (in nanoseconds) or count, or -1 if it wasn't recorded */
+  long get(String name) {
+    for (int i = 0; i < size; i++) {
+      if (names[i].equals(name)) {
+        return values[i];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return e.g. "GET /nClosestGenres took 812.31 ms: decode=0.05 tokenize=1.20 score=810.80
+   *     other=0.26 ms, textLength=5120 termCount=412 genresScored=48211"
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder(endpoint);
+    builder.append(String.format(Locale.ROOT, " took %.2f ms:", millis(last - started)));
+    for (int i = 0; i < size; i++) {
+      if (!isCount[i]) {
+        builder.append(' ').append(names[i]).append('=');
+        builder.append(String.format(Locale.ROOT, "%.2f", millis(values[i])));
+      }
+    }
+    builder.append(" ms");
+    String separator = ", ";
+    for (int i = 0; i < size; i++) {
+      if (isCount[i]) {
+        builder.append(separator).append(names[i]).append('=').append(values[i]);
+        separator = " ";
+      }
+    }
+    return builder.toString();
+  }
+
+  private static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
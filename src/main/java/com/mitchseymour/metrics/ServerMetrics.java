@@ -0,0 +1,124 @@
+package com.mitchseymour.metrics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of each of the server's endpoints, which are published as MBeans named
+ * com.mitchseymour:type=Endpoint,method=GET,path=/nClosestGenres. Requests to any other path are
+ * recorded under path=unknown, so that the number of MBeans is bounded.
+ */
+public class ServerMetrics {
+  public static final String DOMAIN = "com.mitchseymour";
+
+  /** Endpoint metrics by method, then path. Only read after construction */
+  private final Map<String, Map<String, EndpointMetrics>> endpoints = new HashMap<>();
+
+  private final EndpointMetrics unknown = new EndpointMetrics();
+
+  private final boolean measureAllocations;
+
+  /** Logs a breakdown of slow requests, or null if disabled */
+  private volatile SlowRequestLog slowRequestLog;
+
+  /**
+   * Constructor
+   *
+   * @param measureAllocations whether to measure the bytes allocated by each request
+   * @param endpoints the server's endpoints, e.g. "GET /nClosestGenres"
+   */
+  public ServerMetrics(boolean measureAllocations, List<String> endpoints) {
+    this.measureAllocations = measureAllocations;
+    for (String endpoint : endpoints) {
+      String[] methodPath = endpoint.split(" ", 2);
+      this.endpoints
+          .computeIfAbsent(methodPath[0], method -> new HashMap<>())
+          .put(methodPath[1], new EndpointMetrics());
+    }
+  }
+
+  /** @return the metrics of an endpoint, or the metrics of unknown endpoints */
+  public EndpointMetrics endpoint(String method, String path) {
+    Map<String, EndpointMetrics> paths = endpoints.get(method);
+    EndpointMetrics metrics = paths == null || path == null ? null : paths.get(path);
+    return metrics == null ? unknown : metrics;
+  }
+
+  /**
+   * @return the number of bytes that have been allocated by the current thread, or -1 if
+   *     allocations aren't measured
+   */
+  public long allocatedBytes() {
+    return measureAllocations ? EndpointMetrics.currentThreadAllocatedBytes() : -1;
+  }
+
+  /**
+   * Log requests that take at least a threshold, with a breakdown of the time spent in each stage
+   * (see {@link SlowRequestLog})
+   *
+   * @param thresholdNanos requests that take at least this long are logged
+   * @param sampleRate the fraction of requests to trace, between 0 and 1
+   */
+  public void enableSlowRequestLog(long thresholdNanos, double sampleRate) {
+    slowRequestLog = new SlowRequestLog(thresholdNanos, sampleRate);
+  }
+
+  /**
+   * Start tracing a request on the current thread, if the slow request log is enabled and the
+   * request is sampled
+   *
+   * @param started when the request was received, per {@link System#nanoTime()}
+   * @return the trace, which must be passed to {@link #finishTrace}, or null
+   */
+  public RequestTrace startTrace(String method, String path, long started) {
+    SlowRequestLog slowRequestLog = this.slowRequestLog;
+    return slowRequestLog == null ? null : slowRequestLog.start(method + " " + path, started);
+  }
+
+  /** Stop tracing a request, and log it if it was slow */
+  public void finishTrace(RequestTrace trace) {
+    if (trace != null) {
+      slowRequestLog.finish(trace);
+    }
+  }
+
+  /**
+   * Register an MBean for each endpoint
+   *
+   * @param server the server to register with, usually the platform MBean server
+   * @throws JMException if an MBean can't be registered
+   */
+  public void register(MBeanServer server) throws JMException {
+    for (Map.Entry<String, Map<String, EndpointMetrics>> method : endpoints.entrySet()) {
+      for (Map.Entry<String, EndpointMetrics> path : method.getValue().entrySet()) {
+        register(server, endpointName(method.getKey(), path.getKey()), path.getValue());
+      }
+    }
+    register(server, endpointName("ANY", "unknown"), unknown);
+  }
+
+  private static ObjectName endpointName(String method, String path) throws JMException {
+    return new ObjectName(DOMAIN + ":type=Endpoint,method=" + method + ",path=" + path);
+  }
+
+  /**
+   * Register an MBean, replacing any MBean that was already registered with the same name (e.g. by
+   * another server that was started in the same JVM)
+   *
+   * @param server the server to register with
+   * @param name the name of the MBean
+   * @param mbean the MBean, which implements an interface whose name ends with MXBean
+   * @throws JMException if the MBean can't be registered
+   */
+  public static void register(MBeanServer server, ObjectName name, Object mbean)
+      throws JMException {
+    if (server.isRegistered(name)) {
+      server.unregisterMBean(name);
+    }
+    server.registerMBean(mbean, name);
+  }
+}
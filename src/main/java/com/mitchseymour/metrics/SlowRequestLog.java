@@ -0,0 +1,61 @@
+package com.mitchseymour.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs requests that take longer than a threshold to the "slow-request-log" logger, with a
+ * breakdown of the time spent in each stage of the request and the size of its inputs (see {@link
+ * RequestTrace}). Only a sample of requests is traced, which bounds the overhead of tracing (a few
+ * nanoTime calls and a small allocation per traced request) when the server is busy.
+ */
+public class SlowRequestLog {
+  static final Logger log = LoggerFactory.getLogger("slow-request-log");
+
+  private final long thresholdNanos;
+  private final double sampleRate;
+
+  /**
+   * Constructor
+   *
+   * @param thresholdNanos requests that take at least this long are logged
+   * @param sampleRate the fraction of requests to trace, between 0 and 1
+   */
+  public SlowRequestLog(long thresholdNanos, double sampleRate) {
+    this.thresholdNanos = thresholdNanos;
+    this.sampleRate = sampleRate;
+    RequestTrace.enable();
+  }
+
+  /**
+   * Start tracing a request on the current thread, if it's sampled
+   *
+   * @param endpoint the request's endpoint, e.g. "GET /nClosestGenres"
+   * @param started when the request was received, per {@link System#nanoTime()}
+   * @return the trace, or null if the request isn't sampled
+   */
+  public RequestTrace start(String endpoint, long started) {
+    if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+      return null;
+    }
+    return RequestTrace.start(endpoint, started);
+  }
+
+  /**
+   * Stop tracing a request, and log it if it was slow
+   *
+   * @param trace the trace returned by {@link #start}, or null
+   * @return true if the request was logged
+   */
+  public boolean finish(RequestTrace trace) {
+    if (trace == null) {
+      return false;
+    }
+    if (trace.finish() < thresholdNanos) {
+      return false;
+    }
+    log.warn("{}", trace);
+    return true;
+  }
+}
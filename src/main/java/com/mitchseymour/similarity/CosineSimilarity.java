@@ -16,9 +16,8 @@
  */
 package com.mitchseymour.similarity;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermVector;
 
 /**
  * Adapted from org.apache.commons:commons-text:1.1. The main change I made was to make the
@@ -26,6 +25,11 @@ import java.util.Set;
  * computing a document centroid (average term frequencies across a document collection) which
  * cannot be represented using Integers. I also implemented an interface to allow us to swap
  * different similarity algorithms in the classifier code.
+ *
+ * <p>The calculation has since been reworked to operate on {@link SparseVector}s. The dot product
+ * is a linear merge over the two sorted vectors, and the norms are cached on the vectors
+ * themselves, so nothing is allocated or recomputed per comparison. Vectors that aren't sparse
+ * (e.g. a centroid derived from running term counts) are probed by term ID instead.
  */
 public class CosineSimilarity implements Similarity {
 
@@ -37,62 +41,48 @@ public class CosineSimilarity implements Similarity {
    * @return cosine similarity between the two vectors
    */
   @Override
-  public Double calculate(
-      final Map<CharSequence, Double> leftVector, final Map<CharSequence, Double> rightVector) {
+  public Double calculate(final TermVector leftVector, final TermVector rightVector) {
     if (leftVector == null || rightVector == null) {
       throw new IllegalArgumentException("Vectors must not be null");
     }
 
-    final Set<CharSequence> intersection = getIntersection(leftVector, rightVector);
-
-    final double dotProduct = dot(leftVector, rightVector, intersection);
-    double d1 = 0.0d;
-    for (final Double value : leftVector.values()) {
-      d1 += Math.pow(value, 2);
-    }
-    double d2 = 0.0d;
-    for (final Double value : rightVector.values()) {
-      d2 += Math.pow(value, 2);
-    }
-    double cosineSimilarity;
+    final double d1 = leftVector.norm();
+    final double d2 = rightVector.norm();
     if (d1 <= 0.0 || d2 <= 0.0) {
-      cosineSimilarity = 0.0;
-    } else {
-      cosineSimilarity = (double) (dotProduct / (double) (Math.sqrt(d1) * Math.sqrt(d2)));
+      return 0.0;
     }
-    return cosineSimilarity;
+    return dot(leftVector, rightVector) / (d1 * d2);
   }
 
   /**
-   * Returns a set with strings common to the two given maps.
-   *
-   * @param leftVector left vector map
-   * @param rightVector right vector map
-   * @return common strings
-   */
-  private Set<CharSequence> getIntersection(
-      final Map<CharSequence, Double> leftVector, final Map<CharSequence, Double> rightVector) {
-    final Set<CharSequence> intersection = new HashSet<>(leftVector.keySet());
-    intersection.retainAll(rightVector.keySet());
-    return intersection;
-  }
-
-  /**
-   * Computes the dot product of two vectors. It ignores remaining elements. It means that if a
-   * vector is longer than other, then a smaller part of it will be used to compute the dot product.
+   * Computes the dot product of two vectors. Two sparse vectors are merged in a single linear pass.
+   * Otherwise, the terms of the smaller vector (preferring a sparse one, which can be iterated
+   * without a callback) are looked up in the other vector.
    *
    * @param leftVector left vector
    * @param rightVector right vector
-   * @param intersection common elements
    * @return the dot product
    */
-  private double dot(
-      final Map<CharSequence, Double> leftVector,
-      final Map<CharSequence, Double> rightVector,
-      final Set<CharSequence> intersection) {
-    long dotProduct = 0;
-    for (final CharSequence key : intersection) {
-      dotProduct += leftVector.get(key) * rightVector.get(key);
+  private double dot(final TermVector leftVector, final TermVector rightVector) {
+    if (leftVector instanceof SparseVector && rightVector instanceof SparseVector) {
+      return ((SparseVector) leftVector).dot((SparseVector) rightVector);
+    } else if (rightVector instanceof SparseVector) {
+      return lookupDot((SparseVector) rightVector, leftVector);
+    } else if (leftVector instanceof SparseVector) {
+      return lookupDot((SparseVector) leftVector, rightVector);
+    }
+
+    final TermVector smaller = leftVector.size() <= rightVector.size() ? leftVector : rightVector;
+    final TermVector larger = smaller == leftVector ? rightVector : leftVector;
+    final double[] dotProduct = {0.0};
+    smaller.forEach((term, value) -> dotProduct[0] += value * larger.get(term));
+    return dotProduct[0];
+  }
+
+  private double lookupDot(final SparseVector sparse, final TermVector other) {
+    double dotProduct = 0.0;
+    for (int i = 0; i < sparse.size(); i++) {
+      dotProduct += sparse.valueAt(i) * other.get(sparse.termAt(i));
     }
     return dotProduct;
   }
@@ -1,9 +1,8 @@
 package com.mitchseymour.similarity;
 
-import java.util.Map;
+import com.mitchseymour.vector.TermVector;
 
 public interface Similarity {
 
-  public Double calculate(
-      final Map<CharSequence, Double> leftVector, final Map<CharSequence, Double> rightVector);
+  public Double calculate(final TermVector leftVector, final TermVector rightVector);
 }
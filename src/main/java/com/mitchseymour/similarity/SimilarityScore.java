@@ -9,8 +9,10 @@ public class SimilarityScore implements Comparable<SimilarityScore> {
     this.score = score;
   }
 
+  /** Orders by descending score. Ties are broken by genre name so that the ordering is stable */
   public int compareTo(SimilarityScore o) {
-    return Double.compare(o.getScore(), getScore());
+    int c = Double.compare(o.getScore(), getScore());
+    return c != 0 ? c : getGenre().compareTo(o.getGenre());
   }
 
   public Double getScore() {
@@ -0,0 +1,49 @@
+package com.mitchseymour.similarity;
+
+import com.mitchseymour.vector.TermVector;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Supplier;
+
+/**
+ * Cosine similarity of two vectors after weighting each term by its inverse document frequency
+ * (IDF), so that terms which occur in most documents count for less than rare ones. The weights are
+ * applied when the similarity is calculated, so the vectors themselves (e.g. a centroid derived
+ * from running term counts) don't need to be re-weighted when document frequencies change.
+ */
+public class TfIdfSimilarity implements Similarity {
+  private final Supplier<IntToDoubleFunction> idfWeights;
+
+  /**
+   * @param idfWeights supplies the current IDF weight of each term, by term ID. It's called once
+   *     per calculation, so every term in a calculation is weighted with the same weights
+   */
+  public TfIdfSimilarity(Supplier<IntToDoubleFunction> idfWeights) {
+    this.idfWeights = idfWeights;
+  }
+
+  @Override
+  public Double calculate(final TermVector leftVector, final TermVector rightVector) {
+    if (leftVector == null || rightVector == null) {
+      throw new IllegalArgumentException("Vectors must not be null");
+    }
+    IntToDoubleFunction weights = idfWeights.get();
+    // dot product and squared norm of the left vector, then the squared norm of the right vector
+    double[] sums = new double[3];
+    leftVector.forEach(
+        (term, value) -> {
+          double weight = weights.applyAsDouble(term);
+          double weighted = value * weight;
+          sums[0] += weighted * rightVector.get(term) * weight;
+          sums[1] += weighted * weighted;
+        });
+    rightVector.forEach(
+        (term, value) -> {
+          double weighted = value * weights.applyAsDouble(term);
+          sums[2] += weighted * weighted;
+        });
+    if (sums[1] <= 0.0 || sums[2] <= 0.0) {
+      return 0.0;
+    }
+    return sums[0] / (Math.sqrt(sums[1]) * Math.sqrt(sums[2]));
+  }
+}
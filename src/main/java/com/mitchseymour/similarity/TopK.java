@@ -0,0 +1,169 @@
+package com.mitchseymour.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects the k highest scoring genres from a stream of scores, using a bounded min-heap. Selecting
+ * from G scores costs O(G log k) and only allocates the heap itself, rather than sorting (and
+ * allocating an object for) every score. The heap grows as scores are selected, so its size is
+ * bounded by the number of scores offered rather than by k, which may come from a client.
+ *
+ * <p>Results are ordered by descending score, and genres with equal scores are ordered by name, so
+ * the selection is deterministic regardless of the order in which scores are offered. Scores below
+ * an optional minimum are discarded.
+ *
+ * <p>This class is not thread-safe. Use {@link #addAll(TopK)} to merge selections that were made in
+ * parallel.
+ */
+public class TopK {
+  private final int k;
+  private final double minScore;
+
+  /** The initial capacity of the heap, if k is larger */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** Heap of the best scores seen so far. The root (index 0) is the worst of them */
+  private String[] genres;
+
+  private double[] scores;
+  private int size = 0;
+
+  /** The number of scores that have been offered, including those that weren't selected */
+  private int offered = 0;
+
+  /** @param k the maximum number of genres to select */
+  public TopK(int k) {
+    this(k, Double.NEGATIVE_INFINITY);
+  }
+
+  /**
+   * @param k the maximum number of genres to select
+   * @param minScore scores below this value are discarded
+   */
+  public TopK(int k, double minScore) {
+    this.k = Math.max(0, k);
+    this.minScore = minScore;
+    this.genres = new String[Math.min(this.k, INITIAL_CAPACITY)];
+    this.scores = new double[genres.length];
+  }
+
+  /**
+   * Offer a score to the selection.
+   *
+   * @param genre the genre that was scored
+   * @param score the genre's score
+   */
+  public void offer(String genre, double score) {
+    offered++;
+    if (k == 0 || Double.isNaN(score) || score < minScore) {
+      return;
+    }
+    if (size < k) {
+      if (size == genres.length) {
+        int capacity = (int) Math.min(k, 2L * size);
+        genres = Arrays.copyOf(genres, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+      }
+      genres[size] = genre;
+      scores[size] = score;
+      siftUp(size++);
+    } else if (isWorse(genres[0], scores[0], genre, score)) {
+      genres[0] = genre;
+      scores[0] = score;
+      siftDown(0);
+    }
+  }
+
+  /** Offer a score to the selection */
+  public void offer(SimilarityScore score) {
+    offer(score.getGenre(), score.getScore());
+  }
+
+  /** Merge another selection into this one */
+  public void addAll(TopK other) {
+    int offeredBefore = offered;
+    for (int i = 0; i < other.size; i++) {
+      offer(other.genres[i], other.scores[i]);
+    }
+    // the other selection's scores were counted when they were offered to it
+    offered = offeredBefore + other.offered;
+  }
+
+  /** @return the number of scores that have been offered, i.e. the number of genres scored */
+  public int offered() {
+    return offered;
+  }
+
+  /** @return the number of genres currently selected */
+  public int size() {
+    return size;
+  }
+
+  /** @return the selected scores, from most similar to least similar */
+  public List<SimilarityScore> toSortedList() {
+    List<SimilarityScore> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      result.add(new SimilarityScore(genres[i], scores[i]));
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  /** @return the selected genres, from most similar to least similar */
+  public List<String> genres() {
+    List<SimilarityScore> sorted = toSortedList();
+    List<String> result = new ArrayList<>(sorted.size());
+    for (SimilarityScore score : sorted) {
+      result.add(score.getGenre());
+    }
+    return result;
+  }
+
+  /** Whether score a ranks below score b, i.e. a lower score or the same score and a later name */
+  private static boolean isWorse(String genreA, double scoreA, String genreB, double scoreB) {
+    int c = Double.compare(scoreA, scoreB);
+    return c < 0 || (c == 0 && genreA.compareTo(genreB) > 0);
+  }
+
+  private void siftUp(int index) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (!isWorse(genres[index], scores[index], genres[parent], scores[parent])) {
+        break;
+      }
+      swap(index, parent);
+      index = parent;
+    }
+  }
+
+  private void siftDown(int index) {
+    while (true) {
+      int left = 2 * index + 1;
+      if (left >= size) {
+        break;
+      }
+      int worst = left;
+      int right = left + 1;
+      if (right < size && isWorse(genres[right], scores[right], genres[left], scores[left])) {
+        worst = right;
+      }
+      if (!isWorse(genres[worst], scores[worst], genres[index], scores[index])) {
+        break;
+      }
+      swap(index, worst);
+      index = worst;
+    }
+  }
+
+  private void swap(int i, int j) {
+    String genre = genres[i];
+    genres[i] = genres[j];
+    genres[j] = genre;
+    double score = scores[i];
+    scores[i] = scores[j];
+    scores[j] = score;
+  }
+}
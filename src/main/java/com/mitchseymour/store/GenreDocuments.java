@@ -0,0 +1,71 @@
+package com.mitchseymour.store;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The documents in a genre, sorted by doc ID. This is safe to read while it is being modified, and
+ * keeps track of the number of documents so that counting them doesn't require iterating over the
+ * whole genre.
+ *
+ * @param <V> the value kept for each document
+ */
+class GenreDocuments<V> {
+  private final ConcurrentSkipListMap<String, V> documents = new ConcurrentSkipListMap<>();
+
+  private final AtomicInteger count = new AtomicInteger();
+
+  V get(String docId) {
+    return documents.get(docId);
+  }
+
+  /** @return the previous value for the document, or null if the document is new to the genre */
+  V put(String docId, V value) {
+    V previous = documents.put(docId, value);
+    if (previous == null) {
+      count.incrementAndGet();
+    }
+    return previous;
+  }
+
+  /** @return the removed value, or null if the document wasn't in the genre */
+  V remove(String docId) {
+    V previous = documents.remove(docId);
+    if (previous != null) {
+      count.decrementAndGet();
+    }
+    return previous;
+  }
+
+  int count() {
+    return count.get();
+  }
+
+  /** @return every doc ID in the genre, in sorted order */
+  List<String> docIds() {
+    return new ArrayList<>(documents.keySet());
+  }
+
+  /**
+   * Get a page of doc IDs, in sorted order. Only the returned IDs are visited, so the cost of a
+   * page doesn't depend on the size of the genre.
+   *
+   * @param after only return IDs that sort after this ID, or null to start from the first ID
+   * @param limit the maximum number of IDs to return
+   * @return the doc IDs
+   */
+  List<String> docIds(String after, int limit) {
+    NavigableSet<String> docIds =
+        after == null ? documents.keySet() : documents.keySet().tailSet(after, false);
+    List<String> page = new ArrayList<>(Math.min(limit, 1024));
+    Iterator<String> iterator = docIds.iterator();
+    while (page.size() < limit && iterator.hasNext()) {
+      page.add(iterator.next());
+    }
+    return page;
+  }
+}
@@ -2,23 +2,49 @@ package com.mitchseymour.store;
 
 import com.mitchseymour.Document;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A simple in-memory store for storing documents and their related genres. We could replace this
  * with a persistence store if our requirements change.
+ *
+ * <p>Document text can either be kept on the heap (the default), or off-heap for large corpora so
+ * that heap use is proportional to the number of documents rather than their size.
  */
 public class InMemoryStore implements Store {
 
+  /** Where document text is kept */
+  public enum TextStorage {
+    /** Documents are kept on the heap as-is */
+    HEAP,
+
+    /** Document text and term vectors are kept UTF-8 encoded in direct buffers */
+    OFF_HEAP
+  }
+
   /** A mapping of docIds -> documents */
-  private Map<String, Document> documents = new ConcurrentHashMap<>();
+  private final Documents documents;
 
   /** A mapping of genre -> docIds */
-  private Map<String, TreeSet<String>> genres = new ConcurrentHashMap<>();
+  private final Map<String, GenreDocuments<Boolean>> genres = new ConcurrentHashMap<>();
+
+  /** Constructor. Documents are kept on the heap */
+  public InMemoryStore() {
+    this(TextStorage.HEAP);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param textStorage where to keep document text
+   */
+  public InMemoryStore(TextStorage textStorage) {
+    this.documents = textStorage == TextStorage.HEAP ? new HeapDocuments() : new OffHeapDocuments();
+  }
 
   /**
    * Get the document IDs associated with a given genre
@@ -28,11 +54,40 @@ public class InMemoryStore implements Store {
    */
   @Override
   public List<String> get(String genre) {
-    TreeSet<String> docIds = genres.get(genre);
+    GenreDocuments<Boolean> docIds = genres.get(genre);
+    if (docIds == null) {
+      return Collections.emptyList();
+    }
+    return docIds.docIds();
+  }
+
+  @Override
+  public List<String> get(String genre, String after, int limit) {
+    GenreDocuments<Boolean> docIds = genres.get(genre);
     if (docIds == null) {
       return Collections.emptyList();
     }
-    return new ArrayList<String>(docIds);
+    return docIds.docIds(after, limit);
+  }
+
+  @Override
+  public int count(String genre) {
+    GenreDocuments<Boolean> docIds = genres.get(genre);
+    return docIds == null ? 0 : docIds.count();
+  }
+
+  @Override
+  public Collection<String> getGenres() {
+    return new ArrayList<>(genres.keySet());
+  }
+
+  @Override
+  public Document getDocument(String genre, String docId) {
+    GenreDocuments<Boolean> docIds = genres.get(genre);
+    if (docIds == null || docIds.get(docId) == null) {
+      return null;
+    }
+    return documents.get(docId);
   }
 
   /**
@@ -40,38 +95,72 @@ public class InMemoryStore implements Store {
    *
    * @param genre
    * @param doc
+   * @return the document that was previously saved under the same genre and ID, or null
    */
   @Override
-  public void put(String genre, Document doc) {
-    String docId = doc.getId();
-    genres.merge(
-        genre,
-        // initialize the collection if we haven't see the genre before
-        new TreeSet<>(Collections.singletonList(docId)),
-        (current, incoming) -> {
-          current.add(docId);
-          documents.put(docId, doc);
-          return current;
-        });
+  public Document put(String genre, Document doc) {
+    // the document itself is saved, along with its memoized term vector, so that removing it
+    // later doesn't require re-tokenizing the text
+    Document previous = documents.put(doc);
+    // initialize the collection if we haven't see the genre before
+    GenreDocuments<Boolean> docIds = genres.computeIfAbsent(genre, key -> new GenreDocuments<>());
+    boolean replaced = docIds.put(doc.getId(), Boolean.TRUE) != null;
+    return replaced ? previous : null;
+  }
+
+  /** Associate a batch of documents with a genre */
+  @Override
+  public List<Document> putAll(String genre, List<Document> docs) {
+    GenreDocuments<Boolean> docIds = genres.computeIfAbsent(genre, key -> new GenreDocuments<>());
+    List<Document> replaced = new ArrayList<>();
+    for (Document doc : docs) {
+      Document previous = documents.put(doc);
+      if (docIds.put(doc.getId(), Boolean.TRUE) != null && previous != null) {
+        replaced.add(previous);
+      }
+    }
+    return replaced;
   }
 
   /** Disassociate a doc ID from a given genre */
   @Override
   public Document remove(String genre, String docId) {
-    Document doc = documents.get(docId);
-    genres.merge(
-        genre,
-        // default collection to operate on if we haven't see the genre before
-        new TreeSet<>(),
-        (current, incoming) -> {
-          // remove the doc ID from the genre -> docIDs mapping
-          current.remove(docId);
-
-          // remove the actual document
-          documents.remove(docId);
-          return current;
-        });
-    return doc;
+    // remove the doc ID from the genre -> docIDs mapping
+    GenreDocuments<Boolean> docIds = genres.get(genre);
+    boolean removed = docIds != null && docIds.remove(docId) != null;
+
+    // remove the actual document
+    return removed ? documents.remove(docId) : null;
+  }
+
+  /** A mapping of docIds -> documents */
+  interface Documents {
+    Document get(String docId);
+
+    /** @return the document that was previously saved with the same ID, or null */
+    Document put(Document doc);
+
+    Document remove(String docId);
+  }
+
+  /** Keeps documents on the heap */
+  private static class HeapDocuments implements Documents {
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+
+    @Override
+    public Document get(String docId) {
+      return documents.get(docId);
+    }
+
+    @Override
+    public Document put(Document doc) {
+      return documents.put(doc.getId(), doc);
+    }
+
+    @Override
+    public Document remove(String docId) {
+      return documents.remove(docId);
+    }
   }
 
   @Override
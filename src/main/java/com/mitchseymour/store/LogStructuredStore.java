@@ -0,0 +1,736 @@
+package com.mitchseymour.store;
+
+import com.mitchseymour.Document;
+import com.mitchseymour.vector.FeatureHasher;
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermDictionary;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import org.slf4j.*;
+
+/**
+ * A durable store that appends every put and remove to a log of segment files in a directory.
+ *
+ * <p>Writes are appended to the active segment, which is memory-mapped, so a write is a copy into
+ * the page cache rather than a system call. When the active segment is full it is sealed and a new
+ * segment is started. Reads go through the same mappings, using an in-memory index of genre ->
+ * doc ID -> record location, so reading a document never requires a file lookup or a copy of
+ * anything other than the document's own text.
+ *
+ * <p>Each record has a sequence number. When the store is opened, the segments are scanned and the
+ * record with the highest sequence number wins for each (genre, doc ID), which rebuilds the index
+ * regardless of the order the records appear in. A record that fails its checksum (e.g. a write
+ * that was torn by a crash) ends the scan of its segment.
+ *
+ * <p>Records that have been overwritten or removed are dead. Sealed segments whose dead records
+ * take up more than half of the segment are compacted in the background: their live records are
+ * copied to the active segment and the segment file is deleted.
+ *
+ * <p>Record format (big endian):
+ *
+ * <pre>
+ *   int length, int crc32, byte type, long sequence, string genre, string docId,
+ *   [string text, [int buckets, int terms, (string term | int bucket, double value)...]]
+ * </pre>
+ *
+ * where each string is an int byte length followed by UTF-8 bytes, the length and checksum cover
+ * everything after the checksum, and the text and term vector are only present on puts. Term IDs
+ * are only stable for the lifetime of the process, so the term vector is stored by term (buckets
+ * is 0), or by bucket if terms are hashed (see {@link FeatureHasher#global()}). This lets
+ * documents be read back without tokenizing them again, unless the way terms are mapped to IDs
+ * has changed since they were written.
+ */
+public class LogStructuredStore implements Store {
+  static final Logger log = LoggerFactory.getLogger(LogStructuredStore.class);
+
+  /** The default maximum size of a segment file */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+  /** Controls when writes are flushed from the page cache to disk */
+  public enum FsyncPolicy {
+    /** Flush after every write. A write is durable as soon as it returns, but is much slower */
+    ALWAYS,
+
+    /**
+     * Flush in the background at a fixed interval. Writes since the last flush may be lost if the
+     * host crashes, but not if only the process does
+     */
+    INTERVAL,
+
+    /** Never flush explicitly, and leave it to the OS to write dirty pages back */
+    NEVER
+  }
+
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+
+  /** The size of the length and checksum that precede each record */
+  private static final int HEADER_SIZE = 8;
+
+  /** Sealed segments are compacted once this fraction of their bytes are dead */
+  private static final double COMPACTION_THRESHOLD = 0.5;
+
+  private static final long COMPACTION_INTERVAL_SECONDS = 30;
+
+  private final Path directory;
+
+  private final FsyncPolicy fsyncPolicy;
+
+  private final int segmentSize;
+
+  /** Segments by ID. The segment with the highest ID is the active segment */
+  private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+  /** A mapping of genre -> doc ID -> record location. See {@link #location(int, int)} */
+  private final Map<String, GenreDocuments<Long>> genres = new ConcurrentHashMap<>();
+
+  /** The segment that is being appended to. Only changed while holding the lock */
+  private volatile Segment active;
+
+  /** The sequence number of the last record that was written. Guarded by this */
+  private long sequence = 0;
+
+  private volatile boolean closed = false;
+
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Open a store with the default segment size, flushing writes to disk once a second
+   *
+   * @param directory the directory to keep the segment files in. Created if it doesn't exist
+   */
+  public LogStructuredStore(Path directory) {
+    this(directory, FsyncPolicy.INTERVAL, 1000, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param directory the directory to keep the segment files in. Created if it doesn't exist
+   * @param fsyncPolicy when to flush writes to disk
+   * @param fsyncIntervalMillis how often to flush writes when using {@link FsyncPolicy#INTERVAL}
+   * @param segmentSize the maximum size of a segment file, in bytes
+   */
+  public LogStructuredStore(
+      Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, int segmentSize) {
+    this.directory = directory;
+    this.fsyncPolicy = fsyncPolicy;
+    this.segmentSize = segmentSize;
+    try {
+      Files.createDirectories(directory);
+      recover();
+    } catch (IOException e) {
+      throw new StoreException("Could not open store: " + directory, e);
+    }
+
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "log-structured-store");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(
+        this::compactQuietly,
+        COMPACTION_INTERVAL_SECONDS,
+        COMPACTION_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+    if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+      scheduler.scheduleWithFixedDelay(
+          this::flushQuietly, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public List<String> get(String genre) {
+    GenreDocuments<Long> docIds = genres.get(genre);
+    if (docIds == null) {
+      return Collections.emptyList();
+    }
+    return docIds.docIds();
+  }
+
+  @Override
+  public List<String> get(String genre, String after, int limit) {
+    GenreDocuments<Long> docIds = genres.get(genre);
+    if (docIds == null) {
+      return Collections.emptyList();
+    }
+    return docIds.docIds(after, limit);
+  }
+
+  @Override
+  public int count(String genre) {
+    GenreDocuments<Long> docIds = genres.get(genre);
+    return docIds == null ? 0 : docIds.count();
+  }
+
+  @Override
+  public Collection<String> getGenres() {
+    return new ArrayList<>(genres.keySet());
+  }
+
+  @Override
+  public Document getDocument(String genre, String docId) {
+    checkOpen();
+    GenreDocuments<Long> docIds = genres.get(genre);
+    if (docIds == null) {
+      return null;
+    }
+    Long previous = null;
+    while (true) {
+      // the store may be closed while retrying, which releases every segment
+      checkOpen();
+      Long location = docIds.get(docId);
+      if (location == null || location.equals(previous)) {
+        return null;
+      }
+      Document doc = readDocument(docId, location);
+      if (doc != null) {
+        return doc;
+      }
+      // the segment was compacted after the location was read, so the record has moved
+      previous = location;
+    }
+  }
+
+  @Override
+  public Document put(String genre, Document doc) {
+    List<Document> replaced = putAll(genre, Collections.singletonList(doc));
+    return replaced.isEmpty() ? null : replaced.get(0);
+  }
+
+  /** Append a batch of documents to the log, flushing at most once for the whole batch */
+  @Override
+  public List<Document> putAll(String genre, List<Document> docs) {
+    byte[] genreBytes = genre.getBytes(StandardCharsets.UTF_8);
+    List<byte[]> docIds = new ArrayList<>(docs.size());
+    List<byte[]> texts = new ArrayList<>(docs.size());
+    List<byte[]> vectors = new ArrayList<>(docs.size());
+    for (Document doc : docs) {
+      docIds.add(doc.getId().getBytes(StandardCharsets.UTF_8));
+      texts.add(doc.getText().getBytes(StandardCharsets.UTF_8));
+      vectors.add(encodeVector(doc.getTermVector()));
+    }
+
+    List<Document> replaced = new ArrayList<>();
+    synchronized (this) {
+      checkOpen();
+      GenreDocuments<Long> locations = genres.computeIfAbsent(genre, key -> new GenreDocuments<>());
+      for (int i = 0; i < docs.size(); i++) {
+        String docId = docs.get(i).getId();
+        Long previous = locations.get(docId);
+        if (previous != null) {
+          replaced.add(readDocument(docId, previous));
+        }
+        long location =
+            append(PUT, ++sequence, genreBytes, docIds.get(i), texts.get(i), vectors.get(i));
+        locations.put(docId, location);
+        if (previous != null) {
+          markDead(previous);
+        }
+      }
+      flushIfRequired();
+    }
+    return replaced;
+  }
+
+  @Override
+  public Document remove(String genre, String docId) {
+    synchronized (this) {
+      checkOpen();
+      GenreDocuments<Long> locations = genres.get(genre);
+      Long previous = locations == null ? null : locations.get(docId);
+      if (previous == null) {
+        return null;
+      }
+      Document doc = readDocument(docId, previous);
+      long location =
+          append(
+              REMOVE,
+              ++sequence,
+              genre.getBytes(StandardCharsets.UTF_8),
+              docId.getBytes(StandardCharsets.UTF_8),
+              null,
+              null);
+      locations.remove(docId);
+      markDead(previous);
+      // the tombstone is only needed until the records it shadows are compacted away
+      markDead(location);
+      flushIfRequired();
+      return doc;
+    }
+  }
+
+  @Override
+  public synchronized long sequence() {
+    return sequence;
+  }
+
+  /** Flush any pending writes and release the segment files */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      if (fsyncPolicy != FsyncPolicy.NEVER) {
+        active.buffer.force();
+      }
+      segments.clear();
+      genres.clear();
+    }
+  }
+
+  /**
+   * Compact every sealed segment whose dead records exceed the compaction threshold. This is
+   * invoked periodically in the background, but may also be called directly.
+   */
+  void compact() throws IOException {
+    for (Segment segment : new ArrayList<>(segments.values())) {
+      if (closed) {
+        return;
+      }
+      if (segment != active && segment.deadBytes.get() >= COMPACTION_THRESHOLD * segment.size) {
+        compact(segment);
+      }
+    }
+  }
+
+  private void compact(Segment segment) throws IOException {
+    // tombstones only shadow records in the same or older segments, so they can be dropped once
+    // there aren't any older segments left
+    boolean oldest = segments.firstKey() == segment.id;
+    ByteBuffer buffer = segment.buffer.duplicate();
+    int position = 0;
+    int moved = 0;
+    while (position < segment.size) {
+      int length = buffer.getInt(position);
+      Record record = Record.read(buffer, position);
+      long location = location(segment.id, position);
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        if (record.type == PUT) {
+          // only copy the record if it hasn't been overwritten or removed
+          GenreDocuments<Long> locations = genres.get(record.genre);
+          if (locations != null && Long.valueOf(location).equals(locations.get(record.docId))) {
+            locations.put(record.docId, copy(buffer, position, length));
+            moved++;
+          }
+        } else if (!oldest) {
+          markDead(copy(buffer, position, length));
+          moved++;
+        }
+      }
+      position += HEADER_SIZE + length;
+    }
+
+    synchronized (this) {
+      // the copies must be durable before the originals are deleted
+      active.buffer.force();
+      segments.remove(segment.id);
+    }
+    Files.deleteIfExists(segment.path);
+    log.info("Compacted segment {}, {} live records were kept", segment.path, moved);
+  }
+
+  private void compactQuietly() {
+    try {
+      compact();
+    } catch (Exception e) {
+      log.error("Could not compact store: {}", directory, e);
+    }
+  }
+
+  private synchronized void flushQuietly() {
+    if (!closed) {
+      active.buffer.force();
+    }
+  }
+
+  private void flushIfRequired() {
+    if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+      active.buffer.force();
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new StoreException("Store is closed: " + directory);
+    }
+  }
+
+  /** Append a new record to the active segment. Must hold the lock */
+  private long append(byte type, long seq, byte[] genre, byte[] docId, byte[] text, byte[] vector) {
+    int length = 1 + 8 + 4 + genre.length + 4 + docId.length;
+    if (text != null) {
+      length += 4 + text.length + vector.length;
+    }
+    ByteBuffer out = reserve(HEADER_SIZE + length);
+    int start = out.position();
+    out.putInt(length).putInt(0).put(type).putLong(seq);
+    out.putInt(genre.length).put(genre);
+    out.putInt(docId.length).put(docId);
+    if (text != null) {
+      out.putInt(text.length).put(text).put(vector);
+    }
+    out.putInt(start + 4, checksum(out, start + HEADER_SIZE, length));
+    return commit(out);
+  }
+
+  /** Append a copy of an existing record to the active segment. Must hold the lock */
+  private long copy(ByteBuffer source, int position, int length) {
+    ByteBuffer record = source.duplicate();
+    record.limit(position + HEADER_SIZE + length).position(position);
+    ByteBuffer out = reserve(HEADER_SIZE + length);
+    out.put(record);
+    return commit(out);
+  }
+
+  /**
+   * Get a buffer positioned at the end of the active segment with room for a record, starting a
+   * new segment if necessary. Must hold the lock
+   */
+  private ByteBuffer reserve(int recordSize) {
+    if (active.writer.remaining() < recordSize) {
+      active.buffer.force();
+      try {
+        active = Segment.open(segmentPath(active.id + 1), Math.max(segmentSize, recordSize));
+      } catch (IOException e) {
+        throw new StoreException("Could not create segment in " + directory, e);
+      }
+      segments.put(active.id, active);
+    }
+    return active.writer;
+  }
+
+  /** Publish the record that was just written to the active segment. Must hold the lock */
+  private long commit(ByteBuffer out) {
+    long location = location(active.id, active.size);
+    active.size = out.position();
+    return location;
+  }
+
+  private void markDead(long location) {
+    Segment segment = segments.get(segmentId(location));
+    if (segment != null) {
+      segment.deadBytes.addAndGet(HEADER_SIZE + segment.buffer.getInt(offset(location)));
+    }
+  }
+
+  /** @return the document at a location, or null if the segment no longer exists */
+  private Document readDocument(String docId, long location) {
+    Segment segment = segments.get(segmentId(location));
+    if (segment == null) {
+      return null;
+    }
+    ByteBuffer buffer = segment.buffer.duplicate();
+    int end = offset(location) + HEADER_SIZE + buffer.getInt(offset(location));
+    buffer.position(offset(location) + HEADER_SIZE + 1 + 8);
+    // skip the genre and doc ID
+    skipString(buffer);
+    skipString(buffer);
+    String text = readString(buffer);
+    // records written before term vectors were stored end with the text
+    SparseVector vector = buffer.position() < end ? readVector(buffer) : null;
+    return vector == null ? new Document(docId, text) : new Document(docId, text, vector);
+  }
+
+  /** Encode a term vector by term, or by bucket if terms are hashed. See the record format */
+  private static byte[] encodeVector(SparseVector vector) {
+    FeatureHasher hasher = FeatureHasher.global();
+    if (hasher != null) {
+      ByteBuffer out = ByteBuffer.allocate(8 + vector.size() * (4 + 8));
+      out.putInt(hasher.buckets()).putInt(vector.size());
+      for (int i = 0; i < vector.size(); i++) {
+        out.putInt(vector.termAt(i)).putDouble(vector.valueAt(i));
+      }
+      return out.array();
+    }
+
+    TermDictionary dictionary = TermDictionary.global();
+    byte[][] terms = new byte[vector.size()][];
+    int length = 8;
+    for (int i = 0; i < terms.length; i++) {
+      terms[i] = dictionary.term(vector.termAt(i)).getBytes(StandardCharsets.UTF_8);
+      length += 4 + terms[i].length + 8;
+    }
+    ByteBuffer out = ByteBuffer.allocate(length);
+    out.putInt(0).putInt(terms.length);
+    for (int i = 0; i < terms.length; i++) {
+      out.putInt(terms[i].length).put(terms[i]).putDouble(vector.valueAt(i));
+    }
+    return out.array();
+  }
+
+  /**
+   * Decode a term vector written by {@link #encodeVector(SparseVector)}
+   *
+   * @return the vector, or null if terms were mapped to IDs differently when it was written (e.g.
+   *     the number of hash buckets has changed), in which case the text must be tokenized again
+   */
+  private static SparseVector readVector(ByteBuffer buffer) {
+    int buckets = buffer.getInt();
+    int size = buffer.getInt();
+    FeatureHasher hasher = FeatureHasher.global();
+    if (buckets != (hasher == null ? 0 : hasher.buckets())) {
+      return null;
+    }
+
+    int[] terms = new int[size];
+    double[] values = new double[size];
+    if (buckets > 0) {
+      for (int i = 0; i < size; i++) {
+        terms[i] = buffer.getInt();
+        values[i] = buffer.getDouble();
+      }
+      return SparseVector.of(terms, values);
+    }
+
+    // term IDs may be assigned in a different order than when the vector was written, so sort
+    // the (ID, index) pairs to restore the vector's order
+    TermDictionary dictionary = TermDictionary.global();
+    long[] order = new long[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = ((long) dictionary.idOf(readString(buffer)) << 32) | i;
+      values[i] = buffer.getDouble();
+    }
+    Arrays.sort(order);
+    double[] sorted = new double[size];
+    for (int i = 0; i < size; i++) {
+      terms[i] = (int) (order[i] >>> 32);
+      sorted[i] = values[(int) order[i]];
+    }
+    return SparseVector.of(terms, sorted);
+  }
+
+  /** Rebuild the index from the segment files */
+  private void recover() throws IOException {
+    TreeMap<Integer, Path> paths = new TreeMap<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.log")) {
+      for (Path path : files) {
+        String name = path.getFileName().toString();
+        paths.put(Integer.parseInt(name.substring(8, name.length() - 4)), path);
+      }
+    }
+
+    // genre -> doc ID -> the latest record for that document
+    Map<String, Map<String, Record>> latest = new HashMap<>();
+    for (Map.Entry<Integer, Path> entry : paths.entrySet()) {
+      boolean last = entry.getKey().equals(paths.lastKey());
+      Segment segment =
+          last
+              ? Segment.open(entry.getValue(), segmentSize)
+              : Segment.openReadOnly(entry.getValue());
+      segments.put(segment.id, segment);
+
+      ByteBuffer buffer = segment.buffer.duplicate();
+      int position = 0;
+      while (position + HEADER_SIZE <= buffer.capacity()) {
+        int length = buffer.getInt(position);
+        if (length <= 0
+            || length > buffer.capacity() - position - HEADER_SIZE
+            || buffer.getInt(position + 4) != checksum(buffer, position + HEADER_SIZE, length)) {
+          break;
+        }
+        Record record = Record.read(buffer, position);
+        record.location = location(segment.id, position);
+        record.size = HEADER_SIZE + length;
+        sequence = Math.max(sequence, record.sequence);
+
+        Record previous =
+            latest.computeIfAbsent(record.genre, key -> new HashMap<>()).get(record.docId);
+        if (previous == null || previous.sequence < record.sequence) {
+          latest.get(record.genre).put(record.docId, record);
+          if (previous != null) {
+            segments.get(segmentId(previous.location)).deadBytes.addAndGet(previous.size);
+          }
+        } else {
+          segment.deadBytes.addAndGet(record.size);
+        }
+        position += record.size;
+      }
+      segment.size = position;
+
+      if (last) {
+        // clear everything after the last valid record (e.g. a torn write, and whatever was
+        // written after it), so that the records appended after restarting can't be followed by
+        // stale bytes that look valid
+        zeroFrom(buffer, position);
+        segment.writer.position(position);
+      } else if (position + HEADER_SIZE <= buffer.capacity() && buffer.getInt(position) != 0) {
+        log.warn("Ignoring corrupt records at offset {} of {}", position, segment.path);
+      }
+    }
+
+    for (Map.Entry<String, Map<String, Record>> genre : latest.entrySet()) {
+      GenreDocuments<Long> locations = new GenreDocuments<>();
+      for (Record record : genre.getValue().values()) {
+        if (record.type == PUT) {
+          locations.put(record.docId, record.location);
+        } else {
+          segments.get(segmentId(record.location)).deadBytes.addAndGet(record.size);
+        }
+      }
+      genres.put(genre.getKey(), locations);
+    }
+
+    if (segments.isEmpty()) {
+      segments.put(0, Segment.open(segmentPath(0), segmentSize));
+    }
+    active = segments.lastEntry().getValue();
+    log.info("Opened store {} with {} segments", directory, segments.size());
+  }
+
+  /** Zero a buffer from the given position to its capacity, only writing the non-zero bytes */
+  private static void zeroFrom(ByteBuffer buffer, int position) {
+    int end = buffer.capacity();
+    int i = position;
+    for (; i < end && (i & 7) != 0; i++) {
+      buffer.put(i, (byte) 0);
+    }
+    for (; i + 8 <= end; i += 8) {
+      // most of a preallocated segment is already zero, so skip writing (and dirtying) its pages
+      if (buffer.getLong(i) != 0L) {
+        buffer.putLong(i, 0L);
+      }
+    }
+    for (; i < end; i++) {
+      buffer.put(i, (byte) 0);
+    }
+  }
+
+  private Path segmentPath(int id) {
+    return directory.resolve(String.format("segment-%010d.log", id));
+  }
+
+  private static int checksum(ByteBuffer buffer, int position, int length) {
+    ByteBuffer payload = buffer.duplicate();
+    payload.limit(position + length).position(position);
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    return (int) crc.getValue();
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void skipString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    buffer.position(buffer.position() + length);
+  }
+
+  /** Records are located by their segment ID (upper 32 bits) and offset (lower 32 bits) */
+  private static long location(int segmentId, int offset) {
+    return ((long) segmentId << 32) | offset;
+  }
+
+  private static int segmentId(long location) {
+    return (int) (location >>> 32);
+  }
+
+  private static int offset(long location) {
+    return (int) location;
+  }
+
+  /** A segment file, which is mapped into memory for its whole lifetime */
+  private static class Segment {
+    private final int id;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+
+    /** Used for appending. Only used by the active segment, while holding the lock */
+    private final ByteBuffer writer;
+
+    /** The number of bytes that have been written to the segment */
+    private volatile int size = 0;
+
+    /** The number of bytes taken up by dead records */
+    private final AtomicLong deadBytes = new AtomicLong();
+
+    private Segment(Path path, MappedByteBuffer buffer) {
+      String name = path.getFileName().toString();
+      this.id = Integer.parseInt(name.substring(8, name.length() - 4));
+      this.path = path;
+      this.buffer = buffer;
+      this.writer = buffer.duplicate();
+    }
+
+    /**
+     * Open (or create) a segment that can be appended to, growing the file to the provided capacity
+     */
+    static Segment open(Path path, int capacity) throws IOException {
+      try (FileChannel channel =
+          FileChannel.open(
+              path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        int size = (int) Math.max(capacity, channel.size());
+        return new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+      }
+    }
+
+    /** Open a sealed segment */
+    static Segment openReadOnly(Path path) throws IOException {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        return new Segment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+    }
+  }
+
+  /** A decoded record */
+  private static class Record {
+    private byte type;
+    private long sequence;
+    private String genre;
+    private String docId;
+    private long location;
+    private int size;
+
+    /** Decode the record at a position, skipping the text and term vector */
+    static Record read(ByteBuffer source, int position) {
+      ByteBuffer buffer = source.duplicate();
+      buffer.position(position + HEADER_SIZE);
+      Record record = new Record();
+      record.type = buffer.get();
+      record.sequence = buffer.getLong();
+      record.genre = readString(buffer);
+      record.docId = readString(buffer);
+      return record;
+    }
+  }
+}
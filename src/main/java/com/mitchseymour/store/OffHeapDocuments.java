@@ -0,0 +1,434 @@
+package com.mitchseymour.store;
+
+import com.mitchseymour.Document;
+import com.mitchseymour.vector.SparseVector;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Document storage for {@link InMemoryStore} that keeps each document's text (UTF-8 encoded) and
+ * term vector in direct byte buffer arenas instead of on the heap. Documents are located with an
+ * open addressing index of primitive longs rather than a map, so the heap used per document is a
+ * single index slot (8 to 16 bytes) regardless of the length of the document or its ID, and the
+ * garbage collector has nothing per document to trace.
+ *
+ * <p>Records are appended to the current arena, and a new arena is allocated when it is full. An
+ * arena is released as soon as every record in it has been removed or replaced, and an arena whose
+ * records are mostly dead is compacted by copying its live records to the current arena. Arenas are
+ * never reused, so documents that have already been read stay valid after their record is removed.
+ *
+ * <p>Record format:
+ *
+ * <pre>
+ *   int id length, id bytes, int text length, text bytes, int terms, [int term, double value]...
+ * </pre>
+ *
+ * Documents are decoded lazily, so reading a document that is only used for its term vector (e.g.
+ * when it's removed from a classifier) never decodes the text.
+ *
+ * <p>The index is a linear probing hash table of locations, keyed by the UTF-8 bytes of each doc
+ * ID. IDs aren't kept on the heap: a probe confirms a hit by comparing the ID with the ID bytes
+ * that are already stored at the start of the record. Slots are only written while holding the
+ * lock, and the table is replaced rather than resized in place, so reads don't take the lock.
+ */
+class OffHeapDocuments implements InMemoryStore.Documents {
+
+  /** The default size of an arena. Documents larger than this are given their own arena */
+  static final int DEFAULT_ARENA_SIZE = 16 << 20;
+
+  /** Arenas are compacted once this fraction of their bytes are dead */
+  private static final double COMPACTION_THRESHOLD = 0.5;
+
+  private final int arenaSize;
+
+  /** An index slot that has never been used, which ends a probe */
+  private static final long EMPTY = -1L;
+
+  /** An index slot whose document was removed, which probes continue past */
+  private static final long REMOVED = -2L;
+
+  /** Returned by {@link #find} if a record moved while it was being looked up */
+  private static final long MOVED = -3L;
+
+  /**
+   * Index slots, each holding a location (arena ID in the upper 32 bits, offset in the lower 32),
+   * {@link #EMPTY} or {@link #REMOVED}. The length is a power of two. Replaced while holding the
+   * lock
+   */
+  private volatile AtomicLongArray index = newIndex(16);
+
+  /** The number of slots holding a location. Guarded by this */
+  private int indexed = 0;
+
+  /** The number of removed slots. Guarded by this */
+  private int removed = 0;
+
+  /** Arenas by ID. Released arenas are null. Only replaced while holding the lock */
+  private volatile Arena[] arenas = new Arena[16];
+
+  /** The arena that is being appended to. Guarded by this */
+  private Arena current;
+
+  /** The number of arenas that have been allocated. Guarded by this */
+  private int arenaCount = 0;
+
+  OffHeapDocuments() {
+    this(DEFAULT_ARENA_SIZE);
+  }
+
+  OffHeapDocuments(int arenaSize) {
+    this.arenaSize = arenaSize;
+  }
+
+  @Override
+  public Document get(String docId) {
+    byte[] id = docId.getBytes(StandardCharsets.UTF_8);
+    while (true) {
+      long location = find(id);
+      if (location == EMPTY) {
+        return null;
+      }
+      Document doc = location == MOVED ? null : read(docId, location);
+      if (doc != null) {
+        return doc;
+      }
+      // the arena was compacted after the location was read, so the record has moved
+    }
+  }
+
+  @Override
+  public Document put(Document doc) {
+    byte[] id = doc.getId().getBytes(StandardCharsets.UTF_8);
+    byte[] text = doc.getText().getBytes(StandardCharsets.UTF_8);
+    SparseVector vector = doc.getTermVector();
+    int size = 4 + id.length + 4 + text.length + 4 + vector.size() * 12;
+
+    synchronized (this) {
+      ByteBuffer out = reserve(size);
+      long location = location(current.id, out.position());
+      out.putInt(id.length).put(id);
+      out.putInt(text.length).put(text);
+      out.putInt(vector.size());
+      for (int i = 0; i < vector.size(); i++) {
+        out.putInt(vector.termAt(i)).putDouble(vector.valueAt(i));
+      }
+      current.liveRecords++;
+
+      int slot = slotOf(id);
+      if (slot < 0) {
+        insert(-slot - 1, location);
+        return null;
+      }
+      long previous = index.get(slot);
+      index.set(slot, location);
+      Document replaced = read(doc.getId(), previous);
+      release(previous);
+      return replaced;
+    }
+  }
+
+  @Override
+  public synchronized Document remove(String docId) {
+    int slot = slotOf(docId.getBytes(StandardCharsets.UTF_8));
+    if (slot < 0) {
+      return null;
+    }
+    long location = index.get(slot);
+    index.set(slot, REMOVED);
+    indexed--;
+    removed++;
+    Document doc = read(docId, location);
+    release(location);
+    return doc;
+  }
+
+  /** @return the number of bytes allocated for arenas that haven't been released */
+  synchronized long allocatedBytes() {
+    long bytes = 0;
+    for (Arena arena : arenas) {
+      if (arena != null) {
+        bytes += arena.buffer.capacity();
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Get a buffer positioned at the end of the current arena with room for a record, allocating a
+   * new arena if necessary. Must hold the lock
+   */
+  private ByteBuffer reserve(int size) {
+    // reclaiming the previous arena may copy records to the new arena, so check the space again
+    while (current == null || current.writer.remaining() < size) {
+      Arena previous = current;
+      current = new Arena(arenaCount++, Math.max(arenaSize, size));
+      Arena[] updated = arenas;
+      if (current.id >= updated.length) {
+        updated = Arrays.copyOf(updated, updated.length * 2);
+      }
+      updated[current.id] = current;
+      arenas = updated;
+      if (previous != null) {
+        reclaim(previous);
+      }
+    }
+    return current.writer;
+  }
+
+  /** Mark the record at a location as dead. Must hold the lock */
+  private void release(long location) {
+    Arena arena = arenas[arenaId(location)];
+    arena.deadBytes += recordSize(arena.buffer, offset(location));
+    arena.liveRecords--;
+    if (arena != current) {
+      reclaim(arena);
+    }
+  }
+
+  /** Release or compact an arena that is no longer being appended to. Must hold the lock */
+  private void reclaim(Arena arena) {
+    if (arena.liveRecords == 0) {
+      arenas[arena.id] = null;
+    } else if (arena.deadBytes >= COMPACTION_THRESHOLD * arena.writer.position()) {
+      compact(arena);
+    }
+  }
+
+  /** Copy the live records in an arena to the current arena, and release it. Must hold the lock */
+  private void compact(Arena arena) {
+    ByteBuffer buffer = arena.buffer.duplicate();
+    int end = arena.writer.position();
+    for (int offset = 0; offset < end; ) {
+      int size = recordSize(buffer, offset);
+      int slot = slotOf(idAt(buffer, offset));
+      if (slot >= 0 && index.get(slot) == location(arena.id, offset)) {
+        ByteBuffer out = reserve(size);
+        long location = location(current.id, out.position());
+        buffer.limit(offset + size).position(offset);
+        out.put(buffer);
+        buffer.limit(buffer.capacity());
+        current.liveRecords++;
+        // reserving space never grows the index, so the slot is still valid
+        index.set(slot, location);
+      }
+      offset += size;
+    }
+    arenas[arena.id] = null;
+  }
+
+  /**
+   * Look up a doc ID without the lock.
+   *
+   * @return the ID's location, {@link #EMPTY} if the ID isn't indexed, or {@link #MOVED} if the
+   *     lookup reached a record whose arena has been released, in which case it must be retried
+   */
+  private long find(byte[] id) {
+    AtomicLongArray table = index;
+    int mask = table.length() - 1;
+    for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+      long location = table.get(i);
+      if (location == EMPTY) {
+        return EMPTY;
+      } else if (location != REMOVED) {
+        Arena arena = arenas[arenaId(location)];
+        if (arena == null) {
+          return MOVED;
+        } else if (idEquals(arena.buffer, offset(location), id)) {
+          return location;
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the index slot for a doc ID. Must hold the lock
+   *
+   * @return the slot holding the ID's location, or -(the slot to insert it in) - 1 if the ID isn't
+   *     indexed
+   */
+  private int slotOf(byte[] id) {
+    AtomicLongArray table = index;
+    int mask = table.length() - 1;
+    int insertAt = -1;
+    for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+      long location = table.get(i);
+      if (location == EMPTY) {
+        return -(insertAt < 0 ? i : insertAt) - 1;
+      } else if (location == REMOVED) {
+        insertAt = insertAt < 0 ? i : insertAt;
+      } else if (idEquals(arenas[arenaId(location)].buffer, offset(location), id)) {
+        return i;
+      }
+    }
+  }
+
+  /** Index a new location in an unused slot (see {@link #slotOf}). Must hold the lock */
+  private void insert(int slot, long location) {
+    AtomicLongArray table = index;
+    if (table.get(slot) == REMOVED) {
+      removed--;
+    }
+    table.set(slot, location);
+    indexed++;
+    // keep at least a quarter of the slots empty, so that probes stay short and always end
+    if ((indexed + removed) * 4L >= table.length() * 3L) {
+      rehash();
+    }
+  }
+
+  /** Copy the locations to a new table that is at most half full. Must hold the lock */
+  private void rehash() {
+    AtomicLongArray table = index;
+    int capacity = 16;
+    while (capacity < indexed * 2L) {
+      capacity <<= 1;
+    }
+    AtomicLongArray rehashed = newIndex(capacity);
+    int mask = capacity - 1;
+    for (int j = 0; j < table.length(); j++) {
+      long location = table.get(j);
+      if (location >= 0) {
+        int i = hash(idAt(arenas[arenaId(location)].buffer, offset(location))) & mask;
+        while (rehashed.get(i) != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        rehashed.set(i, location);
+      }
+    }
+    removed = 0;
+    index = rehashed;
+  }
+
+  private static AtomicLongArray newIndex(int capacity) {
+    AtomicLongArray table = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      table.set(i, EMPTY);
+    }
+    return table;
+  }
+
+  private static int hash(byte[] id) {
+    int h = Arrays.hashCode(id);
+    // spread the high bits, since only the low bits select a slot
+    return h ^ (h >>> 16);
+  }
+
+  /** @return the ID bytes of the record at an offset */
+  private static byte[] idAt(ByteBuffer buffer, int offset) {
+    byte[] id = new byte[buffer.getInt(offset)];
+    for (int i = 0; i < id.length; i++) {
+      id[i] = buffer.get(offset + 4 + i);
+    }
+    return id;
+  }
+
+  /** @return true if the record at an offset has the given ID bytes */
+  private static boolean idEquals(ByteBuffer buffer, int offset, byte[] id) {
+    if (buffer.getInt(offset) != id.length) {
+      return false;
+    }
+    for (int i = 0; i < id.length; i++) {
+      if (buffer.get(offset + 4 + i) != id[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return the document at a location, or null if the arena has been released */
+  private Document read(String docId, long location) {
+    Arena arena = arenas[arenaId(location)];
+    if (arena == null) {
+      return null;
+    }
+    return new OffHeapDocument(docId, arena.buffer, offset(location));
+  }
+
+  private static int recordSize(ByteBuffer buffer, int offset) {
+    int idLength = buffer.getInt(offset);
+    int textLength = buffer.getInt(offset + 4 + idLength);
+    int terms = buffer.getInt(offset + 4 + idLength + 4 + textLength);
+    return 4 + idLength + 4 + textLength + 4 + terms * 12;
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static long location(int arenaId, int offset) {
+    return ((long) arenaId << 32) | offset;
+  }
+
+  private static int arenaId(long location) {
+    return (int) (location >>> 32);
+  }
+
+  private static int offset(long location) {
+    return (int) location;
+  }
+
+  /** A direct buffer that records are appended to */
+  private static class Arena {
+    private final int id;
+    private final ByteBuffer buffer;
+
+    /** Used for appending. Only used by the current arena, while holding the lock */
+    private final ByteBuffer writer;
+
+    private int liveRecords = 0;
+    private long deadBytes = 0;
+
+    Arena(int id, int capacity) {
+      this.id = id;
+      this.buffer = ByteBuffer.allocateDirect(capacity);
+      this.writer = buffer.duplicate();
+    }
+  }
+
+  /** A document that decodes its text and term vector from an arena on first use */
+  private static final class OffHeapDocument extends Document {
+    private final ByteBuffer buffer;
+    private final int textOffset;
+    private volatile String text;
+    private volatile SparseVector termVector;
+
+    OffHeapDocument(String id, ByteBuffer buffer, int offset) {
+      super(id, null);
+      this.buffer = buffer;
+      this.textOffset = offset + 4 + buffer.getInt(offset);
+    }
+
+    @Override
+    public String getText() {
+      String decoded = text;
+      if (decoded == null) {
+        ByteBuffer source = buffer.duplicate();
+        source.position(textOffset);
+        decoded = text = readString(source);
+      }
+      return decoded;
+    }
+
+    @Override
+    public SparseVector getTermVector() {
+      SparseVector vector = termVector;
+      if (vector == null) {
+        ByteBuffer source = buffer.duplicate();
+        source.position(textOffset);
+        source.position(textOffset + 4 + source.getInt());
+        int[] terms = new int[source.getInt()];
+        double[] values = new double[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+          terms[i] = source.getInt();
+          values[i] = source.getDouble();
+        }
+        vector = termVector = SparseVector.of(terms, values);
+      }
+      return vector;
+    }
+  }
+}
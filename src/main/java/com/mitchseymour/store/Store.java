@@ -1,16 +1,96 @@
 package com.mitchseymour.store;
 
 import com.mitchseymour.Document;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /** An interface for storing documents and genres */
 public interface Store {
 
+  /** @return the IDs of the documents in a genre, in sorted order */
   public List<String> get(String genre) throws StoreException;
 
-  public void put(String genre, Document doc) throws StoreException;
+  /**
+   * Get a page of the document IDs in a genre, in sorted order. Pages can be iterated by passing
+   * the last ID of the previous page as the cursor for the next page.
+   *
+   * @param genre the genre to retrieve document IDs for
+   * @param after only return IDs that sort after this ID, or null to start from the first ID
+   * @param limit the maximum number of IDs to return
+   * @return the document IDs
+   */
+  public default List<String> get(String genre, String after, int limit) throws StoreException {
+    List<String> page = new ArrayList<>();
+    for (String docId : get(genre)) {
+      if (page.size() == limit) {
+        break;
+      }
+      if (after == null || docId.compareTo(after) > 0) {
+        page.add(docId);
+      }
+    }
+    return page;
+  }
 
+  /** @return the number of documents in a genre */
+  public default int count(String genre) throws StoreException {
+    return get(genre).size();
+  }
+
+  /** @return the names of all genres that have been saved to this store */
+  public Collection<String> getGenres() throws StoreException;
+
+  /**
+   * Retrieve a saved document
+   *
+   * @return the document, or null if the document is not associated with the genre
+   */
+  public Document getDocument(String genre, String docId) throws StoreException;
+
+  /**
+   * Associate a document with a genre. Implementations should keep the document's term vector
+   * (see {@link Document#getTermVector()}) alongside the document where possible, so that the
+   * documents returned by {@link #remove(String, String)} don't need to be tokenized again.
+   *
+   * @return the document that was previously saved under the same genre and ID, or null
+   */
+  public Document put(String genre, Document doc) throws StoreException;
+
+  /**
+   * Associate a batch of documents with a genre. Implementations may override this to save the
+   * whole batch at once.
+   *
+   * @return the documents that were previously saved under the same genre and IDs
+   */
+  public default List<Document> putAll(String genre, List<Document> docs) throws StoreException {
+    List<Document> replaced = new ArrayList<>();
+    for (Document doc : docs) {
+      Document previous = put(genre, doc);
+      if (previous != null) {
+        replaced.add(previous);
+      }
+    }
+    return replaced;
+  }
+
+  /**
+   * Disassociate a document from a genre
+   *
+   * @return the removed document, or null if the document was not associated with the genre
+   */
   public Document remove(String genre, String docId) throws StoreException;
 
+  /**
+   * Get the sequence number of the last write. This increases with every put and remove, and is
+   * preserved across restarts, so it can be used to check whether state derived from the store
+   * (e.g. a snapshot of the classifiers) is up to date.
+   *
+   * @return the sequence number, or -1 if the store isn't persistent
+   */
+  public default long sequence() {
+    return -1;
+  }
+
   public void close();
 }
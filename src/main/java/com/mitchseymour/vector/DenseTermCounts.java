@@ -0,0 +1,81 @@
+package com.mitchseymour.vector;
+
+/**
+ * A mutable mapping of term ID -> count, backed by a fixed-size array that is indexed by term ID.
+ * This only suits IDs from a small, bounded range (i.e. hashed term IDs, see {@link
+ * FeatureHasher}), but its memory is a known constant (4 bytes per possible term) and reading a
+ * count is a single array access. The sum of squared counts is maintained as counts change, like
+ * {@link TermCounts}.
+ *
+ * <p>Counts are stored as floats, which represent whole counts exactly up to 2^24 (i.e. a term
+ * that occurs in 16 million of a genre's documents).
+ *
+ * <p>This class is not thread-safe.
+ */
+public class DenseTermCounts implements MutableTermVector {
+  private final float[] counts;
+  private int size = 0;
+  private double sumOfSquares = 0.0;
+
+  /** @param dimensions the number of possible term IDs, i.e. IDs range from 0 to dimensions - 1 */
+  public DenseTermCounts(int dimensions) {
+    this.counts = new float[dimensions];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public double get(int term) {
+    return term >= 0 && term < counts.length ? counts[term] : 0.0;
+  }
+
+  @Override
+  public double add(int term, double delta) {
+    float count = counts[term];
+    float updated = (float) (count + delta);
+    counts[term] = updated;
+    if (count == 0.0f && updated != 0.0f) {
+      size++;
+    } else if (count != 0.0f && updated == 0.0f) {
+      size--;
+    }
+    sumOfSquares += (double) updated * updated - (double) count * count;
+    if (size == 0) {
+      // reset to avoid accumulating rounding errors from non-integer counts
+      sumOfSquares = 0.0;
+    }
+    return updated;
+  }
+
+  @Override
+  public double norm() {
+    return Math.sqrt(sumOfSquares);
+  }
+
+  /** Iterates over the tracked terms in ascending order of term ID */
+  @Override
+  public void forEach(TermConsumer consumer) {
+    for (int term = 0; term < counts.length; term++) {
+      if (counts[term] != 0.0f) {
+        consumer.accept(term, counts[term]);
+      }
+    }
+  }
+
+  @Override
+  public SparseVector toVector(double scale) {
+    int[] terms = new int[size];
+    double[] scaled = new double[size];
+    int j = 0;
+    for (int term = 0; term < counts.length && j < size; term++) {
+      if (counts[term] != 0.0f) {
+        terms[j] = term;
+        scaled[j++] = counts[term] * scale;
+      }
+    }
+    return new SparseVector(terms, scaled);
+  }
+}
@@ -0,0 +1,66 @@
+package com.mitchseymour.vector;
+
+/**
+ * Maps terms to a fixed number of buckets by hashing them (the "hashing trick"), as an alternative
+ * to assigning each term an ID in the {@link TermDictionary}. The dictionary grows with every
+ * distinct term it's given, which is unbounded for user-generated text (typos, IDs, URLs), whereas
+ * hashed term IDs are always less than the number of buckets, so vectors keyed by them can be
+ * backed by fixed-size arrays (see {@link DenseTermCounts}). The cost is that terms which hash to
+ * the same bucket are counted as the same term.
+ *
+ * <p>The hash only depends on the term's chars, so bucket IDs are stable across processes, and
+ * terms can be hashed from any {@link CharSequence} (e.g. the tokenizer's reusable views) without
+ * allocating.
+ */
+public final class FeatureHasher {
+  /** The hasher used by all documents and classifiers, or null if terms aren't hashed */
+  private static volatile FeatureHasher global;
+
+  private final int buckets;
+
+  /** @param buckets the number of buckets to hash terms into */
+  public FeatureHasher(int buckets) {
+    if (buckets < 1) {
+      throw new IllegalArgumentException("Invalid number of buckets: " + buckets);
+    }
+    this.buckets = buckets;
+  }
+
+  /** @return the hasher used by all documents and classifiers, or null if terms aren't hashed */
+  public static FeatureHasher global() {
+    return global;
+  }
+
+  /**
+   * Set the hasher used by all documents and classifiers. Term IDs from the dictionary and from a
+   * hasher can't be mixed, so this must be set before any documents are added.
+   *
+   * @param hasher the hasher, or null to assign term IDs with the {@link TermDictionary} instead
+   */
+  public static void setGlobal(FeatureHasher hasher) {
+    global = hasher;
+  }
+
+  /** @return the number of buckets, i.e. the number of distinct term IDs */
+  public int buckets() {
+    return buckets;
+  }
+
+  /**
+   * @param term the term to hash
+   * @return the term's bucket, between 0 (inclusive) and the number of buckets (exclusive)
+   */
+  public int bucketOf(CharSequence term) {
+    int h = 0;
+    for (int i = 0; i < term.length(); i++) {
+      h = 31 * h + term.charAt(i);
+    }
+    // the polynomial hash is poorly distributed, so it's mixed with murmur3's finalizer
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return (int) ((h & 0xffffffffL) % buckets);
+  }
+}
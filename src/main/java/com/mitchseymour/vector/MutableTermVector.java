@@ -0,0 +1,22 @@
+package com.mitchseymour.vector;
+
+/** A {@link TermVector} whose weights can be changed, e.g. the running term counts of a genre */
+public interface MutableTermVector extends TermVector {
+
+  /**
+   * Add to the weight of a term. The term is removed if its weight becomes 0.
+   *
+   * @param term the term ID
+   * @param delta the amount to add (may be negative)
+   * @return the new weight of the term
+   */
+  public double add(int term, double delta);
+
+  /**
+   * Copy the weights into an immutable vector.
+   *
+   * @param scale the factor to multiply each weight by
+   * @return a sparse vector containing the scaled weights
+   */
+  public SparseVector toVector(double scale);
+}
@@ -0,0 +1,160 @@
+package com.mitchseymour.vector;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable sparse vector of term weights. Terms are represented by their {@link TermDictionary}
+ * IDs, and are stored in a pair of parallel primitive arrays sorted by term ID. This avoids the
+ * boxing and hashing overhead of using a {@code Map<CharSequence, Double>}.
+ */
+public final class SparseVector implements TermVector {
+  public static final SparseVector EMPTY = new SparseVector(new int[0], new double[0]);
+
+  private final int[] terms;
+  private final double[] values;
+
+  /** The Euclidean norm, cached since vectors are typically scored many times */
+  private final double norm;
+
+  /**
+   * Constructor. The arrays are used directly (not copied), so callers must not modify them
+   * afterwards.
+   *
+   * @param terms term IDs, sorted in ascending order without duplicates
+   * @param values the weight for each term
+   */
+  SparseVector(int[] terms, double[] values) {
+    this.terms = terms;
+    this.values = values;
+
+    double sumOfSquares = 0.0;
+    for (double value : values) {
+      sumOfSquares += value * value;
+    }
+    this.norm = Math.sqrt(sumOfSquares);
+  }
+
+  /**
+   * Create a vector from its terms and weights, e.g. when reading a vector back from storage.
+   *
+   * @param terms term IDs, sorted in ascending order without duplicates. Not copied
+   * @param values the weight for each term. Not copied
+   * @return the vector
+   */
+  public static SparseVector of(int[] terms, double[] values) {
+    if (terms.length != values.length) {
+      throw new IllegalArgumentException("terms and values must have the same length");
+    }
+    return terms.length == 0 ? EMPTY : new SparseVector(terms, values);
+  }
+
+  /**
+   * Build a term frequency vector from a list of term IDs, which may be unsorted and contain
+   * duplicates.
+   *
+   * @param ids the term IDs. This array will be sorted in place
+   * @param length the number of IDs to use from the array
+   * @return a vector containing the number of occurrences of each term
+   */
+  public static SparseVector fromTermIds(int[] ids, int length) {
+    if (length == 0) {
+      return EMPTY;
+    }
+    Arrays.sort(ids, 0, length);
+
+    int distinct = 1;
+    for (int i = 1; i < length; i++) {
+      if (ids[i] != ids[i - 1]) {
+        distinct++;
+      }
+    }
+
+    int[] terms = new int[distinct];
+    double[] values = new double[distinct];
+    int j = -1;
+    for (int i = 0; i < length; i++) {
+      if (i == 0 || ids[i] != ids[i - 1]) {
+        terms[++j] = ids[i];
+      }
+      values[j] += 1.0;
+    }
+    return new SparseVector(terms, values);
+  }
+
+  @Override
+  public int size() {
+    return terms.length;
+  }
+
+  /** @return the term ID at the provided position (positions are sorted by term ID) */
+  public int termAt(int index) {
+    return terms[index];
+  }
+
+  /** @return the weight at the provided position */
+  public double valueAt(int index) {
+    return values[index];
+  }
+
+  @Override
+  public double get(int term) {
+    int index = Arrays.binarySearch(terms, term);
+    return index < 0 ? 0.0 : values[index];
+  }
+
+  @Override
+  public double norm() {
+    return norm;
+  }
+
+  @Override
+  public void forEach(TermConsumer consumer) {
+    for (int i = 0; i < terms.length; i++) {
+      consumer.accept(terms[i], values[i]);
+    }
+  }
+
+  /**
+   * Compute the dot product of this vector and another vector. Since both vectors are sorted by
+   * term ID, this is a linear merge over the two arrays and doesn't allocate.
+   *
+   * @param other the other vector
+   * @return the dot product
+   */
+  public double dot(SparseVector other) {
+    int[] leftTerms = terms;
+    int[] rightTerms = other.terms;
+    double dotProduct = 0.0;
+    int i = 0;
+    int j = 0;
+    while (i < leftTerms.length && j < rightTerms.length) {
+      int left = leftTerms[i];
+      int right = rightTerms[j];
+      if (left == right) {
+        dotProduct += values[i++] * other.values[j++];
+      } else if (left < right) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return dotProduct;
+  }
+
+  /**
+   * Convert this vector to a map keyed by the actual terms. This is mostly useful for debugging
+   * and tests, since it defeats the purpose of using this class.
+   *
+   * @param dictionary the dictionary that was used to assign the term IDs
+   * @return a map where the keys are terms and the values are weights
+   */
+  public Map<CharSequence, Double> toTermMap(TermDictionary dictionary) {
+    Map<CharSequence, Double> map = new HashMap<>();
+    for (int i = 0; i < terms.length; i++) {
+      map.put(dictionary.term(terms[i]), values[i]);
+    }
+    return map;
+  }
+}
@@ -0,0 +1,174 @@
+package com.mitchseymour.vector;
+
+import java.util.Arrays;
+
+/**
+ * A mutable mapping of term ID -> count, backed by an open addressing hash table with primitive
+ * keys and values. Terms whose count drops to 0 are removed from the table. The sum of squared
+ * counts is maintained as counts change, so the norm is always available in constant time.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class TermCounts implements MutableTermVector {
+  private static final int EMPTY = -1;
+
+  private int[] keys;
+  private double[] values;
+  private int size = 0;
+  private double sumOfSquares = 0.0;
+
+  public TermCounts() {
+    this(16);
+  }
+
+  /** @param expectedSize the number of terms to size the table for */
+  public TermCounts(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+    keys = new int[capacity];
+    values = new double[capacity];
+    Arrays.fill(keys, EMPTY);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public double get(int term) {
+    if (term == EMPTY) {
+      return 0.0;
+    }
+    int mask = keys.length - 1;
+    for (int i = mix(term) & mask; ; i = (i + 1) & mask) {
+      if (keys[i] == term) {
+        return values[i];
+      } else if (keys[i] == EMPTY) {
+        return 0.0;
+      }
+    }
+  }
+
+  /**
+   * Add to the count of a term. The term is removed if its count becomes 0.
+   *
+   * @param term the term ID
+   * @param delta the amount to add (may be negative)
+   * @return the new count for the term
+   */
+  @Override
+  public double add(int term, double delta) {
+    int mask = keys.length - 1;
+    int i = mix(term) & mask;
+    for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+      if (keys[i] == term) {
+        double count = values[i] + delta;
+        updateSumOfSquares(values[i], count);
+        if (count == 0.0) {
+          removeAt(i);
+        } else {
+          values[i] = count;
+        }
+        return count;
+      }
+    }
+    if (delta == 0.0) {
+      return 0.0;
+    }
+    keys[i] = term;
+    values[i] = delta;
+    updateSumOfSquares(0.0, delta);
+    if (++size * 2 > keys.length) {
+      resize(keys.length * 2);
+    }
+    return delta;
+  }
+
+  @Override
+  public double norm() {
+    return Math.sqrt(sumOfSquares);
+  }
+
+  /** Iterates over the tracked terms in no particular order */
+  @Override
+  public void forEach(TermConsumer consumer) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY) {
+        consumer.accept(keys[i], values[i]);
+      }
+    }
+  }
+
+  /**
+   * Copy the counts into an immutable vector.
+   *
+   * @param scale the factor to multiply each count by
+   * @return a sparse vector containing the scaled counts
+   */
+  @Override
+  public SparseVector toVector(double scale) {
+    int[] terms = new int[size];
+    int j = 0;
+    for (int key : keys) {
+      if (key != EMPTY) {
+        terms[j++] = key;
+      }
+    }
+    Arrays.sort(terms);
+    double[] scaled = new double[size];
+    for (int i = 0; i < terms.length; i++) {
+      scaled[i] = get(terms[i]) * scale;
+    }
+    return new SparseVector(terms, scaled);
+  }
+
+  private void updateSumOfSquares(double oldCount, double newCount) {
+    sumOfSquares += newCount * newCount - oldCount * oldCount;
+  }
+
+  /** Remove the entry at the provided slot, shifting back any entries in the same probe chain */
+  private void removeAt(int slot) {
+    int mask = keys.length - 1;
+    int gap = slot;
+    for (int i = (slot + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+      int home = mix(keys[i]) & mask;
+      // move the entry into the gap if the gap lies between its home slot and its current slot
+      if (((i - home) & mask) >= ((i - gap) & mask)) {
+        keys[gap] = keys[i];
+        values[gap] = values[i];
+        gap = i;
+      }
+    }
+    keys[gap] = EMPTY;
+    values[gap] = 0.0;
+    if (--size == 0) {
+      // reset to avoid accumulating rounding errors from non-integer counts
+      sumOfSquares = 0.0;
+    }
+  }
+
+  private void resize(int capacity) {
+    int[] oldKeys = keys;
+    double[] oldValues = values;
+    keys = new int[capacity];
+    values = new double[capacity];
+    Arrays.fill(keys, EMPTY);
+    int mask = capacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] != EMPTY) {
+        int i = mix(oldKeys[j]) & mask;
+        while (keys[i] != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        values[i] = oldValues[j];
+      }
+    }
+  }
+
+  /** Term IDs are sequential, so spread them out before using them as a hash */
+  private static int mix(int term) {
+    int h = term * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,86 @@
+package com.mitchseymour.vector;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A concurrent dictionary that assigns a stable int ID to each term. IDs are assigned sequentially
+ * starting from 0, which allows term vectors to be represented with primitive arrays (see {@link
+ * SparseVector}) instead of maps keyed by the terms themselves.
+ *
+ * <p>Lookups accept any {@link CharSequence} whose {@code hashCode} and {@code equals} are
+ * compatible with {@link String} (e.g. the reusable views emitted by the tokenizer), so terms that
+ * have already been seen can be resolved without allocating.
+ */
+public class TermDictionary {
+  private static final TermDictionary GLOBAL = new TermDictionary();
+
+  /** Mapping of term -> ID. Keys are always Strings */
+  private final Map<CharSequence, Integer> ids = new ConcurrentHashMap<>();
+
+  /** Mapping of ID -> term. Only appended to while holding the lock on this instance */
+  private volatile String[] terms = new String[1024];
+
+  private int size = 0;
+
+  /** @return the dictionary shared by all documents and classifiers */
+  public static TermDictionary global() {
+    return GLOBAL;
+  }
+
+  /**
+   * Get the ID of a term, assigning a new ID if this is the first time the term has been seen.
+   *
+   * @param term the term to look up
+   * @return the ID of the term
+   */
+  public int idOf(CharSequence term) {
+    Integer id = ids.get(term);
+    if (id != null) {
+      return id;
+    }
+    return ids.computeIfAbsent(term.toString(), this::assign);
+  }
+
+  /**
+   * Get the ID of a term without assigning a new one.
+   *
+   * @param term the term to look up
+   * @return the ID of the term, or -1 if the term has never been seen
+   */
+  public int lookup(CharSequence term) {
+    Integer id = ids.get(term);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Get the term associated with an ID.
+   *
+   * @param id an ID previously returned by {@link #idOf(CharSequence)}
+   * @return the term
+   */
+  public String term(int id) {
+    String[] current = terms;
+    if (id < 0 || id >= current.length || current[id] == null) {
+      throw new IllegalArgumentException("Unknown term ID: " + id);
+    }
+    return current[id];
+  }
+
+  /** @return the number of terms in the dictionary */
+  public synchronized int size() {
+    return size;
+  }
+
+  private synchronized Integer assign(CharSequence term) {
+    String[] current = terms;
+    if (size == current.length) {
+      current = Arrays.copyOf(current, current.length * 2);
+    }
+    current[size] = (String) term;
+    // publish the (possibly new) array after the term has been written
+    terms = current;
+    return size++;
+  }
+}
@@ -0,0 +1,33 @@
+package com.mitchseymour.vector;
+
+/**
+ * A read-only view of a vector of term weights, keyed by {@link TermDictionary} IDs (or hashed
+ * term IDs, see {@link FeatureHasher}). This allows similarity algorithms to operate on both
+ * immutable {@link SparseVector}s and vectors that are derived on the fly (e.g. a document centroid
+ * that is computed from running term counts).
+ */
+public interface TermVector {
+
+  /** @return the number of non-zero terms in this vector */
+  public int size();
+
+  /**
+   * Get the weight of a term.
+   *
+   * @param term the term ID
+   * @return the weight of the term, or 0 if the term is not in this vector
+   */
+  public double get(int term);
+
+  /** @return the Euclidean norm (length) of this vector */
+  public double norm();
+
+  /** Invoke the consumer for every non-zero term in this vector */
+  public void forEach(TermConsumer consumer);
+
+  /** Callback for iterating over term weights */
+  @FunctionalInterface
+  public interface TermConsumer {
+    void accept(int term, double value);
+  }
+}
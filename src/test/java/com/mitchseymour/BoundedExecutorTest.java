@@ -0,0 +1,84 @@
+package com.mitchseymour;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.mitchseymour.metrics.ServerMetrics;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class BoundedExecutorTest {
+
+  @Test
+  @DisplayName("tasks are rejected when the queue is full, and expired when they wait too long")
+  void testLoadIsShed() throws InterruptedException {
+    BoundedExecutor executor = new BoundedExecutor("test", 1, 1, 50);
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(2);
+    AtomicInteger ran = new AtomicInteger();
+    AtomicInteger expired = new AtomicInteger();
+    try {
+      // occupy the only thread, then fill the queue
+      assertThat(
+              executor.execute(
+                  () -> {
+                    await(blocked);
+                    ran.incrementAndGet();
+                    done.countDown();
+                  },
+                  done::countDown))
+          .isTrue();
+      assertThat(
+              executor.execute(
+                  ran::incrementAndGet,
+                  () -> {
+                    expired.incrementAndGet();
+                    done.countDown();
+                  }))
+          .isTrue();
+      assertThat(executor.execute(ran::incrementAndGet, expired::incrementAndGet)).isFalse();
+      assertThat(executor.getRejectedCount()).isEqualTo(1L);
+
+      // the queued task waits for longer than the deadline
+      Thread.sleep(100);
+      blocked.countDown();
+      assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(ran.get()).isEqualTo(1);
+      assertThat(expired.get()).isEqualTo(1);
+      assertThat(executor.getExpiredCount()).isEqualTo(1L);
+    } finally {
+      executor.close();
+    }
+  }
+
+  @Test
+  @DisplayName("the executor's metrics can be published as an MBean")
+  void testMBean() throws JMException {
+    BoundedExecutor executor = new BoundedExecutor("test", 2, 1, 50);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(ServerMetrics.DOMAIN + ":type=Executor,name=test");
+    try {
+      ServerMetrics.register(server, name, executor);
+      assertThat(server.getAttribute(name, "ThreadCount")).isEqualTo(2);
+      assertThat(server.getAttribute(name, "QueueSize")).isEqualTo(0);
+      assertThat(server.getAttribute(name, "RejectedCount")).isEqualTo(0L);
+    } finally {
+      server.unregisterMBean(name);
+      executor.close();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
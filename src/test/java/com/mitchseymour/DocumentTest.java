@@ -3,11 +3,15 @@ package com.mitchseymour;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import com.google.common.io.Resources;
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermDictionary;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
@@ -48,4 +52,31 @@ class DocumentTest {
     assertThat(tf.size()).isEqualTo(expectedTf.size());
     assertThat(tf).containsExactlyEntriesOf(expectedTf);
   }
+
+  @Test
+  @DisplayName("term vectors are only computed once per document")
+  void testTermVectorIsMemoized() {
+    Document doc = new Document("123", "hello, world. goodbye, world");
+    SparseVector vector = doc.getTermVector();
+    assertThat(vector.size()).isEqualTo(3);
+    assertThat(doc.getTermVector()).isSameAs(vector);
+  }
+
+  @Test
+  @DisplayName("query vectors count unknown terms without adding them to the dictionary")
+  void testQueryVector() {
+    SparseVector known = new Document("hello, world").getTermVector();
+    int vocabularySize = TermDictionary.global().size();
+
+    Map<CharSequence, Integer> unknownTerms = new HashMap<>();
+    SparseVector left = new Document("hello world unknownqueryterm").getQueryVector(unknownTerms);
+    SparseVector right = new Document("unknownqueryterm, world").getQueryVector(unknownTerms);
+    assertThat(TermDictionary.global().size()).isEqualTo(vocabularySize);
+    assertThat(left.size()).isEqualTo(3);
+    assertThat(left.norm()).isEqualTo(Math.sqrt(3.0));
+
+    // known terms keep their IDs, and unknown terms match across vectors that share their IDs
+    assertThat(left.dot(known)).isEqualTo(2.0);
+    assertThat(left.dot(right)).isEqualTo(2.0);
+  }
 }
@@ -1,11 +1,27 @@
 package com.mitchseymour;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
 
+import com.mitchseymour.metrics.ClassifierMetricsMXBean;
+import com.mitchseymour.store.InMemoryStore;
+import com.mitchseymour.store.LogStructuredStore;
+import com.mitchseymour.store.Store;
+import com.mitchseymour.store.StoreException;
+import com.mitchseymour.vector.TermDictionary;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 class RequestHandlerTest {
   private RequestHandler requestHandler;
@@ -32,4 +48,215 @@ class RequestHandlerTest {
     closestGenres = requestHandler.getNClosestGenres("synthwave is my favorite music genre", 1);
     assertThat(closestGenres).containsExactly("music");
   }
+
+  @Test
+  @DisplayName("Classifier metrics report the number of genres, documents and terms")
+  void testClassifierMetrics() {
+    ClassifierMetricsMXBean metrics = requestHandler.getClassifierMetrics();
+    int vocabularySize = metrics.getVocabularySize();
+    requestHandler.addDocumentToGenre("music", "123", "chillwave synthwave");
+    requestHandler.addDocumentToGenre("music", "456", "vaporwave");
+    requestHandler.addDocumentToGenre("film", "789", "classifiermetricsterm");
+
+    assertThat(metrics.getGenreCount()).isEqualTo(2);
+    assertThat(metrics.getDocumentCount()).isEqualTo(3L);
+    assertThat(metrics.getVocabularySize()).isGreaterThan(vocabularySize);
+  }
+
+  @Test
+  @DisplayName("Cached results match the uncached results")
+  void testResultCaches() {
+    String doc1 = "The story unfolds in Melbourne, Australia with two spoilt rich brothers.";
+    String doc2 = "The story unfolds in a dystopian future with a smoldering space craft";
+    Map<CharSequence, Double> termFrequencies = requestHandler.getTermFrequencies(doc1);
+    Double similarityScore = requestHandler.getSimilarityScore(doc1, doc2);
+
+    requestHandler.enableResultCaches(1 << 20);
+    for (int i = 0; i < 2; i++) {
+      assertThat(requestHandler.getTermFrequencies(doc1)).isEqualTo(termFrequencies);
+      assertThat(requestHandler.getSimilarityScore(doc1, doc2)).isEqualTo(similarityScore);
+      assertThat(requestHandler.getSimilarityScore(doc2, doc1)).isEqualTo(similarityScore);
+    }
+    assertThat(requestHandler.getTermFrequencyCache().getHitCount()).isEqualTo(1L);
+    assertThat(requestHandler.getSimilarityCache().getHitCount()).isEqualTo(3L);
+  }
+
+  @Test
+  @DisplayName("Cached closest genres are recomputed when a genre changes")
+  void testClosestGenresCache() {
+    requestHandler.enableResultCaches(1 << 20);
+    String query = "synthwave is my favorite music genre";
+    requestHandler.addDocumentToGenre(
+        "film", "456", "movies are cool. especially those that have good music");
+    assertThat(requestHandler.getNClosestGenres(query, 2)).containsExactly("film");
+    assertThat(requestHandler.getNClosestGenres(query, 2)).containsExactly("film");
+
+    requestHandler.addDocumentToGenre(
+        "music", "123", "I love working to music. chillwave, synthwave, you name it.");
+    assertThat(requestHandler.getNClosestGenres(query, 2)).containsExactly("music", "film");
+    assertThat(requestHandler.getNClosestGenres(query, 1)).containsExactly("music");
+
+    requestHandler.removeDocumentFromGenre("music", "123");
+    assertThat(requestHandler.getNClosestGenres(query, 2)).containsExactly("film");
+    assertThat(requestHandler.getClosestGenresCache().getHitCount()).isEqualTo(1L);
+  }
+
+  @Test
+  @DisplayName("Closest genres can be retrieved for a batch of documents")
+  void testNClosestGenresBatch() throws IOException {
+    requestHandler.addDocumentToGenre(
+        "music", "123", "I love working to music. chillwave, synthwave, you name it.");
+    requestHandler.addDocumentToGenre(
+        "film", "456", "movies are cool. especially those that have good music");
+
+    String requests =
+        "{\"id\": \"a\", \"count\": 2, "
+            + "\"documentText\": \"synthwave is my favorite music genre\"}\n"
+            + "\n"
+            + "{\"id\": \"b\", \"documentText\": \"movies \\\"cool\\\"\", \"count\": 1}\n"
+            + "{\"id\": \"c\", \"count\": 1}\n"
+            + "{\"id\": \"d\", \"documentText\": \"music\", \"count\": 2000000000}\n";
+    StringWriter responses = new StringWriter();
+    requestHandler.getNClosestGenres(new StringReader(requests), responses);
+
+    assertThat(Arrays.asList(responses.toString().split("\n")))
+        .containsExactly(
+            "{\"id\":\"a\",\"genres\":[\"music\",\"film\"]}",
+            "{\"id\":\"b\",\"genres\":[\"film\"]}",
+            "{\"id\":\"c\",\"error\":\"documentText and count are required\"}",
+            "{\"id\":\"d\",\"error\":\"count must be between 1 and 10000\"}");
+  }
+
+  @Test
+  @DisplayName("Queries don't add their terms to the dictionary")
+  void testQueriesDontGrowDictionary() throws IOException {
+    requestHandler.addDocumentToGenre("music", "123", "chillwave synthwave");
+    int vocabularySize = TermDictionary.global().size();
+
+    List<String> closestGenres =
+        requestHandler.getNClosestGenres("synthwave querytermone querytermtwo", 1);
+    String batch = "{\"id\": \"a\", \"count\": 1, \"documentText\": \"querytermthree\"}";
+    requestHandler.getNClosestGenres(new StringReader(batch), new StringWriter());
+    Double score = requestHandler.getSimilarityScore("querytermfour", "querytermfour synthwave");
+
+    assertThat(closestGenres).containsExactly("music");
+    assertThat(score).isCloseTo(1.0 / Math.sqrt(2.0), within(1e-9));
+    assertThat(TermDictionary.global().size()).isEqualTo(vocabularySize);
+  }
+
+  @Test
+  @DisplayName("Documents can be added in bulk")
+  void testBulkIngest() throws IOException {
+    String requests =
+        "{\"genre\": \"music\", \"docId\": \"123\", "
+            + "\"documentText\": \"I love working to music. chillwave, synthwave\"}\n"
+            + "{\"genre\": \"film\", \"docId\": \"456\", "
+            + "\"documentText\": \"movies are cool. especially those that have good music\"}\n"
+            + "{\"genre\": \"film\", \"docId\": \"789\"}\n"
+            + "{\"genre\": \"film\", \"docId\": \"456\", "
+            + "\"documentText\": \"movies are cool. especially those with good music\"}\n";
+    StringWriter responses = new StringWriter();
+    long added = requestHandler.addDocumentsToGenres(new StringReader(requests), responses);
+
+    assertThat(added).isEqualTo(3);
+    assertThat(Arrays.asList(responses.toString().split("\n")))
+        .containsExactly(
+            "{\"line\":3,\"error\":\"genre, docId and documentText are required\"}",
+            "{\"added\":3}");
+    assertThat(requestHandler.getDocumentsInGenre("film")).containsExactly("456");
+    assertThat(requestHandler.getNClosestGenres("synthwave is my favorite music genre", 2))
+        .containsExactly("music", "film");
+  }
+
+  @Test
+  @DisplayName("Bulk ingest reports how many documents were added before a store failure")
+  void testBulkIngestFailure() throws IOException {
+    Store store =
+        new InMemoryStore() {
+          @Override
+          public List<Document> putAll(String genre, List<Document> docs) {
+            if (genre.equals("broken")) {
+              throw new StoreException("disk full");
+            }
+            return super.putAll(genre, docs);
+          }
+        };
+    requestHandler = new RequestHandler(store);
+    String broken = "{\"genre\": \"broken\", \"docId\": \"1\", \"documentText\": \"a\"}\n";
+
+    // nothing has been written yet, so the failure is thrown
+    assertThatThrownBy(
+            () -> requestHandler.addDocumentsToGenres(new StringReader(broken), new StringWriter()))
+        .isInstanceOf(StoreException.class);
+
+    // the first batch is added before the second batch fails
+    StringBuilder requests = new StringBuilder();
+    for (int i = 0; i < 1024; i++) {
+      requests.append("{\"genre\": \"music\", \"docId\": \"").append(i);
+      requests.append("\", \"documentText\": \"synthwave\"}\n");
+    }
+    requests.append(broken);
+    StringWriter responses = new StringWriter();
+    long added =
+        requestHandler.addDocumentsToGenres(new StringReader(requests.toString()), responses);
+
+    assertThat(added).isEqualTo(1024);
+    assertThat(Arrays.asList(responses.toString().split("\n")))
+        .containsExactly(
+            "{\"error\":\"com.mitchseymour.store.StoreException: disk full\",\"added\":1024}");
+    assertThat(requestHandler.getDocumentsInGenre("music")).hasSize(1024);
+  }
+
+  @Test
+  @DisplayName("Genres are restored from a persistent store on startup")
+  void testGenresAreRestored(@TempDir Path directory) {
+    requestHandler = new RequestHandler(new LogStructuredStore(directory));
+    requestHandler.addDocumentToGenre(
+        "music", "123", "I love working to music. chillwave, synthwave, you name it.");
+    requestHandler.addDocumentToGenre(
+        "film", "456", "movies are cool. especially those that have good music");
+    requestHandler.removeDocumentFromGenre("film", "456");
+    requestHandler.addDocumentToGenre(
+        "film", "789", "movies are cool. especially those that have good music");
+    requestHandler.close();
+
+    requestHandler = new RequestHandler(new LogStructuredStore(directory));
+    assertThat(requestHandler.getDocumentsInGenre("film")).containsExactly("789");
+    assertThat(requestHandler.getNClosestGenres("synthwave is my favorite music genre", 2))
+        .containsExactly("music", "film");
+    requestHandler.close();
+  }
+
+  @Test
+  @DisplayName("Genres are restored from a snapshot, unless the snapshot is out of date")
+  void testGenresAreRestoredFromSnapshot(@TempDir Path directory) {
+    Path snapshot = directory.resolve("classifiers.snapshot");
+    requestHandler = new RequestHandler(new LogStructuredStore(directory), snapshot);
+    requestHandler.restore();
+    requestHandler.addDocumentToGenre(
+        "music", "123", "I love working to music. chillwave, synthwave, you name it.");
+    requestHandler.addDocumentToGenre(
+        "film", "456", "movies are cool. especially those that have good music");
+    requestHandler.close();
+    assertThat(Files.exists(snapshot)).isTrue();
+
+    requestHandler = new RequestHandler(new LogStructuredStore(directory), snapshot);
+    assertThat(requestHandler.isReady()).isFalse();
+    requestHandler.restore();
+    assertThat(requestHandler.isReady()).isTrue();
+    assertThat(requestHandler.getNClosestGenres("synthwave is my favorite music genre", 2))
+        .containsExactly("music", "film");
+    requestHandler.close();
+
+    // a write that isn't covered by the snapshot means the documents are replayed instead
+    requestHandler = new RequestHandler(new LogStructuredStore(directory));
+    requestHandler.addDocumentToGenre("cooking", "789", "my favorite synthwave genre is music");
+    requestHandler.close();
+
+    requestHandler = new RequestHandler(new LogStructuredStore(directory), snapshot);
+    requestHandler.restore();
+    assertThat(requestHandler.getNClosestGenres("synthwave is my favorite music genre", 1))
+        .containsExactly("cooking");
+    requestHandler.close();
+  }
 }
@@ -0,0 +1,38 @@
+package com.mitchseymour;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.Properties;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ServerConfigTest {
+
+  @Test
+  @DisplayName("arguments override environment variables, which override system properties")
+  void testPrecedence() {
+    Properties properties = new Properties();
+    properties.setProperty("server.maxThreads", "10");
+    properties.setProperty("server.minThreads", "1");
+    properties.setProperty("store.dir", "/tmp/store");
+
+    ServerConfig config =
+        new ServerConfig(
+            new String[] {"--server.maxThreads=30"},
+            Collections.singletonMap("SERVER_MIN_THREADS", "2"),
+            properties);
+    assertThat(config.getInt("server.maxThreads", 100)).isEqualTo(30);
+    assertThat(config.getInt("server.minThreads", 100)).isEqualTo(2);
+    assertThat(config.get("store.dir", null)).isEqualTo("/tmp/store");
+    assertThat(config.getLong("classify.queueTimeoutMs", 1000L)).isEqualTo(1000L);
+  }
+
+  @Test
+  @DisplayName("settings are mapped to environment variable names")
+  void testEnvNames() {
+    assertThat(ServerConfig.envName("server.maxThreads")).isEqualTo("SERVER_MAX_THREADS");
+    assertThat(ServerConfig.envName("store.offHeap")).isEqualTo("STORE_OFF_HEAP");
+    assertThat(ServerConfig.envName("store.dir")).isEqualTo("STORE_DIR");
+  }
+}
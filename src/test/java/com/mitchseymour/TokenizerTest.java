@@ -0,0 +1,44 @@
+package com.mitchseymour;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TokenizerTest {
+
+  /** The original regex based pipeline, which the tokenizer must stay compatible with */
+  private static List<String> regexWords(String text) {
+    return Arrays.stream(text.replaceAll("\\p{P}", "").split(" "))
+        .map(String::toLowerCase)
+        .map(String::trim)
+        .filter(str -> !str.isEmpty())
+        .collect(Collectors.toList());
+  }
+
+  private static List<String> tokenize(String text) {
+    List<String> words = new ArrayList<>();
+    Tokenizer.get().tokenize(text, word -> words.add(word.toString()));
+    return words;
+  }
+
+  @ParameterizedTest(name = "tokenizer matches the regex pipeline (input: {0})")
+  @ValueSource(
+      strings = {
+        "Hello, World!",
+        "  leading and trailing  ",
+        "Rs.30 lakhs (Amrinder Gill)",
+        "line\nbreaks\tand\ttabs stay\n inside tokens",
+        "rock-fueled party... “quoted” ¿Qué?",
+        "ÉCOLE ΑΣ İSTANBUL",
+        "!!! --- ...",
+        ""
+      })
+  void testMatchesRegexPipeline(String text) {
+    assertThat(tokenize(text)).isEqualTo(regexWords(text));
+  }
+}
@@ -0,0 +1,94 @@
+package com.mitchseymour.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class GenerationalCacheTest {
+  private final CacheKey key = CacheKey.of("synthwave is my favorite music genre");
+
+  @Test
+  @DisplayName("results from an older generation are recomputed")
+  void testGenerations() {
+    GenerationalCache<String> cache = new GenerationalCache<>(1 << 20, value -> 64);
+    assertThat(cache.get(key, 1, () -> "first")).isEqualTo("first");
+    assertThat(cache.get(key, 1, () -> "second")).isEqualTo("first");
+    assertThat(cache.get(key, 2, () -> "second")).isEqualTo("second");
+    assertThat(cache.get(key, 2, () -> "third")).isEqualTo("second");
+
+    // parameters of the computation are part of the key
+    assertThat(cache.get(key.with(5), 2, () -> "third")).isEqualTo("third");
+
+    assertThat(cache.getHitCount()).isEqualTo(2L);
+    assertThat(cache.getMissCount()).isEqualTo(3L);
+  }
+
+  @Test
+  @DisplayName("concurrent misses for the same key are computed once")
+  void testMissesAreCoalesced() throws Exception {
+    GenerationalCache<String> cache = new GenerationalCache<>(1 << 20, value -> 64);
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger loads = new AtomicInteger();
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      results.add(
+          executor.submit(
+              () ->
+                  cache.get(
+                      key,
+                      1,
+                      () -> {
+                        loads.incrementAndGet();
+                        started.countDown();
+                        await(release);
+                        return "result";
+                      })));
+      assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+      // these requests arrive while the first one is still computing
+      for (int i = 1; i < threads; i++) {
+        results.add(
+            executor.submit(
+                () ->
+                    cache.get(
+                        key,
+                        1,
+                        () -> {
+                          loads.incrementAndGet();
+                          return "duplicate";
+                        })));
+      }
+      while (cache.getCoalescedCount() < threads - 1) {
+        Thread.sleep(1);
+      }
+      release.countDown();
+
+      for (Future<String> result : results) {
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("result");
+      }
+      assertThat(loads.get()).isEqualTo(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
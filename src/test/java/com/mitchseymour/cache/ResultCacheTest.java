@@ -0,0 +1,73 @@
+package com.mitchseymour.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ResultCacheTest {
+
+  @Test
+  @DisplayName("keys depend on the whole text")
+  void testKeys() {
+    String text = "Synthwave is an electronic music microgenre";
+    assertThat(CacheKey.of(text)).isEqualTo(CacheKey.of(new StringBuilder(text)));
+    assertThat(CacheKey.of(text)).isNotEqualTo(CacheKey.of(text + "."));
+    assertThat(CacheKey.of(text)).isNotEqualTo(CacheKey.of(text.toLowerCase()));
+    assertThat(CacheKey.of("")).isNotEqualTo(CacheKey.of("\u0000"));
+
+    // pairs of texts are keyed regardless of their order
+    assertThat(CacheKey.ofUnordered("a", text)).isEqualTo(CacheKey.ofUnordered(text, "a"));
+    assertThat(CacheKey.ofUnordered("a", text)).isNotEqualTo(CacheKey.ofUnordered("b", text));
+  }
+
+  @Test
+  @DisplayName("results are only computed once, and hits and misses are counted")
+  void testResultsAreCached() {
+    ResultCache<String> cache = new ResultCache<>(1 << 20, value -> 64);
+    AtomicInteger loads = new AtomicInteger();
+    for (int i = 0; i < 3; i++) {
+      String result =
+          cache.get(
+              CacheKey.of("some text"),
+              () -> {
+                loads.incrementAndGet();
+                return "result";
+              });
+      assertThat(result).isEqualTo("result");
+    }
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(cache.getHitCount()).isEqualTo(2L);
+    assertThat(cache.getMissCount()).isEqualTo(1L);
+    assertThat(cache.size()).isEqualTo(1L);
+  }
+
+  @Test
+  @DisplayName("the cache stays within its weight, and keeps popular entries during a scan")
+  void testEviction() {
+    ResultCache<String> cache = new ResultCache<>(16 * 1000, value -> 10);
+
+    // a set of popular texts are requested over and over, in between texts that are only
+    // requested once
+    for (int round = 0; round < 20; round++) {
+      for (int i = 0; i < 100; i++) {
+        cache.get(CacheKey.of("popular " + i), () -> "popular");
+      }
+      // more than fit in the cache, so the popular texts would be evicted by an LRU cache
+      for (int i = 0; i < 5000; i++) {
+        cache.get(CacheKey.of("one-off " + round + " " + i), () -> "one-off");
+      }
+    }
+    assertThat(cache.weight()).isLessThanOrEqualTo(16 * 1000L);
+    assertThat(cache.getEvictionCount()).isGreaterThan(0L);
+
+    int popular = 0;
+    for (int i = 0; i < 100; i++) {
+      if (cache.getIfPresent(CacheKey.of("popular " + i)) != null) {
+        popular++;
+      }
+    }
+    assertThat(popular).isGreaterThan(90);
+  }
+}
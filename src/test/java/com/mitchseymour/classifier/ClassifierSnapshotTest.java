@@ -0,0 +1,106 @@
+package com.mitchseymour.classifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import com.mitchseymour.Document;
+import com.mitchseymour.store.InMemoryStore;
+import com.mitchseymour.vector.FeatureHasher;
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermDictionary;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClassifierSnapshotTest {
+  @TempDir Path directory;
+
+  @Test
+  @DisplayName("classifiers restored from a snapshot match the originals")
+  void testRoundTrip() throws IOException {
+    InMemoryStore store = new InMemoryStore();
+    DocumentClassifier music = new DocumentClassifier("music", store, new GenreIndex());
+    DocumentClassifier film = new DocumentClassifier("film", store, new GenreIndex());
+    music.addDocument(new Document("1", "I love working to music. chillwave, synthwave"));
+    music.addDocument(new Document("2", "synthwave is an electronic music microgenre"));
+    film.addDocument(new Document("3", "movies are cool. especially those that have good music"));
+
+    Path file = directory.resolve("classifiers.snapshot");
+    ClassifierSnapshot.capture(42, Arrays.asList(music, film)).write(file);
+    ClassifierSnapshot snapshot = ClassifierSnapshot.read(file);
+    assertThat(snapshot.getSequence()).isEqualTo(42L);
+
+    GenreIndex index = new GenreIndex();
+    Map<String, DocumentClassifier> restored = new HashMap<>();
+    snapshot.restore(
+        genre -> restored.computeIfAbsent(genre, key -> new DocumentClassifier(key, store, index)));
+
+    assertThat(restored.get("music").getDocCount()).isEqualTo(2.0);
+    assertThat(restored.get("music").getDocumentCentroid().toTermMap(TermDictionary.global()))
+        .isEqualTo(music.getDocumentCentroid().toTermMap(TermDictionary.global()));
+    assertThat(restored.get("film").getDocumentCentroid().toTermMap(TermDictionary.global()))
+        .isEqualTo(film.getDocumentCentroid().toTermMap(TermDictionary.global()));
+
+    // the restored classifiers also populate the index
+    Document query = new Document("synthwave is my favorite music genre");
+    Map<String, Double> scores = new HashMap<>();
+    index.score(query.getTermVector(), scores::put);
+    assertThat(scores.get("music"))
+        .isCloseTo(music.similarityToDocumentCentroid(query).getScore(), within(1e-9));
+  }
+
+  @Test
+  @DisplayName("corrupt snapshots are rejected")
+  void testCorruptSnapshot() throws IOException {
+    DocumentClassifier music = new DocumentClassifier("music", new InMemoryStore());
+    music.addDocument(new Document("1", "I love working to music. chillwave, synthwave"));
+
+    Path file = directory.resolve("classifiers.snapshot");
+    ClassifierSnapshot.capture(1, Arrays.asList(music)).write(file);
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[bytes.length / 2] ^= 1;
+    Files.write(file, bytes);
+
+    assertThatThrownBy(() -> ClassifierSnapshot.read(file)).isInstanceOf(IOException.class);
+  }
+
+  @Test
+  @DisplayName("snapshots of hashed terms are only read with the same number of buckets")
+  void testHashedRoundTrip() throws IOException {
+    Path file = directory.resolve("classifiers.snapshot");
+    FeatureHasher.setGlobal(new FeatureHasher(1 << 10));
+    try {
+      DocumentClassifier music = new DocumentClassifier("music", new InMemoryStore());
+      music.addDocument(new Document("1", "I love working to music. chillwave, synthwave"));
+      ClassifierSnapshot.capture(7, Arrays.asList(music)).write(file);
+
+      Map<String, DocumentClassifier> restored = new HashMap<>();
+      ClassifierSnapshot.read(file)
+          .restore(
+              genre ->
+                  restored.computeIfAbsent(
+                      genre, key -> new DocumentClassifier(key, new InMemoryStore())));
+      // the buckets are restored as they are, rather than through the dictionary
+      SparseVector expected = music.getTermCounts();
+      SparseVector actual = restored.get("music").getTermCounts();
+      assertThat(actual.size()).isEqualTo(expected.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertThat(actual.termAt(i)).isEqualTo(expected.termAt(i));
+        assertThat(actual.valueAt(i)).isEqualTo(expected.valueAt(i));
+      }
+
+      FeatureHasher.setGlobal(new FeatureHasher(1 << 11));
+      assertThatThrownBy(() -> ClassifierSnapshot.read(file)).isInstanceOf(IOException.class);
+    } finally {
+      FeatureHasher.setGlobal(null);
+    }
+    assertThatThrownBy(() -> ClassifierSnapshot.read(file)).isInstanceOf(IOException.class);
+  }
+}
@@ -1,11 +1,17 @@
 package com.mitchseymour.classifier;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 
 import com.mitchseymour.Document;
 import com.mitchseymour.store.InMemoryStore;
+import com.mitchseymour.vector.FeatureHasher;
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermDictionary;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -24,7 +30,8 @@ class DocumentClassifierTest {
     classifier.addDocument(doc2);
 
     // compute and retrieve the document centroid
-    Map<CharSequence, Double> centroid = classifier.getDocumentCentroid();
+    Map<CharSequence, Double> centroid =
+        classifier.getDocumentCentroid().toTermMap(TermDictionary.global());
 
     // assert that the centoid contains the correct values
     Map<CharSequence, Double> expected = new HashMap<>();
@@ -35,4 +42,81 @@ class DocumentClassifierTest {
     assertThat(centroid).hasSameSizeAs(expected);
     assertThat(centroid).containsAllEntriesOf(expected);
   }
+
+  @Test
+  @DisplayName("document centroid is updated when documents are removed or replaced")
+  void testDocumentCentroidIsUpdated() {
+    DocumentClassifier classifier = new DocumentClassifier("programming", new InMemoryStore());
+    classifier.addDocument(new Document("123", "hello, world"));
+    classifier.addDocument(new Document("456", "goodbye, world"));
+
+    // replacing a document should not change the doc count
+    classifier.addDocument(new Document("456", "goodbye"));
+    assertThat(classifier.getDocCount()).isEqualTo(2.0);
+
+    Map<CharSequence, Double> expected = new HashMap<>();
+    expected.put("world", 0.5);
+    expected.put("goodbye", 0.5);
+    expected.put("hello", 0.5);
+    assertThat(classifier.getDocumentCentroid().toTermMap(TermDictionary.global()))
+        .isEqualTo(expected);
+
+    // removing a document only affects the terms in that document
+    classifier.removeDocument("123");
+    assertThat(classifier.getDocCount()).isEqualTo(1.0);
+
+    expected.clear();
+    expected.put("goodbye", 1.0);
+    assertThat(classifier.getDocumentCentroid().toTermMap(TermDictionary.global()))
+        .isEqualTo(expected);
+  }
+
+  @Test
+  @DisplayName("adding documents in a batch is equivalent to adding them one at a time")
+  void testBatchAdd() {
+    DocumentClassifier single = new DocumentClassifier("programming", new InMemoryStore());
+    DocumentClassifier batch = new DocumentClassifier("programming", new InMemoryStore());
+    List<Document> docs =
+        Arrays.asList(
+            new Document("123", "hello, world"),
+            new Document("456", "goodbye, world"),
+            new Document("123", "hello again"));
+
+    docs.forEach(single::addDocument);
+    batch.addDocuments(docs);
+
+    assertThat(batch.getDocCount()).isEqualTo(2.0);
+    assertThat(batch.getDocumentCentroid().toTermMap(TermDictionary.global()))
+        .isEqualTo(single.getDocumentCentroid().toTermMap(TermDictionary.global()));
+  }
+
+  @Test
+  @DisplayName("hashed terms are counted in fixed buckets without growing the dictionary")
+  void testHashedTerms() {
+    FeatureHasher hasher = new FeatureHasher(1 << 10);
+    FeatureHasher.setGlobal(hasher);
+    try {
+      GenreIndex index = new GenreIndex();
+      DocumentClassifier classifier =
+          new DocumentClassifier("programming", new InMemoryStore(), index);
+      classifier.addDocument(new Document("123", "hello, world hashedtermzzz"));
+      classifier.addDocument(new Document("456", "goodbye, world"));
+      classifier.removeDocument("123");
+
+      assertThat(TermDictionary.global().lookup("hashedtermzzz")).isEqualTo(-1);
+      SparseVector counts = classifier.getTermCounts();
+      assertThat(counts.size()).isEqualTo(2);
+      assertThat(classifier.getGlobalTermCounts().get(hasher.bucketOf("world"))).isEqualTo(1.0);
+      assertThat(classifier.getGlobalTermCounts().get(hasher.bucketOf("hello"))).isEqualTo(0.0);
+
+      // the index is keyed by the same buckets as the classifier
+      Document query = new Document("goodbye cruel world");
+      Map<String, Double> scores = new HashMap<>();
+      index.score(query.getTermVector(), scores::put);
+      assertThat(scores.get("programming"))
+          .isCloseTo(classifier.similarityToDocumentCentroid(query).getScore(), within(1e-9));
+    } finally {
+      FeatureHasher.setGlobal(null);
+    }
+  }
 }
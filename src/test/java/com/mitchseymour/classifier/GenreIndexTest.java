@@ -0,0 +1,290 @@
+package com.mitchseymour.classifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.mitchseymour.Document;
+import com.mitchseymour.store.InMemoryStore;
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermDictionary;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class GenreIndexTest {
+
+  @Test
+  @DisplayName("index scores match the classifier's centroid similarity")
+  void testScoresMatchCentroidSimilarity() {
+    GenreIndex index = new GenreIndex();
+    InMemoryStore store = new InMemoryStore();
+    DocumentClassifier music = new DocumentClassifier("music", store, index);
+    DocumentClassifier film = new DocumentClassifier("film", store, index);
+    DocumentClassifier cooking = new DocumentClassifier("cooking", store, index);
+
+    music.addDocument(new Document("1", "I love working to music. chillwave, synthwave"));
+    music.addDocument(new Document("2", "synthwave is an electronic music microgenre"));
+    film.addDocument(new Document("3", "movies are cool. especially those that have good music"));
+    film.addDocument(new Document("4", "a horror film is one that seeks to elicit fear"));
+    film.removeDocument("4");
+    cooking.addDocument(new Document("5", "whisk the eggs"));
+
+    Document query = new Document("synthwave is my favorite music genre");
+    Map<String, Double> scores = new HashMap<>();
+    index.score(query.getTermVector(), scores::put);
+
+    // genres that don't share any terms with the document are not scored
+    assertThat(scores).hasSize(2);
+    assertThat(scores.get("music"))
+        .isCloseTo(music.similarityToDocumentCentroid(query).getScore(), within(1e-9));
+    assertThat(scores.get("film"))
+        .isCloseTo(film.similarityToDocumentCentroid(query).getScore(), within(1e-9));
+  }
+
+  @Test
+  @DisplayName("parallel scoring selects the same genres as sequential scoring")
+  void testParallelScoring() {
+    GenreIndex index = new GenreIndex();
+    InMemoryStore store = new InMemoryStore();
+    Random random = new Random(42);
+    for (int genre = 0; genre < 500; genre++) {
+      DocumentClassifier classifier = new DocumentClassifier("genre" + genre, store, index);
+      for (int doc = 0; doc < 3; doc++) {
+        classifier.addDocument(new Document(genre + "-" + doc, randomText(random, 20)));
+      }
+    }
+
+    GenreScorer sequential = new GenreScorer(index);
+    GenreScorer parallel = new GenreScorer(index, 4, 0);
+    try {
+      for (int i = 0; i < 20; i++) {
+        SparseVector query = new Document(randomText(random, 10)).getTermVector();
+        assertThat(parallel.closestGenres(query, 5, 0.0).genres())
+            .isEqualTo(sequential.closestGenres(query, 5, 0.0).genres());
+      }
+    } finally {
+      parallel.close();
+    }
+  }
+
+  @Test
+  @DisplayName("document frequencies are maintained as documents are added and removed")
+  void testDocumentFrequencies() {
+    GenreIndex index = new GenreIndex();
+    InMemoryStore store = new InMemoryStore();
+    DocumentClassifier music = new DocumentClassifier("music", store, index);
+    DocumentClassifier film = new DocumentClassifier("film", store, index);
+    music.addDocument(new Document("1", "synthwave synthwave chillwave"));
+    music.addDocument(new Document("2", "synthwave vaporwave"));
+    film.addDocuments(
+        Arrays.asList(new Document("3", "synthwave soundtrack"), new Document("4", "noir")));
+    film.removeDocument("4");
+
+    TermDictionary dictionary = TermDictionary.global();
+    // each document counts once, however often the term occurs in it
+    assertThat(index.documentFrequency(dictionary.idOf("synthwave"))).isEqualTo(3.0);
+    assertThat(index.documentFrequency(dictionary.idOf("chillwave"))).isEqualTo(1.0);
+    assertThat(index.documentFrequency(dictionary.idOf("noir"))).isEqualTo(0.0);
+  }
+
+  @Test
+  @DisplayName("TF-IDF ranks genres by their rare terms, rather than the terms every genre shares")
+  void testTfIdfWeighting() {
+    GenreIndex index = new GenreIndex();
+    InMemoryStore store = new InMemoryStore();
+    for (int genre = 0; genre < 5; genre++) {
+      new DocumentClassifier("common" + genre, store, index)
+          .addDocument(new Document("common" + genre, "the topic" + genre));
+    }
+    DocumentClassifier zebras = new DocumentClassifier("zebras", store, index);
+    zebras.addDocument(new Document("zebras", "zebra savanna grass"));
+
+    SparseVector query = new Document("the zebra").getTermVector();
+    GenreScorer scorer = new GenreScorer(index);
+    assertThat(scorer.closestGenres(query, 1, 0.0).genres()).doesNotContain("zebras");
+
+    index.setWeighting(GenreIndex.Weighting.TF_IDF);
+    assertThat(scorer.closestGenres(query, 1, 0.0).genres()).containsExactly("zebras");
+
+    index.setWeighting(GenreIndex.Weighting.TF);
+    assertThat(scorer.closestGenres(query, 1, 0.0).genres()).doesNotContain("zebras");
+  }
+
+  @Test
+  @DisplayName("TF-IDF index scores match the classifier's similarity, while weights are stale")
+  void testTfIdfScoresMatchCentroidSimilarity() {
+    // refresh on the querying thread, so that the refresh has finished when the query runs
+    GenreIndex index = new GenreIndex(Runnable::run, 16);
+    index.setWeighting(GenreIndex.Weighting.TF_IDF);
+    InMemoryStore store = new InMemoryStore();
+    Random random = new Random(42);
+    DocumentClassifier[] classifiers = new DocumentClassifier[4];
+    for (int genre = 0; genre < classifiers.length; genre++) {
+      classifiers[genre] = new DocumentClassifier("genre" + genre, store, index);
+      for (int doc = 0; doc < 10; doc++) {
+        classifiers[genre].addDocument(new Document(genre + "-" + doc, randomText(random, 20)));
+      }
+    }
+    Document query = new Document(randomText(random, 10));
+    int term = query.getTermVector().termAt(0);
+
+    // the first query refreshes the weights for the 40 documents
+    index.score(query.getTermVector(), (genre, score) -> {});
+    double weight = index.idfWeights().applyAsDouble(term);
+
+    // adding fewer than 10% more documents keeps the weights, and the norms stay consistent
+    classifiers[0].addDocument(new Document("extra-1", randomText(random, 20)));
+    classifiers[1].removeDocument("1-0");
+    Map<String, Double> scores = new HashMap<>();
+    index.score(query.getTermVector(), scores::put);
+    assertThat(index.idfWeights().applyAsDouble(term)).isEqualTo(weight);
+    for (DocumentClassifier classifier : classifiers) {
+      assertThat(scores.get(classifier.getGenre()))
+          .isCloseTo(classifier.similarityToDocumentCentroid(query).getScore(), within(1e-9));
+    }
+
+    // adding more than 10% more documents refreshes the weights when the next query starts
+    for (int doc = 0; doc < 10; doc++) {
+      classifiers[2].addDocument(new Document("extra-2-" + doc, randomText(random, 20)));
+    }
+    index.score(query.getTermVector(), scores::put);
+    assertThat(index.idfWeights().applyAsDouble(term)).isNotEqualTo(weight);
+    for (DocumentClassifier classifier : classifiers) {
+      assertThat(scores.get(classifier.getGenre()))
+          .isCloseTo(classifier.similarityToDocumentCentroid(query).getScore(), within(1e-9));
+    }
+  }
+
+  @Test
+  @DisplayName("stale weights are refreshed in the background, while documents are being added")
+  void testBackgroundRefresh() throws InterruptedException {
+    List<Runnable> refreshes = new ArrayList<>();
+    GenreIndex index = new GenreIndex(refreshes::add, 8);
+    index.setWeighting(GenreIndex.Weighting.TF_IDF);
+    index.enableLsh(4, 4);
+    InMemoryStore store = new InMemoryStore();
+    Random random = new Random(7);
+    DocumentClassifier[] classifiers = new DocumentClassifier[4];
+    for (int genre = 0; genre < classifiers.length; genre++) {
+      classifiers[genre] = new DocumentClassifier("genre" + genre, store, index);
+      classifiers[genre].addDocument(new Document(genre + "-0", randomText(random, 20)));
+    }
+    Document query = new Document(randomText(random, 10));
+    int term = query.getTermVector().termAt(0);
+    double weight = index.idfWeights().applyAsDouble(term);
+
+    // the query only schedules the refresh, and is scored with the current weights
+    index.score(query.getTermVector(), (genre, score) -> {});
+    assertThat(refreshes).hasSize(1);
+    assertThat(index.idfWeights().applyAsDouble(term)).isEqualTo(weight);
+    index.score(query.getTermVector(), (genre, score) -> {});
+    assertThat(refreshes).hasSize(1);
+
+    // writes that land while the postings are being re-weighted apply to the new norms too
+    Thread refresh = new Thread(refreshes.get(0));
+    refresh.start();
+    for (int doc = 1; doc < 20; doc++) {
+      classifiers[doc % 4].addDocument(new Document("extra-" + doc, randomText(random, 20)));
+      classifiers[(doc + 1) % 4].removeDocument((doc + 1) % 4 + "-0");
+    }
+    refresh.join();
+
+    assertThat(index.idfWeights().applyAsDouble(term)).isNotEqualTo(weight);
+    Map<String, Double> scores = new HashMap<>();
+    index.score(query.getTermVector(), scores::put);
+    Map<String, Double> approximate = new HashMap<>();
+    index.scoreApproximate(query.getTermVector(), 16, approximate::put);
+    for (DocumentClassifier classifier : classifiers) {
+      double expected = classifier.similarityToDocumentCentroid(query).getScore();
+      assertThat(scores.getOrDefault(classifier.getGenre(), 0.0)).isCloseTo(expected, within(1e-9));
+      assertThat(approximate.getOrDefault(classifier.getGenre(), expected))
+          .isCloseTo(expected, within(1e-9));
+    }
+  }
+
+  @Test
+  @DisplayName("approximate scoring finds identical genres, with the same scores as exact scoring")
+  void testApproximateScoring() {
+    GenreIndex index = new GenreIndex();
+    index.enableLsh(4, 8);
+    InMemoryStore store = new InMemoryStore();
+    Random random = new Random(42);
+    String[] texts = new String[200];
+    for (int genre = 0; genre < texts.length; genre++) {
+      // terms are only counted once per genre document, so the text mustn't repeat any terms
+      Set<String> terms = new LinkedHashSet<>();
+      while (terms.size() < 20) {
+        terms.add("term" + random.nextInt(300));
+      }
+      texts[genre] = String.join(" ", terms);
+      DocumentClassifier classifier = new DocumentClassifier("genre" + genre, store, index);
+      classifier.addDocument(new Document(String.valueOf(genre), texts[genre]));
+    }
+
+    for (int genre = 0; genre < 20; genre++) {
+      SparseVector query = new Document(texts[genre]).getTermVector();
+      Map<String, Double> exact = new HashMap<>();
+      index.score(query, exact::put);
+      Map<String, Double> approximate = new HashMap<>();
+      index.scoreApproximate(query, 0, approximate::put);
+
+      // a genre with the same terms as the document has the same signature, so it's always found
+      assertThat(approximate.get("genre" + genre)).isCloseTo(1.0, within(1e-9));
+      assertThat(approximate.size()).isLessThanOrEqualTo(exact.size());
+      for (Map.Entry<String, Double> entry : approximate.entrySet()) {
+        assertThat(entry.getValue()).isCloseTo(exact.get(entry.getKey()), within(1e-9));
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("LSH tables that are updated incrementally match tables built from scratch")
+  void testIncrementalLshTables() {
+    GenreIndex incremental = new GenreIndex();
+    incremental.enableLsh(8, 4);
+    GenreIndex rebuilt = new GenreIndex();
+    InMemoryStore store = new InMemoryStore();
+    Random random = new Random(42);
+    DocumentClassifier[] classifiers = new DocumentClassifier[100];
+    DocumentClassifier[] copies = new DocumentClassifier[100];
+    for (int genre = 0; genre < classifiers.length; genre++) {
+      classifiers[genre] = new DocumentClassifier("genre" + genre, store, incremental);
+      copies[genre] = new DocumentClassifier("genre" + genre, new InMemoryStore(), rebuilt);
+      for (int doc = 0; doc < 3; doc++) {
+        String text = randomText(random, 20);
+        classifiers[genre].addDocument(new Document(genre + "-" + doc, text));
+        copies[genre].addDocument(new Document(genre + "-" + doc, text));
+      }
+    }
+    // documents that are removed must also be removed from the tables
+    for (int genre = 0; genre < classifiers.length; genre += 2) {
+      classifiers[genre].removeDocument(genre + "-0");
+      copies[genre].removeDocument(genre + "-0");
+    }
+    rebuilt.enableLsh(8, 4);
+
+    for (int i = 0; i < 20; i++) {
+      SparseVector query = new Document(randomText(random, 20)).getTermVector();
+      Map<String, Double> expected = new HashMap<>();
+      rebuilt.scoreApproximate(query, 1, expected::put);
+      Map<String, Double> actual = new HashMap<>();
+      incremental.scoreApproximate(query, 1, actual::put);
+      assertThat(actual).isEqualTo(expected);
+    }
+  }
+
+  private static String randomText(Random random, int words) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < words; i++) {
+      text.append("term").append(random.nextInt(300)).append(' ');
+    }
+    return text.toString();
+  }
+}
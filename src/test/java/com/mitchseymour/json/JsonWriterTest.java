@@ -0,0 +1,64 @@
+package com.mitchseymour.json;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class JsonWriterTest {
+
+  private static String write(JsonWriterConsumer consumer) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (JsonWriter json = new JsonWriter(bytes)) {
+      consumer.accept(json);
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  @DisplayName("strings are escaped")
+  void testStringsAreEscaped() throws IOException {
+    String json =
+        write(
+            w -> w.beginObject().name("say \"hi\"").value("back\\slash\n\ttab\u0001").endObject());
+    assertThat(json).isEqualTo("{\"say \\\"hi\\\"\":\"back\\\\slash\\n\\ttab\\u0001\"}");
+  }
+
+  @Test
+  @DisplayName("non-ascii characters are encoded as UTF-8")
+  void testUtf8() throws IOException {
+    String text = "émigré ΑΣ 音楽 🎵";
+    assertThat(write(w -> w.value(text))).isEqualTo('"' + text + '"');
+
+    // unpaired surrogates can't be encoded
+    assertThat(write(w -> w.value("a\uD83Cb\uDFB5"))).isEqualTo("\"a?b?\"");
+  }
+
+  @Test
+  @DisplayName("output larger than the buffer is written in full")
+  void testLargeOutput() throws IOException {
+    StringBuilder expected = new StringBuilder("[");
+    for (int i = 0; i < 10_000; i++) {
+      expected.append(i == 0 ? "" : ",").append("\"é").append(i).append('"');
+    }
+    expected.append("]\n");
+
+    String json =
+        write(
+            w -> {
+              w.beginArray();
+              for (int i = 0; i < 10_000; i++) {
+                w.value("é" + i);
+              }
+              w.endArray().newline();
+            });
+    assertThat(json).isEqualTo(expected.toString());
+  }
+
+  private interface JsonWriterConsumer {
+    void accept(JsonWriter json) throws IOException;
+  }
+}
@@ -0,0 +1,89 @@
+package com.mitchseymour.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class EndpointMetricsTest {
+
+  @Test
+  @DisplayName("requests are counted, and rejections are kept out of the latency percentiles")
+  void testRecord() {
+    EndpointMetrics metrics = new EndpointMetrics();
+    for (int i = 1; i <= 100; i++) {
+      metrics.record(TimeUnit.MILLISECONDS.toNanos(i), 1000, 200);
+    }
+    metrics.record(TimeUnit.SECONDS.toNanos(10), 1000, 500);
+    metrics.record(0, -1, 429);
+    metrics.record(0, -1, 503);
+
+    assertThat(metrics.getRequestCount()).isEqualTo(101L);
+    assertThat(metrics.getErrorCount()).isEqualTo(1L);
+    assertThat(metrics.getRejectedCount()).isEqualTo(2L);
+    assertThat(metrics.getAllocatedBytes()).isEqualTo(101_000L);
+    assertThat(metrics.getLatencyP50Micros()).isBetween(50_000L, 51_500L);
+    assertThat(metrics.getLatencyMaxMicros()).isBetween(10_000_000L, 10_100_000L);
+    assertThat(metrics.getAllocatedBytesPerRequest()).isBetween(1000.0, 1010.0);
+  }
+
+  @Test
+  @DisplayName("percentiles only include recent requests, while counts are totals")
+  void testWindows() throws InterruptedException {
+    EndpointMetrics metrics = new EndpointMetrics(TimeUnit.MILLISECONDS.toNanos(50));
+    metrics.record(TimeUnit.SECONDS.toNanos(1), -1, 200);
+    assertThat(metrics.getLatencyMaxMicros()).isGreaterThanOrEqualTo(1_000_000L);
+
+    // the slow request is in the previous window, and then drops out altogether
+    Thread.sleep(60);
+    metrics.record(TimeUnit.MILLISECONDS.toNanos(1), -1, 200);
+    Thread.sleep(60);
+    metrics.record(TimeUnit.MILLISECONDS.toNanos(1), -1, 200);
+
+    assertThat(metrics.getRequestCount()).isEqualTo(3L);
+    assertThat(metrics.getLatencyMaxMicros()).isBetween(1_000L, 1_010L);
+    assertThat(metrics.getAllocatedBytes()).isZero();
+  }
+
+  @Test
+  @DisplayName("allocations are measured per thread")
+  void testAllocatedBytes() {
+    long before = EndpointMetrics.currentThreadAllocatedBytes();
+    byte[][] garbage = new byte[16][];
+    for (int i = 0; i < garbage.length; i++) {
+      garbage[i] = new byte[64 * 1024];
+    }
+    long allocated = EndpointMetrics.currentThreadAllocatedBytes() - before;
+    if (before >= 0) {
+      assertThat(allocated).isGreaterThanOrEqualTo(16L * 64 * 1024);
+    }
+    assertThat(garbage[15].length).isEqualTo(64 * 1024);
+  }
+
+  @Test
+  @DisplayName("endpoints are published as MBeans, and unknown paths share an MBean")
+  void testRegister() throws Exception {
+    ServerMetrics metrics =
+        new ServerMetrics(false, Arrays.asList("GET /nClosestGenres", "PUT /genreDocument"));
+    metrics.endpoint("GET", "/nClosestGenres").record(1000, -1, 200);
+    metrics.endpoint("GET", "/nope").record(1000, -1, 404);
+    metrics.endpoint("PUT", "/nClosestGenres").record(1000, -1, 404);
+    assertThat(metrics.allocatedBytes()).isEqualTo(-1L);
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    metrics.register(server);
+    // registering again (e.g. for a second server in the same JVM) replaces the MBeans
+    metrics.register(server);
+
+    ObjectName closestGenres =
+        new ObjectName("com.mitchseymour:type=Endpoint,method=GET,path=/nClosestGenres");
+    ObjectName unknown = new ObjectName("com.mitchseymour:type=Endpoint,method=ANY,path=unknown");
+    assertThat(server.getAttribute(closestGenres, "RequestCount")).isEqualTo(1L);
+    assertThat(server.getAttribute(unknown, "RequestCount")).isEqualTo(2L);
+  }
+}
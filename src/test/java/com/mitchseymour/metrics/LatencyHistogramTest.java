@@ -0,0 +1,58 @@
+package com.mitchseymour.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+  @Test
+  @DisplayName("percentiles are reported to within 1% of the exact value")
+  void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 100_000; value++) {
+      histogram.record(value * 1000);
+    }
+    assertThat(histogram.getCount()).isEqualTo(100_000L);
+    assertThat(histogram.getValueAtPercentile(50)).isBetween(50_000_000L, 50_500_000L);
+    assertThat(histogram.getValueAtPercentile(99)).isBetween(99_000_000L, 99_990_000L);
+    assertThat(histogram.getValueAtPercentile(99.9)).isBetween(99_900_000L, 100_900_000L);
+    assertThat(histogram.getMax()).isBetween(100_000_000L, 101_000_000L);
+  }
+
+  @Test
+  @DisplayName("every value maps to a bucket that contains it")
+  void testBuckets() {
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+      int index = LatencyHistogram.index(value);
+      assertThat(LatencyHistogram.highestEquivalentValue(index)).isGreaterThanOrEqualTo(value);
+      if (index > 0) {
+        assertThat(LatencyHistogram.highestEquivalentValue(index - 1)).isLessThan(value);
+      }
+    }
+    assertThat(LatencyHistogram.highestEquivalentValue(LatencyHistogram.index(Long.MAX_VALUE)))
+        .isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  @DisplayName("histograms can be copied, merged and reset")
+  void testMerge() {
+    LatencyHistogram first = new LatencyHistogram();
+    LatencyHistogram second = new LatencyHistogram();
+    first.record(10);
+    second.record(20);
+    second.record(30);
+
+    LatencyHistogram copy = first.copy();
+    copy.add(second);
+    first.reset();
+    assertThat(copy.getCount()).isEqualTo(3L);
+    assertThat(copy.getValueAtPercentile(50)).isEqualTo(20L);
+    assertThat(first.getCount()).isEqualTo(0L);
+    assertThat(first.getValueAtPercentile(50)).isEqualTo(0L);
+  }
+}
@@ -0,0 +1,51 @@
+package com.mitchseymour.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.mitchseymour.RequestHandler;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class RequestTraceTest {
+
+  @Test
+  @DisplayName("a traced request records each stage of classification and the size of its input")
+  void testClassificationStages() {
+    RequestHandler requestHandler = new RequestHandler();
+    requestHandler.addDocumentToGenre("music", "123", "chillwave synthwave vaporwave");
+    requestHandler.addDocumentToGenre("film", "456", "film noir with a synthwave score");
+
+    SlowRequestLog slowRequestLog = new SlowRequestLog(0, 1.0);
+    RequestTrace trace = slowRequestLog.start("GET /nClosestGenres", System.nanoTime());
+    requestHandler.getNClosestGenres("synthwave is my favorite genre", 2);
+    assertThat(slowRequestLog.finish(trace)).isTrue();
+
+    assertThat(trace.get("textLength")).isEqualTo(30L);
+    assertThat(trace.get("termCount")).isEqualTo(5L);
+    assertThat(trace.get("genresScored")).isEqualTo(2L);
+    assertThat(trace.get("tokenize")).isGreaterThanOrEqualTo(0L);
+    assertThat(trace.get("score")).isGreaterThanOrEqualTo(0L);
+    assertThat(trace.get("select")).isGreaterThanOrEqualTo(0L);
+    assertThat(trace.toString()).startsWith("GET /nClosestGenres took ").contains("genresScored=2");
+
+    // the stage isn't recorded once the trace has finished
+    RequestTrace.stage("late");
+    assertThat(trace.get("late")).isEqualTo(-1L);
+    assertThat(RequestTrace.current()).isNull();
+  }
+
+  @Test
+  @DisplayName("requests that aren't sampled or are faster than the threshold aren't logged")
+  void testSamplingAndThreshold() {
+    SlowRequestLog unsampled = new SlowRequestLog(0, 0.0);
+    assertThat(unsampled.start("GET /nClosestGenres", System.nanoTime())).isNull();
+    assertThat(unsampled.finish(null)).isFalse();
+
+    SlowRequestLog slowOnly = new SlowRequestLog(TimeUnit.MINUTES.toNanos(1), 1.0);
+    RequestTrace trace = slowOnly.start("PUT /genreDocument", System.nanoTime());
+    RequestTrace.stage("decode");
+    assertThat(slowOnly.finish(trace)).isFalse();
+    assertThat(trace.get("decode")).isGreaterThanOrEqualTo(0L);
+  }
+}
@@ -0,0 +1,40 @@
+package com.mitchseymour.similarity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermCounts;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class CosineSimilarityTest {
+  private final CosineSimilarity similarity = new CosineSimilarity();
+
+  private static SparseVector vector(double... termWeights) {
+    TermCounts counts = new TermCounts();
+    for (int term = 0; term < termWeights.length; term++) {
+      counts.add(term, termWeights[term]);
+    }
+    return counts.toVector(1.0);
+  }
+
+  @Test
+  @DisplayName("fractional weights are not truncated")
+  void testFractionalWeights() {
+    // e.g. a centroid, where each term appears in half of the documents
+    SparseVector centroid = vector(0.5, 0.5);
+    SparseVector doc = vector(1.0, 1.0);
+    assertThat(similarity.calculate(centroid, doc)).isCloseTo(1.0, within(1e-9));
+  }
+
+  @Test
+  @DisplayName("similarity only considers shared terms")
+  void testPartialOverlap() {
+    SparseVector left = vector(1.0, 2.0, 0.0);
+    SparseVector right = vector(0.0, 2.0, 1.0);
+    // 4 / (sqrt(5) * sqrt(5))
+    assertThat(similarity.calculate(left, right)).isCloseTo(0.8, within(1e-9));
+    assertThat(similarity.calculate(left, SparseVector.EMPTY)).isEqualTo(0.0);
+  }
+}
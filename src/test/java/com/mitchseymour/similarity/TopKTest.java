@@ -0,0 +1,59 @@
+package com.mitchseymour.similarity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TopKTest {
+
+  @Test
+  @DisplayName("only the k highest scores are kept")
+  void testHighestScoresAreKept() {
+    TopK topK = new TopK(3);
+    double[] scores = {0.1, 0.9, 0.3, 0.7, 0.5, 0.2};
+    for (int i = 0; i < scores.length; i++) {
+      topK.offer("genre" + i, scores[i]);
+    }
+    assertThat(topK.genres()).containsExactly("genre1", "genre3", "genre4");
+  }
+
+  @Test
+  @DisplayName("ties are broken by genre name")
+  void testTiesAreDeterministic() {
+    TopK topK = new TopK(2);
+    topK.offer("film", 0.5);
+    topK.offer("books", 0.5);
+    topK.offer("music", 0.5);
+    topK.offer("art", 0.1);
+    assertThat(topK.genres()).containsExactly("books", "film");
+  }
+
+  @Test
+  @DisplayName("scores below the minimum are discarded, and selections can be merged")
+  void testMinScoreAndMerge() {
+    TopK left = new TopK(3, 0.25);
+    left.offer("film", 0.2);
+    left.offer("music", 0.8);
+    TopK right = new TopK(3, 0.25);
+    right.offer("books", 0.4);
+    right.offer("art", 0.25);
+
+    left.addAll(right);
+    assertThat(left.genres()).containsExactly("music", "books", "art");
+    // every score that was offered to either selection is counted once, even if it was discarded
+    assertThat(left.offered()).isEqualTo(4);
+  }
+
+  @Test
+  @DisplayName("the heap grows with the scores offered rather than with k")
+  void testLargeK() {
+    TopK topK = new TopK(Integer.MAX_VALUE);
+    for (int i = 0; i < 100; i++) {
+      topK.offer("genre" + i, i);
+    }
+    assertThat(topK.size()).isEqualTo(100);
+    assertThat(topK.genres().get(0)).isEqualTo("genre99");
+    assertThat(topK.genres().get(99)).isEqualTo("genre0");
+  }
+}
@@ -70,4 +70,22 @@ class InMemoryStoreTest {
     // removing a non-existent doc ID shouldn't throw an error
     store.remove(genre, "000");
   }
+
+  @Test
+  @DisplayName("documents can be counted and listed a page at a time")
+  void testDocumentsCanBePaged() {
+    for (int i = 0; i < 10; i++) {
+      store.put(genre, new Document("doc" + i, "text " + i));
+    }
+    // replacing a document doesn't change the count
+    store.put(genre, new Document("doc3", "replaced"));
+    store.remove(genre, "doc9");
+    assertThat(store.count(genre)).isEqualTo(9);
+    assertThat(store.count("film")).isEqualTo(0);
+
+    assertThat(store.get(genre, null, 4)).containsExactly("doc0", "doc1", "doc2", "doc3");
+    assertThat(store.get(genre, "doc3", 4)).containsExactly("doc4", "doc5", "doc6", "doc7");
+    assertThat(store.get(genre, "doc7", 4)).containsExactly("doc8");
+    assertThat(store.get(genre, "doc8", 4)).isEmpty();
+  }
 }
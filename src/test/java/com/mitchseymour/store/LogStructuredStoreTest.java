@@ -0,0 +1,230 @@
+package com.mitchseymour.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.mitchseymour.Document;
+import com.mitchseymour.store.LogStructuredStore.FsyncPolicy;
+import com.mitchseymour.vector.FeatureHasher;
+import com.mitchseymour.vector.SparseVector;
+import com.mitchseymour.vector.TermDictionary;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LogStructuredStoreTest {
+  @TempDir Path directory;
+
+  private LogStructuredStore store;
+
+  private final Document doc1 =
+      new Document(
+          "123",
+          "Synthwave is an electronic music microgenre that is based predominately on the music associated with action, science-fiction, and horror film soundtracks of the 1980s");
+
+  private final Document doc2 =
+      new Document(
+          "456",
+          "Chillwave is a music microgenre that emerged in the late 2000s. It is characterized by a faded or dreamy retro pop sound");
+
+  private final String genre = "music";
+
+  /** Use small segments, so that tests span several segment files */
+  private LogStructuredStore open() {
+    return new LogStructuredStore(directory, FsyncPolicy.NEVER, 0, 512);
+  }
+
+  @AfterEach
+  void close() {
+    if (store != null) {
+      store.close();
+    }
+  }
+
+  @Test
+  @DisplayName("documents can be saved, retrieved and removed")
+  void testDocumentsCanBeSavedAndRemoved() {
+    store = open();
+    assertThat(store.put(genre, doc1)).isNull();
+    assertThat(store.put(genre, doc2)).isNull();
+    assertThat(store.get(genre)).containsExactly(doc1.getId(), doc2.getId());
+    assertThat(store.getDocument(genre, doc2.getId()).getText()).isEqualTo(doc2.getText());
+
+    // re-saving a document returns the previous version
+    Document previous = store.put(genre, new Document(doc1.getId(), "updated"));
+    assertThat(previous.getText()).isEqualTo(doc1.getText());
+
+    assertThat(store.remove(genre, doc1.getId()).getText()).isEqualTo("updated");
+    assertThat(store.get(genre)).containsExactly(doc2.getId());
+    assertThat(store.remove(genre, doc1.getId())).isNull();
+    assertThat(store.getDocument(genre, doc1.getId())).isNull();
+  }
+
+  @Test
+  @DisplayName("documents survive the store being re-opened")
+  void testDocumentsAreDurable() {
+    store = open();
+    store.put(genre, doc1);
+    store.put(genre, doc2);
+    store.put("film", new Document(doc1.getId(), "a film with a synthwave soundtrack"));
+    store.put(genre, new Document(doc2.getId(), "updated"));
+    store.remove(genre, doc1.getId());
+    store.close();
+
+    store = open();
+    assertThat(store.getGenres()).containsExactlyInAnyOrder(genre, "film");
+    assertThat(store.get(genre)).containsExactly(doc2.getId());
+    assertThat(store.count(genre)).isEqualTo(1);
+    assertThat(store.getDocument(genre, doc2.getId()).getText()).isEqualTo("updated");
+    assertThat(store.getDocument("film", doc1.getId()).getText())
+        .isEqualTo("a film with a synthwave soundtrack");
+
+    // new writes are appended after the recovered records
+    store.put(genre, doc1);
+    store.close();
+    store = open();
+    assertThat(store.get(genre)).containsExactly(doc1.getId(), doc2.getId());
+  }
+
+  @Test
+  @DisplayName("compaction removes dead records without losing live ones")
+  void testCompaction() throws IOException {
+    store = open();
+    store.put(genre, doc1);
+    for (int i = 0; i < 50; i++) {
+      store.put(genre, new Document(doc2.getId(), doc2.getText() + " " + i));
+      store.put("film", new Document("tmp" + i, "removed soon"));
+      store.remove("film", "tmp" + i);
+    }
+    long segmentsBefore = segmentFiles().size();
+
+    store.compact();
+    assertThat((long) segmentFiles().size()).isLessThan(segmentsBefore);
+    assertThat(store.getDocument(genre, doc1.getId()).getText()).isEqualTo(doc1.getText());
+    assertThat(store.getDocument(genre, doc2.getId()).getText()).isEqualTo(doc2.getText() + " 49");
+    store.close();
+
+    store = open();
+    assertThat(store.get(genre)).containsExactly(doc1.getId(), doc2.getId());
+    assertThat(store.get("film")).isEmpty();
+    assertThat(store.getDocument(genre, doc2.getId()).getText()).isEqualTo(doc2.getText() + " 49");
+  }
+
+  @Test
+  @DisplayName("records that fail their checksum are ignored when re-opening")
+  void testCorruptRecordsAreIgnored() throws IOException {
+    store = new LogStructuredStore(directory, FsyncPolicy.ALWAYS, 0, 4096);
+    store.put(genre, doc1);
+    store.put(genre, doc2);
+    store.close();
+
+    // flip a byte in the text of the last record, as if the write had been torn
+    Path segment = segmentFiles().get(0);
+    byte[] bytes = Files.readAllBytes(segment);
+    String contents = new String(bytes, StandardCharsets.ISO_8859_1);
+    bytes[contents.indexOf("Chillwave")] ^= 1;
+    Files.write(segment, bytes);
+
+    store = open();
+    assertThat(store.get(genre)).containsExactly(doc1.getId());
+    store.put(genre, doc2);
+    store.close();
+    store = open();
+    assertThat(store.get(genre)).containsExactly(doc1.getId(), doc2.getId());
+  }
+
+  @Test
+  @DisplayName("records after a torn write stay ignored across several restarts")
+  void testTornWriteIsCleared() throws IOException {
+    store = new LogStructuredStore(directory, FsyncPolicy.NEVER, 0, 4096);
+    store.put(genre, doc1);
+    store.put(genre, new Document("a", "first"));
+    store.put(genre, new Document("b", "second"));
+    store.close();
+
+    // shorten the declared length of the record after doc1, as if its header had been torn. The
+    // record after it is still intact, but must not be recovered since it follows a torn write
+    Path segment = segmentFiles().get(0);
+    byte[] bytes = Files.readAllBytes(segment);
+    int torn = 8 + ByteBuffer.wrap(bytes).getInt(0);
+    bytes[torn] = bytes[torn + 1] = bytes[torn + 2] = 0;
+    bytes[torn + 3] = 1;
+    Files.write(segment, bytes);
+
+    store = new LogStructuredStore(directory, FsyncPolicy.NEVER, 0, 4096);
+    assertThat(store.get(genre)).containsExactly(doc1.getId());
+    // a record with the same length as the torn one, so the next scan continues where it ended
+    store.put(genre, new Document("c", "third"));
+    store.close();
+    store = new LogStructuredStore(directory, FsyncPolicy.NEVER, 0, 4096);
+    assertThat(store.get(genre)).containsExactly(doc1.getId(), "c");
+  }
+
+  @Test
+  @DisplayName("documents can't be read once the store is closed")
+  void testGetDocumentAfterClose() {
+    store = open();
+    store.put(genre, doc1);
+    store.close();
+    assertThatThrownBy(() -> store.getDocument(genre, doc1.getId()))
+        .isInstanceOf(StoreException.class);
+  }
+
+  @Test
+  @DisplayName("term vectors are read back with their documents, without tokenizing them again")
+  void testTermVectorsArePersisted() {
+    TermDictionary dictionary = TermDictionary.global();
+    // the vector doesn't match the text, so a vector that was tokenized again would differ
+    SparseVector vector = new Document("synthwave synthwave chillwave").getTermVector();
+    store = open();
+    store.put(genre, new Document(doc1.getId(), "unrelated text", vector));
+    assertThat(store.getDocument(genre, doc1.getId()).getTermVector().toTermMap(dictionary))
+        .isEqualTo(vector.toTermMap(dictionary));
+    store.close();
+
+    store = open();
+    Document replaced = store.put(genre, new Document(doc1.getId(), doc2.getText()));
+    assertThat(replaced.getTermVector().toTermMap(dictionary))
+        .isEqualTo(vector.toTermMap(dictionary));
+    assertThat(store.remove(genre, doc1.getId()).getTermVector().toTermMap(dictionary))
+        .isEqualTo(doc2.getTermVector().toTermMap(dictionary));
+  }
+
+  @Test
+  @DisplayName("hashed term vectors are only read back if the number of buckets is unchanged")
+  void testHashedTermVectorsArePersisted() {
+    try {
+      FeatureHasher.setGlobal(new FeatureHasher(1 << 10));
+      SparseVector vector = new Document("synthwave synthwave chillwave").getTermVector();
+      store = open();
+      store.put(genre, new Document(doc1.getId(), "unrelated text", vector));
+      assertThat(store.getDocument(genre, doc1.getId()).getTermVector().dot(vector))
+          .isEqualTo(vector.dot(vector));
+      store.close();
+
+      // the stored buckets no longer apply, so the text is tokenized again
+      FeatureHasher.setGlobal(new FeatureHasher(1 << 12));
+      store = open();
+      Document doc = store.getDocument(genre, doc1.getId());
+      assertThat(doc.getTermVector().dot(new Document("unrelated text").getTermVector()))
+          .isEqualTo(2.0);
+    } finally {
+      FeatureHasher.setGlobal(null);
+    }
+  }
+
+  private List<Path> segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+}
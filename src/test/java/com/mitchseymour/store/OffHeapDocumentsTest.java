@@ -0,0 +1,93 @@
+package com.mitchseymour.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.mitchseymour.Document;
+import com.mitchseymour.vector.TermDictionary;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class OffHeapDocumentsTest {
+
+  private final Document doc1 =
+      new Document(
+          "123",
+          "Synthwave is an electronic music microgenre that is based predominately on the music associated with action, science-fiction, and horror film soundtracks of the 1980s");
+
+  private final Document doc2 =
+      new Document(
+          "456",
+          "Chillwave is a music microgenre that emerged in the late 2000s. It is characterized by a faded or dreamy retro pop sound");
+
+  @Test
+  @DisplayName("documents can be saved, replaced and removed")
+  void testDocumentsCanBeSaved() {
+    OffHeapDocuments documents = new OffHeapDocuments();
+    assertThat(documents.put(doc1)).isNull();
+    assertThat(documents.put(doc2)).isNull();
+
+    Document saved = documents.get(doc1.getId());
+    assertThat(saved.getId()).isEqualTo(doc1.getId());
+    assertThat(saved.getText()).isEqualTo(doc1.getText());
+    assertThat(saved.getTermVector().toTermMap(TermDictionary.global()))
+        .isEqualTo(doc1.getTermVector().toTermMap(TermDictionary.global()));
+
+    Document replaced = documents.put(new Document(doc1.getId(), "émigré synthwave"));
+    assertThat(replaced.getText()).isEqualTo(doc1.getText());
+    assertThat(documents.get(doc1.getId()).getText()).isEqualTo("émigré synthwave");
+
+    assertThat(documents.remove(doc2.getId()).getText()).isEqualTo(doc2.getText());
+    assertThat(documents.get(doc2.getId())).isNull();
+    assertThat(documents.remove(doc2.getId())).isNull();
+  }
+
+  @Test
+  @DisplayName("arenas are released and compacted as documents are removed")
+  void testArenasAreReclaimed() {
+    OffHeapDocuments documents = new OffHeapDocuments(1024);
+    documents.put(doc1);
+    for (int i = 0; i < 100; i++) {
+      documents.put(new Document("tmp" + i, doc2.getText()));
+    }
+    long allocated = documents.allocatedBytes();
+    Document removed = documents.get("tmp0");
+
+    for (int i = 0; i < 100; i++) {
+      documents.remove("tmp" + i);
+    }
+    assertThat(documents.allocatedBytes()).isLessThan(allocated);
+    assertThat(documents.get(doc1.getId()).getText()).isEqualTo(doc1.getText());
+
+    // documents that were read before being removed are still readable
+    assertThat(removed.getText()).isEqualTo(doc2.getText());
+  }
+
+  @Test
+  @DisplayName("the index stays consistent as it grows and documents are replaced and removed")
+  void testRandomUpdates() {
+    OffHeapDocuments documents = new OffHeapDocuments(4096);
+    Map<String, String> expected = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 20_000; i++) {
+      String docId = "doc" + random.nextInt(2_000);
+      if (random.nextInt(3) == 0) {
+        String previous = expected.remove(docId);
+        Document removed = documents.remove(docId);
+        assertThat(removed == null ? null : removed.getText()).isEqualTo(previous);
+      } else {
+        String text = "text " + i;
+        String previous = expected.put(docId, text);
+        Document replaced = documents.put(new Document(docId, text));
+        assertThat(replaced == null ? null : replaced.getText()).isEqualTo(previous);
+      }
+    }
+
+    for (int i = 0; i < 2_000; i++) {
+      Document doc = documents.get("doc" + i);
+      assertThat(doc == null ? null : doc.getText()).isEqualTo(expected.get("doc" + i));
+    }
+  }
+}
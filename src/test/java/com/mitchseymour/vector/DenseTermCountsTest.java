@@ -0,0 +1,60 @@
+package com.mitchseymour.vector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class DenseTermCountsTest {
+
+  @Test
+  @DisplayName("counts can be incremented and decremented")
+  void testCountsCanBeUpdated() {
+    DenseTermCounts counts = new DenseTermCounts(8);
+    counts.add(1, 1.0);
+    counts.add(1, 1.0);
+    counts.add(5, 1.0);
+    assertThat(counts.get(1)).isEqualTo(2.0);
+    assertThat(counts.get(5)).isEqualTo(1.0);
+    assertThat(counts.get(3)).isEqualTo(0.0);
+    assertThat(counts.norm()).isEqualTo(Math.sqrt(5.0));
+
+    // terms are no longer tracked once their count drops to 0
+    counts.add(5, -1.0);
+    assertThat(counts.get(5)).isEqualTo(0.0);
+    assertThat(counts.size()).isEqualTo(1);
+
+    // the vector is sorted by term ID and scaled
+    SparseVector vector = counts.toVector(0.5);
+    assertThat(vector.size()).isEqualTo(1);
+    assertThat(vector.termAt(0)).isEqualTo(1);
+    assertThat(vector.valueAt(0)).isEqualTo(1.0);
+  }
+
+  @Test
+  @DisplayName("counts match a map of counts after random updates")
+  void testRandomUpdates() {
+    DenseTermCounts counts = new DenseTermCounts(2_000);
+    Map<Integer, Double> expected = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      int term = random.nextInt(2_000);
+      double delta = expected.containsKey(term) && random.nextBoolean() ? -1.0 : 1.0;
+      counts.add(term, delta);
+      expected.merge(term, delta, Double::sum);
+      expected.remove(term, 0.0);
+    }
+
+    assertThat(counts.size()).isEqualTo(expected.size());
+    double sumOfSquares = 0.0;
+    for (int term = 0; term < 2_000; term++) {
+      double count = expected.getOrDefault(term, 0.0);
+      assertThat(counts.get(term)).isEqualTo(count);
+      sumOfSquares += count * count;
+    }
+    assertThat(counts.norm()).isEqualTo(Math.sqrt(sumOfSquares));
+  }
+}